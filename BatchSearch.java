@@ -0,0 +1,354 @@
+package org.myorg;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class answers a whole file of queries, one per line, in a single
+ *         pass over the index written by TFIDF. Every mapper loads the queries
+ *         and, for each postings list it reads, writes the weight of each
+ *         document once for every query holding the term. The reducers sum the
+ *         weights per (query, document) like Search does and keep the best k
+ *         documents of each query like Rank does.
+ *
+ *         The output has one line per hit: the query id (the line number of
+ *         the query in the file, starting at 1), the file name and the score,
+ *         best documents first. With -Dsearch.cosine=true the scores are
+ *         cosine scores, as Search computes them. A query term may hold the
+ *         wildcards of TermPattern, as with Search; a term of the index
+ *         matching several terms of a query is counted once for it.
+ *
+ *         Usage: BatchSearch [-Ddocids.table=<table>] <index> <output> <query
+ *         file> [k]
+ */
+public class BatchSearch extends Configured implements Tool {
+
+	private static final Logger LOG = Logger.getLogger(BatchSearch.class);
+
+	/** Configuration key holding the location of the query file */
+	public static final String QUERIES = "search.queries";
+	/** Configuration key for the number of documents kept per query */
+	public static final String TOP_K = "search.topk";
+
+	public static void main(String[] args) throws Exception {
+		int res = ToolRunner.run(new BatchSearch(), args);
+		System.exit(res);
+	}
+
+	/**
+	 * This method is used to execute the map reduce code
+	 */
+	public int run(String[] args) throws Exception {
+
+		Job job = Job.getInstance(getConf(), " BatchSearch ");
+		Configuration conf = job.getConfiguration();
+		Path queryFile = new Path(args[2]);
+		conf.set(QUERIES, queryFile.toString());
+		conf.setInt(TOP_K, args.length > 3 ? Integer.parseInt(args[3])
+				: QueryEngine.DEFAULT_K);
+		// only the terms of some query are read from the index
+		List<List<Text>> queries = readQueries(conf, queryFile);
+		TreeSet<String> terms = new TreeSet<String>();
+		for (List<Text> query : queries) {
+			for (Text term : query) {
+				terms.add(term.toString());
+			}
+		}
+		LOG.info("Searching " + queries.size() + " queries with "
+				+ terms.size() + " distinct terms");
+		conf.setStrings(InvertedIndexInputFormat.TERMS,
+				terms.toArray(new String[terms.size()]));
+
+		job.setJarByClass(this.getClass());
+		FileInputFormat.addInputPaths(job, args[0]);
+		FileOutputFormat.setOutputPath(job, new Path(args[1]));
+		job.setInputFormatClass(InvertedIndexInputFormat.class);
+		job.setMapperClass(Map.class);
+		job.setCombinerClass(Combine.class);
+		job.setReducerClass(Reduce.class);
+		job.setPartitionerClass(QueryPartitioner.class);
+		job.setMapOutputKeyClass(LongWritable.class);
+		job.setMapOutputValueClass(DoubleWritable.class);
+		job.setOutputKeyClass(IntWritable.class);
+		job.setOutputValueClass(Text.class);
+
+		StageCompression.configure(job);
+		Search.configureCosine(conf, args[0]);
+
+		boolean success = JobCounters.run(LOG, job);
+		JobCounters.logShuffle(LOG, job);
+		return success ? 0 : 1;
+
+	}
+
+	/**
+	 * Reads the query file. The query on line n has id n, starting at 1; an
+	 * empty line gives an empty query.
+	 *
+	 * @return the distinct terms of every query, by query id - 1
+	 */
+	static List<List<Text>> readQueries(Configuration conf, Path file)
+			throws IOException {
+		FileSystem fs = file.getFileSystem(conf);
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				fs.open(file), "UTF-8"));
+		List<List<Text>> queries = new ArrayList<List<Text>>();
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				queries.add(QueryEngine.parse(line));
+			}
+		} finally {
+			in.close();
+		}
+		return queries;
+	}
+
+	/**
+	 * Packs a query id and a document id into one map output key, so that the
+	 * keys sort by query and then by document
+	 */
+	static long key(int queryId, int doc) {
+		return (long) queryId << 32 | doc;
+	}
+
+	static int queryId(long key) {
+		return (int) (key >>> 32);
+	}
+
+	static int doc(long key) {
+		return (int) key;
+	}
+
+	/**
+	 *
+	 * This map class writes the weight of every posting of a term once for
+	 * each query containing the term
+	 *
+	 */
+	public static class Map extends
+			Mapper<Text, PostingsWritable, LongWritable, DoubleWritable> {
+
+		private final HashMap<Text, int[]> queriesByTerm = new HashMap<Text, int[]>();
+		private final HashMap<String, int[]> queriesByPattern = new HashMap<String, int[]>();
+		private final LongWritable queryDoc = new LongWritable();
+		private final DoubleWritable tfidf = new DoubleWritable();
+		private float[] norms;
+
+		/**
+		 * Builds the lookup from each term to the ids of the queries holding
+		 * it
+		 */
+		@Override
+		public void setup(Context context) throws IOException,
+				InterruptedException {
+			Configuration conf = context.getConfiguration();
+			List<List<Text>> queries = readQueries(conf,
+					new Path(conf.get(QUERIES)));
+			HashMap<Text, List<Integer>> ids = new HashMap<Text, List<Integer>>();
+			for (int i = 0; i < queries.size(); i++) {
+				for (Text term : queries.get(i)) {
+					List<Integer> list = ids.get(term);
+					if (list == null) {
+						list = new ArrayList<Integer>();
+						ids.put(term, list);
+					}
+					list.add(i + 1);
+				}
+			}
+			for (java.util.Map.Entry<Text, List<Integer>> entry : ids
+					.entrySet()) {
+				int[] queryIds = new int[entry.getValue().size()];
+				for (int i = 0; i < queryIds.length; i++) {
+					queryIds[i] = entry.getValue().get(i);
+				}
+				String term = entry.getKey().toString();
+				if (TermPattern.isPattern(term)) {
+					queriesByPattern.put(term, queryIds);
+				} else {
+					queriesByTerm.put(entry.getKey(), queryIds);
+				}
+			}
+			norms = Search.loadNorms(conf);
+		}
+
+		public void map(Text word, PostingsWritable postings, Context context)
+				throws IOException, InterruptedException {
+			int[] queryIds = queryIds(word);
+			if (queryIds == null) {
+				return;
+			}
+			for (int queryId : queryIds) {
+				for (int i = 0; i < postings.size(); i++) {
+					queryDoc.set(key(queryId, postings.getDoc(i)));
+					tfidf.set(norms == null ? postings.getWeight(i)
+							: DocumentNorms.cosine(postings.getWeight(i), norms,
+									postings.getDoc(i)));
+					context.write(queryDoc, tfidf);
+				}
+			}
+		}
+
+		/**
+		 * Returns the ids of the queries holding a term or a pattern matching
+		 * it, each once, or null if there are none
+		 */
+		private int[] queryIds(Text word) {
+			int[] exact = queriesByTerm.get(word);
+			if (queriesByPattern.isEmpty()) {
+				return exact;
+			}
+			TreeSet<Integer> ids = new TreeSet<Integer>();
+			if (exact != null) {
+				for (int id : exact) {
+					ids.add(id);
+				}
+			}
+			String term = word.toString();
+			for (java.util.Map.Entry<String, int[]> entry : queriesByPattern
+					.entrySet()) {
+				if (TermPattern.matches(entry.getKey(), term)) {
+					for (int id : entry.getValue()) {
+						ids.add(id);
+					}
+				}
+			}
+			if (ids.isEmpty()) {
+				return null;
+			}
+			int[] queryIds = new int[ids.size()];
+			int i = 0;
+			for (int id : ids) {
+				queryIds[i++] = id;
+			}
+			return queryIds;
+		}
+	}
+
+	/**
+	 *
+	 * This class adds up the partial scores of a (query, document) pair before
+	 * the shuffle
+	 *
+	 */
+	public static class Combine extends
+			Reducer<LongWritable, DoubleWritable, LongWritable, DoubleWritable> {
+		private final DoubleWritable total = new DoubleWritable();
+
+		@Override
+		public void reduce(LongWritable queryDoc,
+				Iterable<DoubleWritable> scores, Context context)
+				throws IOException, InterruptedException {
+			double sum = 0;
+			for (DoubleWritable score : scores) {
+				sum += score.get();
+			}
+			total.set(sum);
+			context.write(queryDoc, total);
+		}
+	}
+
+	/**
+	 *
+	 * This class sends all documents of a query to the same reducer
+	 *
+	 */
+	public static class QueryPartitioner extends
+			Partitioner<LongWritable, DoubleWritable> {
+		@Override
+		public int getPartition(LongWritable queryDoc, DoubleWritable score,
+				int numPartitions) {
+			return queryId(queryDoc.get()) % numPartitions;
+		}
+	}
+
+	/**
+	 *
+	 * This class sums the score of each document for a query and writes the
+	 * best k documents of the query. The keys of a query arrive one after the
+	 * other, so only one query is held at a time.
+	 *
+	 */
+	public static class Reduce extends
+			Reducer<LongWritable, DoubleWritable, IntWritable, Text> {
+		private String[] filenames;
+		private TopDocs top;
+		private int currentQuery = -1;
+		private int[] docs;
+		private double[] scores;
+		private final IntWritable queryId = new IntWritable();
+		private final Text hit = new Text();
+
+		@Override
+		public void setup(Context context) throws IOException,
+				InterruptedException {
+			filenames = DocumentIds.loadNames(context.getConfiguration());
+			int k = context.getConfiguration().getInt(TOP_K,
+					QueryEngine.DEFAULT_K);
+			top = new TopDocs(k);
+			docs = new int[k];
+			scores = new double[k];
+		}
+
+		@Override
+		public void reduce(LongWritable queryDoc,
+				Iterable<DoubleWritable> partialScores, Context context)
+				throws IOException, InterruptedException {
+			int query = queryId(queryDoc.get());
+			if (query != currentQuery) {
+				flush(context);
+				currentQuery = query;
+			}
+			double sum = 0;
+			for (DoubleWritable score : partialScores) {
+				sum += score.get();
+			}
+			top.offer(doc(queryDoc.get()), sum);
+		}
+
+		@Override
+		public void cleanup(Context context) throws IOException,
+				InterruptedException {
+			flush(context);
+		}
+
+		private void flush(Context context) throws IOException,
+				InterruptedException {
+			int n = top.drain(docs, scores);
+			queryId.set(currentQuery);
+			for (int i = 0; i < n; i++) {
+				String file = filenames == null ? String.valueOf(docs[i])
+						: filenames[docs[i]];
+				hit.set(file + "\t" + scores[i]);
+				context.write(queryId, hit);
+			}
+		}
+	}
+
+}
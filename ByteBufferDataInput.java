@@ -0,0 +1,167 @@
+package org.myorg;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.fs.Seekable;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class reads Writable encodings from a ByteBuffer, such as a
+ *         memory mapped index file. Each reader keeps its own position, so
+ *         several threads can read the same mapped file through their own
+ *         instance.
+ */
+public class ByteBufferDataInput implements DataInput, Seekable {
+
+	private final ByteBuffer buffer;
+
+	/**
+	 * Creates a reader over a private view of the buffer
+	 */
+	public ByteBufferDataInput(ByteBuffer buffer) {
+		this.buffer = buffer.duplicate();
+	}
+
+	@Override
+	public long getPos() {
+		return buffer.position();
+	}
+
+	@Override
+	public void seek(long position) {
+		buffer.position((int) position);
+	}
+
+	@Override
+	public boolean seekToNewSource(long targetPos) {
+		return false;
+	}
+
+	@Override
+	public void readFully(byte[] b) throws IOException {
+		readFully(b, 0, b.length);
+	}
+
+	@Override
+	public void readFully(byte[] b, int off, int len) throws IOException {
+		try {
+			buffer.get(b, off, len);
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+	}
+
+	@Override
+	public int skipBytes(int n) {
+		int skipped = Math.min(n, buffer.remaining());
+		buffer.position(buffer.position() + skipped);
+		return skipped;
+	}
+
+	@Override
+	public boolean readBoolean() throws IOException {
+		return readByte() != 0;
+	}
+
+	@Override
+	public byte readByte() throws IOException {
+		try {
+			return buffer.get();
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+	}
+
+	@Override
+	public int readUnsignedByte() throws IOException {
+		return readByte() & 0xff;
+	}
+
+	@Override
+	public short readShort() throws IOException {
+		try {
+			return buffer.getShort();
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+	}
+
+	@Override
+	public int readUnsignedShort() throws IOException {
+		return readShort() & 0xffff;
+	}
+
+	@Override
+	public char readChar() throws IOException {
+		return (char) readShort();
+	}
+
+	@Override
+	public int readInt() throws IOException {
+		try {
+			return buffer.getInt();
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+	}
+
+	@Override
+	public long readLong() throws IOException {
+		try {
+			return buffer.getLong();
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+	}
+
+	@Override
+	public float readFloat() throws IOException {
+		return Float.intBitsToFloat(readInt());
+	}
+
+	@Override
+	public double readDouble() throws IOException {
+		return Double.longBitsToDouble(readLong());
+	}
+
+	/**
+	 * Reads the bytes up to the next \n, \r or \r\n as characters, as
+	 * DataInputStream does
+	 *
+	 * @return the line without its end, or null at the end of the buffer
+	 */
+	@Override
+	public String readLine() {
+		if (!buffer.hasRemaining()) {
+			return null;
+		}
+		StringBuilder line = new StringBuilder();
+		while (buffer.hasRemaining()) {
+			int c = buffer.get() & 0xff;
+			if (c == '\n') {
+				break;
+			}
+			if (c == '\r') {
+				if (buffer.hasRemaining()
+						&& buffer.get(buffer.position()) == '\n') {
+					buffer.get();
+				}
+				break;
+			}
+			line.append((char) c);
+		}
+		return line.toString();
+	}
+
+	@Override
+	public String readUTF() throws IOException {
+		return DataInputStream.readUTF(this);
+	}
+}
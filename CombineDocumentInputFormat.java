@@ -0,0 +1,55 @@
+package org.myorg;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileRecordReader;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileRecordReaderWrapper;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This input format packs many whole files into each split, grouped by
+ *         the nodes and racks that hold them, so that a corpus of small
+ *         documents is read by a few map tasks instead of one per file. The
+ *         lines of each file are read as by TextInputFormat. Files are never
+ *         split, so every document is read by exactly one mapper, and the path
+ *         of the file being read is set under mapreduce.map.input.file before
+ *         its first line is returned.
+ */
+public class CombineDocumentInputFormat extends
+		CombineFileInputFormat<LongWritable, Text> {
+
+	@Override
+	protected boolean isSplitable(JobContext context, Path file) {
+		return false;
+	}
+
+	@Override
+	public RecordReader<LongWritable, Text> createRecordReader(
+			InputSplit split, TaskAttemptContext context) throws IOException {
+		return new CombineFileRecordReader<LongWritable, Text>(
+				(CombineFileSplit) split, context, LineReader.class);
+	}
+
+	/**
+	 * Reads the lines of one file of a combined split
+	 */
+	public static class LineReader extends
+			CombineFileRecordReaderWrapper<LongWritable, Text> {
+		public LineReader(CombineFileSplit split, TaskAttemptContext context,
+				Integer index) throws IOException, InterruptedException {
+			super(new TextInputFormat(), split, context, index);
+		}
+	}
+}
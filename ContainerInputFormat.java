@@ -0,0 +1,104 @@
+package org.myorg;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileRecordReader;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This input format reads the container files written by CorpusPacker,
+ *         SequenceFiles of (document path, document contents), and gives the
+ *         mappers the lines of each document as TextInputFormat would have
+ *         given the lines of the original file: the key is the offset of the
+ *         line in its document, the value the line without its end of line.
+ *         The containers are split at their sync marks, and the path of the
+ *         document being read is set under mapreduce.map.input.file before its
+ *         first line is returned.
+ */
+public class ContainerInputFormat extends SequenceFileInputFormat<LongWritable, Text> {
+
+	@Override
+	public RecordReader<LongWritable, Text> createRecordReader(
+			InputSplit split, TaskAttemptContext context) {
+		return new DocumentLineReader();
+	}
+
+	/**
+	 * Splits the documents of a container into lines
+	 */
+	public static class DocumentLineReader extends
+			RecordReader<LongWritable, Text> {
+		private final SequenceFileRecordReader<Text, BytesWritable> reader = new SequenceFileRecordReader<Text, BytesWritable>();
+		private final LongWritable offset = new LongWritable();
+		private final Text line = new Text();
+		private Configuration conf;
+		private byte[] document;
+		private int length;
+		private int position;
+
+		@Override
+		public void initialize(InputSplit split, TaskAttemptContext context)
+				throws IOException, InterruptedException {
+			reader.initialize(split, context);
+			conf = context.getConfiguration();
+		}
+
+		@Override
+		public boolean nextKeyValue() throws IOException, InterruptedException {
+			while (document == null || position >= length) {
+				if (!reader.nextKeyValue()) {
+					return false;
+				}
+				BytesWritable contents = reader.getCurrentValue();
+				document = contents.getBytes();
+				length = contents.getLength();
+				position = 0;
+				conf.set(MRJobConfig.MAP_INPUT_FILE, reader.getCurrentKey()
+						.toString());
+			}
+			int end = position;
+			while (end < length && document[end] != '\n') {
+				end++;
+			}
+			int lineEnd = end;
+			if (lineEnd > position && document[lineEnd - 1] == '\r') {
+				lineEnd--;
+			}
+			offset.set(position);
+			line.set(document, position, lineEnd - position);
+			position = end + 1;
+			return true;
+		}
+
+		@Override
+		public LongWritable getCurrentKey() {
+			return offset;
+		}
+
+		@Override
+		public Text getCurrentValue() {
+			return line;
+		}
+
+		@Override
+		public float getProgress() throws IOException {
+			return reader.getProgress();
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package org.myorg;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileRecordReader;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.Text;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class packs a corpus of many small files into a few large
+ *         container files, so that it can be indexed again and again without
+ *         opening every file each time. A map only job reads the files in
+ *         combined splits of up to input.combine.maxsize bytes (default 128
+ *         MB) and writes each split to one block compressed SequenceFile of
+ *         (full path of the document, contents of the document).
+ *
+ *         The documents keep their original paths, so the ids, file names and
+ *         scores are the same as when the files themselves are indexed. The
+ *         jobs read containers with -Dinput.containers=true.
+ *
+ *         Usage: CorpusPacker <input> <container dir>
+ */
+public class CorpusPacker extends Configured implements Tool {
+
+	private static final Logger LOG = Logger.getLogger(CorpusPacker.class);
+
+	public static enum Counters {
+		DOCUMENTS, BYTES
+	}
+
+	public static void main(String[] args) throws Exception {
+		int res = ToolRunner.run(new CorpusPacker(), args);
+		System.exit(res);
+	}
+
+	public int run(String[] args) throws Exception {
+		Job job = Job.getInstance(getConf(), " corpusPacker ");
+		job.setJarByClass(this.getClass());
+		FileInputFormat.addInputPaths(job, args[0]);
+		FileInputFormat.setInputDirRecursive(job, true);
+		FileInputFormat.setMaxInputSplitSize(job, job.getConfiguration()
+				.getLong(DocumentInput.COMBINE_MAX_SIZE, 128L * 1024 * 1024));
+		FileOutputFormat.setOutputPath(job, new Path(args[1]));
+		job.setInputFormatClass(WholeFileInputFormat.class);
+		job.setMapperClass(Mapper.class);
+		job.setNumReduceTasks(0);
+		job.setOutputKeyClass(Text.class);
+		job.setOutputValueClass(BytesWritable.class);
+		job.setOutputFormatClass(SequenceFileOutputFormat.class);
+		StageCompression.configureSequenceFile(job);
+
+		boolean success = JobCounters.run(LOG, job);
+		LOG.info("PACKED DOCUMENTS: "
+				+ job.getCounters().findCounter(Counters.DOCUMENTS).getValue()
+				+ ", BYTES: "
+				+ job.getCounters().findCounter(Counters.BYTES).getValue());
+		return success ? 0 : 1;
+	}
+
+	/**
+	 * Reads many whole files per split, each as one (path, contents) record
+	 */
+	public static class WholeFileInputFormat extends
+			CombineFileInputFormat<Text, BytesWritable> {
+
+		@Override
+		protected boolean isSplitable(JobContext context, Path file) {
+			return false;
+		}
+
+		@Override
+		public RecordReader<Text, BytesWritable> createRecordReader(
+				InputSplit split, TaskAttemptContext context)
+				throws IOException {
+			return new CombineFileRecordReader<Text, BytesWritable>(
+					(CombineFileSplit) split, context, WholeFileReader.class);
+		}
+	}
+
+	/**
+	 * Reads one file of a combined split as a single record
+	 */
+	public static class WholeFileReader extends
+			RecordReader<Text, BytesWritable> {
+		private final Path path;
+		private final long length;
+		private final Text key = new Text();
+		private final BytesWritable value = new BytesWritable();
+		private TaskAttemptContext context;
+		private boolean read;
+
+		public WholeFileReader(CombineFileSplit split,
+				TaskAttemptContext context, Integer index) {
+			this.path = split.getPath(index);
+			this.length = split.getLength(index);
+			this.context = context;
+		}
+
+		@Override
+		public void initialize(InputSplit split, TaskAttemptContext context) {
+			this.context = context;
+		}
+
+		@Override
+		public boolean nextKeyValue() throws IOException {
+			if (read) {
+				return false;
+			}
+			if (length > Integer.MAX_VALUE) {
+				throw new IOException("Document " + path
+						+ " is too large for a container");
+			}
+			byte[] contents = new byte[(int) length];
+			FileSystem fs = path.getFileSystem(context.getConfiguration());
+			FSDataInputStream in = fs.open(path);
+			try {
+				IOUtils.readFully(in, contents, 0, contents.length);
+			} finally {
+				in.close();
+			}
+			key.set(path.toString());
+			value.set(contents, 0, contents.length);
+			context.getCounter(Counters.DOCUMENTS).increment(1);
+			context.getCounter(Counters.BYTES).increment(length);
+			read = true;
+			return true;
+		}
+
+		@Override
+		public Text getCurrentKey() {
+			return key;
+		}
+
+		@Override
+		public BytesWritable getCurrentValue() {
+			return value;
+		}
+
+		@Override
+		public float getProgress() {
+			return read ? 1 : 0;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package org.myorg;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MapFileOutputFormat;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class contains map reduce code to give every document of the
+ *         input a dense integer id. The output is a MapFile from document path
+ *         to id. The ids are handed out in path order, so the same table read
+ *         sequentially also gives the path of every id. The input is read as
+ *         set up by DocumentInput, so the ids are the same whether the files
+ *         are read one by one, combined or from containers.
+ */
+public class DocIndex extends Configured implements Tool {
+
+	private static final Logger LOG = Logger.getLogger(DocIndex.class);
+
+	public static void main(String[] args) throws Exception {
+		int res = ToolRunner.run(new DocIndex(), args);
+		System.exit(res);
+	}
+
+	/**
+	 * Builds the document id table for the input unless the configuration
+	 * already names one, and records its location in the configuration.
+	 *
+	 * @param conf
+	 *            : configuration of the calling job
+	 * @param input
+	 *            : input paths of the calling job
+	 * @param defaultTable
+	 *            : where to write the table when none is configured
+	 * @throws Exception
+	 */
+	public static void prepare(Configuration conf, String input,
+			Path defaultTable) throws Exception {
+		if (conf.get(DocumentIds.TABLE) != null) {
+			return;
+		}
+		int res = ToolRunner.run(new Configuration(conf), new DocIndex(),
+				new String[] { input, defaultTable.toString() });
+		if (res != 0) {
+			throw new IOException("Document id table could not be built at "
+					+ defaultTable);
+		}
+		conf.set(DocumentIds.TABLE, defaultTable.toString());
+	}
+
+	/**
+	 * This method is used to execute the map reduce code
+	 */
+	public int run(String[] args) throws Exception {
+		Job job = Job.getInstance(getConf(), " docIndex ");
+		job.setJarByClass(this.getClass());
+		FileInputFormat.addInputPaths(job, args[0]);
+		FileInputFormat.setInputDirRecursive(job, true);
+		FileOutputFormat.setOutputPath(job, new Path(args[1]));
+		if (job.getConfiguration().getBoolean(DocumentInput.CONTAINERS, false)) {
+			// the paths are the keys of the container records
+			job.setInputFormatClass(SequenceFileInputFormat.class);
+			job.setMapperClass(ContainerMap.class);
+		} else {
+			DocumentInput.configure(job);
+			job.setMapperClass(Map.class);
+		}
+		job.setReducerClass(Reduce.class);
+		// a single reducer keeps the ids dense and in path order
+		job.setNumReduceTasks(1);
+		job.setMapOutputKeyClass(Text.class);
+		job.setMapOutputValueClass(NullWritable.class);
+		job.setOutputKeyClass(Text.class);
+		job.setOutputValueClass(IntWritable.class);
+		job.setOutputFormatClass(MapFileOutputFormat.class);
+
+		boolean success = JobCounters.run(LOG, job);
+		LOG.info("TOTAL NUMBER OF DOCUMENTS: "
+				+ job.getCounters().findCounter(Counters.DOCUMENTS).getValue());
+		return success ? 0 : 1;
+	}
+
+	public static enum Counters {
+		DOCUMENTS
+	}
+
+	/**
+	 *
+	 * This map class emits the path of the documents it was given without
+	 * reading their contents
+	 */
+	public static class Map extends
+			Mapper<LongWritable, Text, Text, NullWritable> {
+		@Override
+		public void run(Context context) throws IOException,
+				InterruptedException {
+			setup(context);
+			if (context.getInputSplit() instanceof CombineFileSplit) {
+				for (Path path : ((CombineFileSplit) context.getInputSplit())
+						.getPaths()) {
+					context.write(new Text(path.toString()), NullWritable.get());
+				}
+			} else {
+				FileSplit fileSplit = (FileSplit) context.getInputSplit();
+				context.write(new Text(fileSplit.getPath().toString()),
+						NullWritable.get());
+			}
+			cleanup(context);
+		}
+	}
+
+	/**
+	 *
+	 * This map class emits the paths of the documents packed in a container
+	 * by CorpusPacker
+	 */
+	public static class ContainerMap extends
+			Mapper<Text, BytesWritable, Text, NullWritable> {
+		@Override
+		public void map(Text path, BytesWritable contents, Context context)
+				throws IOException, InterruptedException {
+			context.write(path, NullWritable.get());
+		}
+	}
+
+	/**
+	 *
+	 * This reducer class receives the document paths in sorted order and
+	 * generates output as path id
+	 *
+	 */
+	public static class Reduce extends
+			Reducer<Text, NullWritable, Text, IntWritable> {
+		private final IntWritable id = new IntWritable(0);
+
+		@Override
+		public void reduce(Text path, Iterable<NullWritable> splits,
+				Context context) throws IOException, InterruptedException {
+			// a document split into several parts is still one document
+			context.write(path, id);
+			id.set(id.get() + 1);
+			context.getCounter(Counters.DOCUMENTS).increment(1);
+		}
+	}
+}
@@ -1,7 +1,7 @@
 package org.myorg;
 
 import java.io.IOException;
-import java.util.regex.Pattern;
+import java.util.Map.Entry;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
@@ -30,6 +30,10 @@ public class DocWordCount extends Configured implements Tool {
 
 	private static final Logger LOG = Logger.getLogger(DocWordCount.class);
 
+	public static enum Counters {
+		TOKENS, WORD_COUNTS
+	}
+
 	public static void main(String[] args) throws Exception {
 		int res = ToolRunner.run(new DocWordCount(), args);
 		System.exit(res);
@@ -39,35 +43,84 @@ public class DocWordCount extends Configured implements Tool {
 	 * This method is used to execute the map reduce code
 	 */
 	public int run(String[] args) throws Exception {
+		// documents are identified by the ids of the DocIndex table
+		DocIndex.prepare(getConf(), args[0], new Path(args[1] + "_docids"));
 		Job job = Job.getInstance(getConf(), " wordcount ");
 		job.setJarByClass(this.getClass());
 		FileInputFormat.addInputPaths(job, args[0]);
+		FileInputFormat.setInputDirRecursive(job, true);
 		FileOutputFormat.setOutputPath(job, new Path(args[1]));
+		DocumentInput.configure(job);
 		job.setMapperClass(Map.class);
+		job.setCombinerClass(Combine.class);
 		job.setReducerClass(Reduce.class);
+		job.setMapOutputKeyClass(TermDocWritable.class);
+		job.setMapOutputValueClass(IntWritable.class);
 		job.setOutputKeyClass(Text.class);
 		job.setOutputValueClass(IntWritable.class);
 
-		return job.waitForCompletion(true) ? 0 : 1;
+		StageCompression.configure(job);
+
+		boolean success = JobCounters.run(LOG, job);
+		JobCounters.logShuffle(LOG, job);
+		LOG.info("TOKENS: "
+				+ job.getCounters().findCounter(Counters.TOKENS).getValue()
+				+ ", WORD COUNTS: "
+				+ job.getCounters().findCounter(Counters.WORD_COUNTS)
+						.getValue());
+		return success ? 0 : 1;
 	}
 
 	/**
 	 * 
 	 * This map class is used to read the contains from the file line by line
-	 * and generate key value pairs where key -> Text(word#####filename) value
-	 * -> IntWritable(1)
+	 * and generate key value pairs where key -> TermDocWritable(word, document
+	 * id) value -> IntWritable(1). When mapper.aggregation is enabled the counts are
+	 * summed in a bounded table and emitted as partial counts instead.
 	 */
 	public static class Map extends
-			Mapper<LongWritable, Text, Text, IntWritable> {
+			Mapper<LongWritable, Text, TermDocWritable, IntWritable> {
 		private final static IntWritable one = new IntWritable(1);
-		// private Text word = new Text();
-		private String delimiter = "#####";
-		private static final Pattern WORD_BOUNDARY = Pattern
-				.compile("\\s*\\b\\s*");
+		private final Tokenizer tokenizer = new Tokenizer();
+		private final Text word = new Text();
+		private final TermDocWritable currentWord = new TermDocWritable();
+		private PartialCounts<TermDocWritable> partialCounts;
+		private int docId;
+		private long tokens;
+		// open only when the split holds several documents
+		private DocumentIds ids;
+		private String document;
+
+		/**
+		 * Looks up the id of the file being read once for the whole split.
+		 * When the split holds several documents the id is looked up each
+		 * time the document changes instead.
+		 */
+		@Override
+		public void setup(Context context) throws IOException,
+				InterruptedException {
+			partialCounts = PartialCounts.fromConfiguration(context
+					.getConfiguration());
+			try {
+				if (DocumentInput.hasManyDocuments(context)) {
+					ids = DocumentIds.open(context.getConfiguration());
+					return;
+				}
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			}
+			FileSplit fileSplit = (FileSplit) context.getInputSplit();
+			DocumentIds ids = DocumentIds.open(context.getConfiguration());
+			try {
+				docId = ids.getId(fileSplit.getPath());
+			} finally {
+				ids.close();
+			}
+		}
 
 		/**
 		 * This method is used the read the inputs and generate key value pairs
-		 * key -> Text(word#####filename) value -> IntWritable(1)​
+		 * key -> TermDocWritable(word, document id) value -> IntWritable(1)
 		 * 
 		 * @param offset
 		 *            : LongWritable
@@ -79,22 +132,77 @@ public class DocWordCount extends Configured implements Tool {
 		 */
 		public void map(LongWritable offset, Text lineText, Context context)
 				throws IOException, InterruptedException {
-			String line = lineText.toString().toLowerCase();
-			Text currentWord = new Text();
-
-			for (String word : WORD_BOUNDARY.split(line)) {
-				// Ignore if word is empty string
-				if (word.isEmpty()) {
-					continue;
+			if (ids != null) {
+				String path = DocumentInput.currentDocument(context
+						.getConfiguration());
+				if (!path.equals(document)) {
+					document = path;
+					docId = ids.getId(path);
 				}
-				// getting the current file name
-				FileSplit fileSplit = (FileSplit) context.getInputSplit();
-				String filename = fileSplit.getPath().getName();
-				// adding delimiter between word and filename
-				currentWord = new Text(word + delimiter + filename);
-				context.write(currentWord, one);
+			}
+			tokenizer.reset(lineText);
+			while (tokenizer.next(word)) {
+				tokens++;
+				currentWord.set(word, docId);
+				if (partialCounts == null) {
+					context.write(currentWord, one);
+				} else if (!partialCounts.increment(currentWord)) {
+					// the table keeps the key, so it gets a copy
+					TermDocWritable key = new TermDocWritable();
+					key.set(currentWord);
+					if (partialCounts.add(key)) {
+						flush(context);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Emits the remaining partial counts at the end of the task
+		 */
+		@Override
+		public void cleanup(Context context) throws IOException,
+				InterruptedException {
+			if (partialCounts != null) {
+				flush(context);
+			}
+			context.getCounter(Counters.TOKENS).increment(tokens);
+			if (ids != null) {
+				ids.close();
 			}
 		}
+
+		/**
+		 * Writes the partial counts held by the mapper and empties the table
+		 */
+		private void flush(Context context) throws IOException,
+				InterruptedException {
+			IntWritable count = new IntWritable();
+			for (Entry<TermDocWritable, int[]> entry : partialCounts.entries()) {
+				count.set(entry.getValue()[0]);
+				context.write(entry.getKey(), count);
+			}
+			partialCounts.clear();
+		}
+	}
+
+	/**
+	 * 
+	 * This combiner class adds up the counts of a word in a file before the
+	 * shuffle
+	 *
+	 */
+	public static class Combine extends
+			Reducer<TermDocWritable, IntWritable, TermDocWritable, IntWritable> {
+		@Override
+		public void reduce(TermDocWritable word, Iterable<IntWritable> counts,
+				Context context) throws IOException, InterruptedException {
+			int sum = 0;
+			for (IntWritable count : counts) {
+				sum += count.get();
+			}
+			context.write(word, new IntWritable(sum));
+		}
 	}
 
 	/**
@@ -104,13 +212,25 @@ public class DocWordCount extends Configured implements Tool {
 	 *
 	 */
 	public static class Reduce extends
-			Reducer<Text, IntWritable, Text, IntWritable> {
+			Reducer<TermDocWritable, IntWritable, Text, IntWritable> {
+		private static String delimiter = "#####";
+		private String[] filenames;
+
+		/**
+		 * Loads the file name of every document id
+		 */
+		@Override
+		public void setup(Context context) throws IOException,
+				InterruptedException {
+			filenames = DocumentIds.loadNames(context.getConfiguration());
+		}
+
 		/**
 		 * This method takes the input from the map class and displays the count
 		 * of each word in a file
 		 * 
 		 * @param word
-		 *            : Text format
+		 *            : TermDocWritable
 		 * @param counts
 		 *            : Iterable<IntWritable>
 		 * @param context
@@ -118,14 +238,16 @@ public class DocWordCount extends Configured implements Tool {
 		 * @throws InterruptedException
 		 */
 		@Override
-		public void reduce(Text word, Iterable<IntWritable> counts,
+		public void reduce(TermDocWritable word, Iterable<IntWritable> counts,
 				Context context) throws IOException, InterruptedException {
 			int sum = 0;
 			// Calculates the sum
 			for (IntWritable count : counts) {
 				sum += count.get();
 			}
-			context.write(word, new IntWritable(sum));
+			context.getCounter(Counters.WORD_COUNTS).increment(1);
+			context.write(new Text(word.getTerm() + delimiter
+					+ filenames[word.getDoc()]), new IntWritable(sum));
 		}
 	}
 }
@@ -0,0 +1,120 @@
+package org.myorg;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class reads the document id table written by DocIndex. Mappers
+ *         use it to turn the path of their documents into ids, and the final
+ *         stages use it to turn ids back into file names.
+ */
+public class DocumentIds implements Closeable {
+
+	/** Configuration key holding the location of the document id table */
+	public static final String TABLE = "docids.table";
+
+	private final MapFile.Reader reader;
+	private final Text key = new Text();
+	private final IntWritable id = new IntWritable();
+
+	private DocumentIds(MapFile.Reader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Opens the table named in the configuration
+	 *
+	 * @param conf
+	 * @return the table reader
+	 * @throws IOException
+	 *             if no table is configured
+	 */
+	public static DocumentIds open(Configuration conf) throws IOException {
+		return new DocumentIds(new MapFile.Reader(mapFile(conf), conf));
+	}
+
+	private static Path mapFile(Configuration conf) throws IOException {
+		String table = conf.get(TABLE);
+		if (table == null) {
+			throw new IOException("No document id table configured, set "
+					+ TABLE);
+		}
+		return new Path(table, "part-r-00000");
+	}
+
+	/**
+	 * Returns the id of the document with the given path
+	 *
+	 * @param path
+	 *            : full path of the document
+	 * @throws IOException
+	 *             if the document is not in the table
+	 */
+	public int getId(Path path) throws IOException {
+		return getId(path.toString());
+	}
+
+	/**
+	 * Returns the id of the document with the given path
+	 *
+	 * @param path
+	 *            : full path of the document, as given by Path.toString()
+	 * @throws IOException
+	 *             if the document is not in the table
+	 */
+	public int getId(String path) throws IOException {
+		key.set(path);
+		if (reader.get(key, id) == null) {
+			throw new IOException("Document " + path
+					+ " is not in the document id table");
+		}
+		return id.get();
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	/**
+	 * Loads the file name of every document, indexed by document id. Returns
+	 * null if no table is configured. Ids that are not in the table, such as
+	 * those of documents removed by IncrementalIndex, have a null name.
+	 *
+	 * @param conf
+	 * @throws IOException
+	 */
+	public static String[] loadNames(Configuration conf) throws IOException {
+		if (conf.get(TABLE) == null) {
+			return null;
+		}
+		MapFile.Reader reader = new MapFile.Reader(mapFile(conf), conf);
+		List<String> names = new ArrayList<String>();
+		try {
+			Text path = new Text();
+			IntWritable docId = new IntWritable();
+			// tables built by DocIndex are in id order, incremental ones
+			// need not be
+			while (reader.next(path, docId)) {
+				while (names.size() <= docId.get()) {
+					names.add(null);
+				}
+				names.set(docId.get(), new Path(path.toString()).getName());
+			}
+		} finally {
+			reader.close();
+		}
+		return names.toArray(new String[names.size()]);
+	}
+}
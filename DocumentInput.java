@@ -0,0 +1,79 @@
+package org.myorg;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.MapContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class chooses how the jobs that read the corpus get their
+ *         documents, and tells their mappers which document a line belongs to.
+ *
+ *         By default every file is read by its own map tasks, and the mappers
+ *         take the document from their FileSplit. With input.combine=true many
+ *         whole files are packed into each split by CombineDocumentInputFormat,
+ *         up to input.combine.maxsize bytes (default 128 MB). With
+ *         input.containers=true the input is the container files written by
+ *         CorpusPacker, read by ContainerInputFormat. In both cases a split
+ *         holds many documents, and the record reader records the path of the
+ *         document of the current line under mapreduce.map.input.file, the key
+ *         Hadoop's own CombineFileRecordReader uses.
+ */
+public class DocumentInput {
+
+	/** Configuration flag that packs many small files into each split */
+	public static final String COMBINE = "input.combine";
+	/** Configuration key for the most bytes of files packed in a split */
+	public static final String COMBINE_MAX_SIZE = "input.combine.maxsize";
+	/** Configuration flag for input packed by CorpusPacker */
+	public static final String CONTAINERS = "input.containers";
+
+	private static final long DEFAULT_COMBINE_MAX_SIZE = 128L * 1024 * 1024;
+
+	private DocumentInput() {
+	}
+
+	/**
+	 * Sets the input format of a job reading the corpus line by line
+	 */
+	public static void configure(Job job) {
+		Configuration conf = job.getConfiguration();
+		if (conf.getBoolean(CONTAINERS, false)) {
+			job.setInputFormatClass(ContainerInputFormat.class);
+		} else if (conf.getBoolean(COMBINE, false)) {
+			job.setInputFormatClass(CombineDocumentInputFormat.class);
+			FileInputFormat.setMaxInputSplitSize(job,
+					conf.getLong(COMBINE_MAX_SIZE, DEFAULT_COMBINE_MAX_SIZE));
+		}
+	}
+
+	/**
+	 * Returns true if the split of the task can hold more than one document,
+	 * in which case currentDocument gives the document of each record
+	 */
+	public static boolean hasManyDocuments(MapContext<?, ?, ?, ?> context)
+			throws ClassNotFoundException {
+		return !(context.getInputSplit() instanceof FileSplit)
+				|| isContainerInput(context);
+	}
+
+	static boolean isContainerInput(JobContext context)
+			throws ClassNotFoundException {
+		return ContainerInputFormat.class.isAssignableFrom(context
+				.getInputFormatClass());
+	}
+
+	/**
+	 * Returns the path of the document of the record the mapper was just
+	 * given
+	 */
+	public static String currentDocument(Configuration conf) {
+		return conf.getRaw(MRJobConfig.MAP_INPUT_FILE);
+	}
+}
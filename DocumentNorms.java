@@ -0,0 +1,306 @@
+package org.myorg;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class holds the Euclidean norm of the TF-IDF vector of every
+ *         document, used to turn the summed weights of a query into cosine
+ *         scores. TFIDF.Reduce2 adds up the squared weights of its postings
+ *         per document in a PartialSums table of bounded size, written to the
+ *         norms named output as (document id, sum of squares) records
+ *         whenever it fills up and once more in cleanup(), so that a reducer
+ *         writes about one record per document with little memory; once the
+ *         job has succeeded aggregate() adds them up per document in a small
+ *         job of its own, with a combiner, and writes the norms to _norms in
+ *         the index directory. A sharded index keeps one _norms file for all
+ *         its shards, since the document ids are global.
+ *
+ *         _norms is the number of documents followed by one float per
+ *         document id, 4 bytes a document, so that the whole array can be
+ *         loaded by every reducer and query engine. A document without words
+ *         has a norm of 0.
+ */
+public class DocumentNorms {
+
+	/** Name of the norms file in the index directory */
+	public static final String FILE = "_norms";
+	/** Named output of the partial sums of squares written by TFIDF */
+	public static final String NAMED_OUTPUT = "norms";
+	/** Directory of the squared weights under the index output */
+	static final String PARTIAL_DIR = "norms";
+	/** Directory of the sums per document while they are aggregated */
+	static final String SUMS_DIR = "_norms_sums";
+	/** Configuration key for the documents a reducer sums before a flush */
+	public static final String MAX_ENTRIES = "index.norms.max.entries";
+	public static final int DEFAULT_MAX_ENTRIES = PartialCounts.DEFAULT_MAX_ENTRIES;
+
+	private static final Logger LOG = Logger.getLogger(DocumentNorms.class);
+
+	private DocumentNorms() {
+	}
+
+	/**
+	 * Adds w * w to the sum of squares of a document, growing the array if
+	 * needed
+	 *
+	 * @return the array holding the sum
+	 */
+	static double[] add(double[] sums, int doc, double weight) {
+		if (doc >= sums.length) {
+			sums = Arrays.copyOf(sums, Math.max(doc + 1, sums.length * 2));
+		}
+		sums[doc] += weight * weight;
+		return sums;
+	}
+
+	/**
+	 *
+	 * The sums of squares of the documents seen by a reduce task. The number
+	 * of documents is bounded, as in PartialCounts, and the sums are written
+	 * to the norms output whenever the table fills up and by flush() in
+	 * cleanup().
+	 *
+	 */
+	static class PartialSums {
+		private final Map<Integer, double[]> sums = new HashMap<Integer, double[]>();
+		private final MultipleOutputs<?, ?> outputs;
+		private final String path;
+		private final int maxEntries;
+		private final IntWritable doc = new IntWritable();
+		private final DoubleWritable sum = new DoubleWritable();
+
+		/**
+		 * @param outputs
+		 *            : the outputs of the task, with the norms named output
+		 * @param path
+		 *            : base output path of the sums
+		 */
+		PartialSums(Configuration conf, MultipleOutputs<?, ?> outputs,
+				String path) {
+			this.outputs = outputs;
+			this.path = path;
+			this.maxEntries = conf.getInt(MAX_ENTRIES, DEFAULT_MAX_ENTRIES);
+		}
+
+		/**
+		 * Adds w * w to the sum of squares of a document, writing the table
+		 * out if it is full
+		 */
+		void add(int docId, double weight) throws IOException,
+				InterruptedException {
+			double[] square = sums.get(docId);
+			if (square != null) {
+				square[0] += weight * weight;
+				return;
+			}
+			sums.put(docId, new double[] { weight * weight });
+			if (sums.size() >= maxEntries) {
+				flush();
+			}
+		}
+
+		/**
+		 * Writes the sums to the norms output and empties the table
+		 */
+		void flush() throws IOException, InterruptedException {
+			for (Map.Entry<Integer, double[]> entry : sums.entrySet()) {
+				doc.set(entry.getKey());
+				sum.set(entry.getValue()[0]);
+				outputs.write(NAMED_OUTPUT, doc, sum, path);
+			}
+			sums.clear();
+		}
+	}
+
+	/**
+	 * Adds up the sums of squares written by the reducers of TFIDF into the
+	 * norms file of the index and removes them
+	 */
+	public static void aggregate(Configuration conf, Path index)
+			throws Exception {
+		FileSystem fs = index.getFileSystem(conf);
+		Path partial = new Path(index, PARTIAL_DIR);
+		Path summed = new Path(index, SUMS_DIR);
+		fs.delete(summed, true);
+		if (fs.exists(partial)) {
+			Job job = Job.getInstance(conf, " Norms ");
+			job.setJarByClass(DocumentNorms.class);
+			FileInputFormat.addInputPath(job, partial);
+			FileOutputFormat.setOutputPath(job, summed);
+			job.setInputFormatClass(SequenceFileInputFormat.class);
+			job.setMapperClass(Mapper.class);
+			job.setCombinerClass(Sum.class);
+			job.setReducerClass(Sum.class);
+			job.setOutputKeyClass(IntWritable.class);
+			job.setOutputValueClass(DoubleWritable.class);
+			job.setOutputFormatClass(SequenceFileOutputFormat.class);
+			StageCompression.configureSequenceFile(job);
+			if (!JobCounters.run(LOG, job)) {
+				throw new IOException("Summing the document norms of "
+						+ index + " failed");
+			}
+		}
+		FileStatus[] parts = fs.exists(summed) ? fs.listStatus(summed)
+				: new FileStatus[0];
+		double[] sums = new double[0];
+		IntWritable doc = new IntWritable();
+		DoubleWritable sum = new DoubleWritable();
+		for (FileStatus part : parts) {
+			if (part.getPath().getName().startsWith("_")
+					|| part.getPath().getName().startsWith(".")) {
+				continue;
+			}
+			SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+					SequenceFile.Reader.file(part.getPath()));
+			try {
+				while (reader.next(doc, sum)) {
+					if (doc.get() >= sums.length) {
+						sums = Arrays.copyOf(sums,
+								Math.max(doc.get() + 1, sums.length * 2));
+					}
+					sums[doc.get()] += sum.get();
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		write(fs, index, sums);
+		fs.delete(partial, true);
+		fs.delete(summed, true);
+		// the job wrote _SUCCESS before the norms; a query engine watching it
+		// must see the index as changed only now
+		Path success = new Path(index, "_SUCCESS");
+		if (fs.exists(success)) {
+			fs.setTimes(success, System.currentTimeMillis(), -1);
+		}
+	}
+
+	/**
+	 *
+	 * This reducer adds up the squared weights of a document; it is the
+	 * combiner as well
+	 *
+	 */
+	public static class Sum extends
+			Reducer<IntWritable, DoubleWritable, IntWritable, DoubleWritable> {
+		private final DoubleWritable sum = new DoubleWritable();
+
+		@Override
+		public void reduce(IntWritable doc, Iterable<DoubleWritable> squares,
+				Context context) throws IOException, InterruptedException {
+			double total = 0;
+			for (DoubleWritable square : squares) {
+				total += square.get();
+			}
+			sum.set(total);
+			context.write(doc, sum);
+		}
+	}
+
+	/**
+	 * Writes the norms file of an index from the sums of squares of the
+	 * documents
+	 */
+	static void write(FileSystem fs, Path index, double[] sums)
+			throws IOException {
+		int documents = sums.length;
+		while (documents > 0 && sums[documents - 1] == 0) {
+			documents--;
+		}
+		DataOutputStream out = fs.create(new Path(index, FILE), true);
+		try {
+			out.writeInt(documents);
+			for (int i = 0; i < documents; i++) {
+				out.writeFloat((float) Math.sqrt(sums[i]));
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads the norms of an index directory
+	 */
+	public static float[] load(Configuration conf, Path index)
+			throws IOException {
+		Path file = new Path(index, FILE);
+		FileSystem fs = file.getFileSystem(conf);
+		if (!fs.exists(file)) {
+			throw new IOException("No document norms in " + index
+					+ "; rebuild the index with TFIDF or LocalIndexer");
+		}
+		return read(fs.open(file));
+	}
+
+	/**
+	 * Reads the norms of a local index directory. The norms of a shard are
+	 * those of the sharded index it belongs to.
+	 */
+	public static float[] load(File index) throws IOException {
+		File file = new File(index, FILE);
+		if (!file.exists()
+				&& index.getName().startsWith(
+						ShardedIndexOutputFormat.SHARD_PREFIX)) {
+			file = new File(index.getParentFile(), FILE);
+		}
+		if (!file.exists()) {
+			throw new IOException("No document norms in " + index
+					+ "; rebuild the index with TFIDF or LocalIndexer");
+		}
+		return read(new FileInputStream(file));
+	}
+
+	private static float[] read(InputStream stream) throws IOException {
+		DataInputStream in = new DataInputStream(stream);
+		try {
+			int documents = in.readInt();
+			byte[] bytes = new byte[documents * 4];
+			in.readFully(bytes);
+			float[] norms = new float[documents];
+			ByteBuffer.wrap(bytes).asFloatBuffer().get(norms);
+			return norms;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns the weight of a posting divided by the norm of its document,
+	 * or the weight itself for a document without a norm. Summed over the
+	 * query terms this gives the cosine score of the document, up to the
+	 * norm of the query, which is the same for every document.
+	 */
+	public static double cosine(double weight, float[] norms, int doc) {
+		return doc < norms.length && norms[doc] > 0 ? weight / norms[doc]
+				: weight;
+	}
+}
@@ -0,0 +1,194 @@
+package org.myorg;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class measures what an index written by ImpactIndex costs in
+ *         ranking quality and what it saves in size and time. It is given a
+ *         query file, the exact index and one or more impact indexes of it,
+ *         for example with 8 and 16 bits. For every impact index and every
+ *         query the top k is compared with the top k of the exact index:
+ *
+ *         overlap is the share of the exact top k found in the top k of the
+ *         impact index; NDCG is the discounted cumulative gain of the impact
+ *         ranking, with the exact score of each document as its gain, over
+ *         that of the exact ranking, so it is 1 when the impact index ranks
+ *         the documents as well as the exact one, ties in score included; the
+ *         score error is the largest difference between the score the impact
+ *         index gives a document and its exact score, relative to the exact
+ *         score.
+ *
+ *         The means over the queries are printed with the number of queries
+ *         ranked in exactly the same order, the bytes of each index and the
+ *         p50 and p99 latency and throughput of rounds of the queries on one
+ *         thread. Both caches of the engine would hide the cost of decoding
+ *         the postings, so they are turned off unless -Dquery.cache.results
+ *         or -Dquery.cache.postings.bytes is given.
+ *
+ *         Usage: ImpactBenchmark [-Ddocids.table=<local table dir>] <query
+ *         file> <rounds> <k> <local exact index dir> <local impact index
+ *         dir>...
+ */
+public class ImpactBenchmark extends Configured implements Tool {
+
+	public static void main(String[] args) throws Exception {
+		int res = ToolRunner.run(new ImpactBenchmark(), args);
+		System.exit(res);
+	}
+
+	public int run(String[] args) throws Exception {
+		List<String> queries = QueryBenchmark.readQueries(new File(args[0]));
+		int rounds = Integer.parseInt(args[1]);
+		int k = Integer.parseInt(args[2]);
+		Configuration conf = new Configuration(getConf());
+		conf.setIfUnset(QueryEngine.CACHE_RESULTS, "0");
+		conf.setIfUnset(QueryEngine.CACHE_POSTINGS_BYTES, "0");
+		String[] names = DocumentIds.loadNames(conf);
+
+		QueryEngine exact = new QueryEngine(new File(args[3]), names);
+		exact.configure(conf);
+		try {
+			List<List<QueryEngine.Result>> reference = new ArrayList<List<QueryEngine.Result>>();
+			for (String query : queries) {
+				reference.add(exact.search(query, k));
+			}
+			System.out.println(args[3] + ": exact");
+			report(exact, new File(args[3]), queries, rounds, k);
+
+			for (int i = 4; i < args.length; i++) {
+				QueryEngine engine = new QueryEngine(new File(args[i]), names);
+				engine.configure(conf);
+				try {
+					compare(exact, engine, args[i], queries, reference, k);
+					report(engine, new File(args[i]), queries, rounds, k);
+				} finally {
+					engine.close();
+				}
+			}
+		} finally {
+			exact.close();
+		}
+		return 0;
+	}
+
+	/**
+	 * Prints the agreement of the top k of an impact index with the exact
+	 * top k
+	 */
+	private static void compare(QueryEngine exact, QueryEngine engine,
+			String dir, List<String> queries,
+			List<List<QueryEngine.Result>> reference, int k) throws Exception {
+		double overlap = 0;
+		double ndcg = 0;
+		double maxError = 0;
+		int sameOrder = 0;
+		for (int q = 0; q < queries.size(); q++) {
+			List<Text> terms = QueryEngine.parse(queries.get(q));
+			List<QueryEngine.Result> expected = reference.get(q);
+			List<QueryEngine.Result> results = engine.search(queries.get(q), k);
+			Set<Integer> expectedDocs = new HashSet<Integer>();
+			for (QueryEngine.Result result : expected) {
+				expectedDocs.add(result.doc);
+			}
+			int found = 0;
+			double dcg = 0;
+			double ideal = 0;
+			boolean same = results.size() == expected.size();
+			for (int i = 0; i < results.size(); i++) {
+				QueryEngine.Result result = results.get(i);
+				if (expectedDocs.contains(result.doc)) {
+					found++;
+				}
+				double score = exact.score(terms, result.doc);
+				dcg += score / log2(i + 2);
+				if (score > 0) {
+					maxError = Math.max(maxError,
+							Math.abs(result.score - score) / score);
+				}
+				same &= i < expected.size() && expected.get(i).doc == result.doc;
+			}
+			for (int i = 0; i < expected.size(); i++) {
+				ideal += expected.get(i).score / log2(i + 2);
+			}
+			overlap += expected.isEmpty() ? 1 : found
+					/ (double) expected.size();
+			ndcg += ideal == 0 ? 1 : dcg / ideal;
+			if (same) {
+				sameOrder++;
+			}
+		}
+		int n = Math.max(1, queries.size());
+		System.out.println(dir + ": " + engine.getImpacts() + ", overlap@"
+				+ k + ": " + String.format("%.4f", overlap / n) + ", NDCG@"
+				+ k + ": " + String.format("%.4f", ndcg / n)
+				+ ", same order: " + sameOrder + " of " + queries.size()
+				+ " queries, largest score error: "
+				+ String.format("%.2f%%", 100 * maxError));
+	}
+
+	private static double log2(int x) {
+		return Math.log(x) / Math.log(2);
+	}
+
+	/**
+	 * Prints the size of an index and times rounds of the queries on it
+	 */
+	private static void report(QueryEngine engine, File dir,
+			List<String> queries, int rounds, int k) throws Exception {
+		long[] latencies = new long[queries.size() * rounds];
+		long start = System.nanoTime();
+		for (int i = 0; i < latencies.length; i++) {
+			long begin = System.nanoTime();
+			engine.search(queries.get(i % queries.size()), k);
+			latencies[i] = System.nanoTime() - begin;
+		}
+		long elapsed = System.nanoTime() - start;
+		Arrays.sort(latencies);
+		System.out.println("  index bytes: "
+				+ indexBytes(dir)
+				+ ", p50: "
+				+ QueryBenchmark.micros(QueryBenchmark.percentile(latencies,
+						0.50))
+				+ " us, p99: "
+				+ QueryBenchmark.micros(QueryBenchmark.percentile(latencies,
+						0.99)) + " us, throughput: "
+				+ String.format("%.0f", latencies.length / (elapsed / 1e9))
+				+ " queries/s");
+	}
+
+	/**
+	 * Returns the bytes of the dictionaries and postings of a local index,
+	 * in its shards too
+	 */
+	private static long indexBytes(File dir) {
+		long bytes = 0;
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return 0;
+		}
+		for (File file : files) {
+			if (file.isDirectory()) {
+				bytes += indexBytes(file);
+			} else if (file.getName().endsWith(InvertedIndexOutputFormat.TERMS)
+					|| file.getName().endsWith(
+							InvertedIndexOutputFormat.POSTINGS)) {
+				bytes += file.length();
+			}
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,260 @@
+package org.myorg;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class writes a copy of an index written by TFIDF or
+ *         LocalIndexer whose postings hold quantized impacts instead of
+ *         weights: the weight divided by one scale for the whole index and
+ *         rounded, in an unsigned byte with index.impact.bits=8 (the default)
+ *         or in a short with 16. The scale is the largest weight of the index,
+ *         read from the dictionaries, divided by the largest impact, so every
+ *         weight is kept to within half a scale; a weight that would round to
+ *         0 is given an impact of 1, so a document never loses a term.
+ *
+ *         Since every term shares the scale, a score is the sum of the
+ *         impacts of the document times the scale, and QueryEngine sums the
+ *         impacts themselves, which as doubles below 2 to the power of 53 add
+ *         up exactly in any order, and multiplies only the k results by the
+ *         scale. The dictionary holds the largest impact of every term in
+ *         place of its largest weight, the bound MaxScore needs.
+ *
+ *         The copy has the same partitions, shards and file names as the
+ *         index, and _impacts, holding the number of bits and the scale,
+ *         tells the readers of the index how to decode its postings. The
+ *         norms of the index are copied along, so cosine scores still work.
+ *         The index is read and written by this one process, partition by
+ *         partition.
+ *
+ *         Usage: ImpactIndex [-Dindex.impact.bits=<8 or 16>] <index dir>
+ *         <impact index output dir>
+ */
+public class ImpactIndex extends Configured implements Tool {
+
+	private static final Logger LOG = Logger.getLogger(ImpactIndex.class);
+	/** Name of the impact description in the index directory */
+	public static final String FILE = "_impacts";
+	/** Configuration key for the bits of an impact, 8 or 16 */
+	public static final String BITS = "index.impact.bits";
+
+	/**
+	 *
+	 * How the postings of an impact index are encoded
+	 *
+	 */
+	public static class Impacts {
+		public final int bits;
+		public final double scale;
+
+		public Impacts(int bits, double scale) {
+			if (bits != 8 && bits != 16) {
+				throw new IllegalArgumentException(
+						"Impacts have 8 or 16 bits, not " + bits);
+			}
+			this.bits = bits;
+			this.scale = scale;
+		}
+
+		/**
+		 * Returns the largest impact
+		 */
+		public int getMaxImpact() {
+			return (1 << bits) - 1;
+		}
+
+		/**
+		 * Returns the impact of a weight
+		 */
+		public int quantize(double weight) {
+			int impact = (int) Math.min(getMaxImpact(),
+					Math.round(weight / scale));
+			return impact == 0 && weight > 0 ? 1 : impact;
+		}
+
+		@Override
+		public String toString() {
+			return bits + " bit impacts, scale " + scale;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int res = ToolRunner.run(new ImpactIndex(), args);
+		System.exit(res);
+	}
+
+	public int run(String[] args) throws Exception {
+		Configuration conf = getConf();
+		Path input = new Path(args[0]);
+		Path output = new Path(args[1]);
+		FileSystem fs = input.getFileSystem(conf);
+		FileSystem outFs = output.getFileSystem(conf);
+		if (load(fs, input) != null) {
+			throw new IOException(input + " already holds impacts");
+		}
+		if (outFs.exists(output)) {
+			throw new IOException("Output directory " + output
+					+ " already exists");
+		}
+		FileStatus[] dictionaries = InvertedIndexReader.listDictionaries(fs,
+				input);
+
+		double maxWeight = 0;
+		TermDictionary.Entry entry = new TermDictionary.Entry();
+		for (FileStatus status : dictionaries) {
+			TermDictionary.Reader dictionary = new TermDictionary.Reader(
+					fs.open(status.getPath()), status.getLen());
+			try {
+				while (dictionary.next(entry)) {
+					maxWeight = Math.max(maxWeight, entry.maxWeight);
+				}
+			} finally {
+				dictionary.close();
+			}
+		}
+		int bits = conf.getInt(BITS, 8);
+		Impacts impacts = new Impacts(bits, maxWeight > 0 ? maxWeight
+				/ ((1 << bits) - 1) : 1);
+		LOG.info("Largest weight " + maxWeight + ", " + impacts);
+
+		long inputBytes = 0;
+		long outputBytes = 0;
+		for (FileStatus status : dictionaries) {
+			Path terms = status.getPath();
+			// a partition of a shard keeps its shard directory
+			String parent = terms.getParent().getName();
+			boolean shard = parent
+					.startsWith(ShardedIndexOutputFormat.SHARD_PREFIX);
+			Path dir = shard ? new Path(output, parent) : output;
+			Path postings = InvertedIndexInputFormat.postingsPath(terms);
+			inputBytes += status.getLen() + fs.getFileStatus(postings).getLen();
+			outputBytes += quantize(fs, terms, postings, status.getLen(),
+					outFs, new Path(dir, terms.getName()), new Path(dir,
+							postings.getName()), impacts);
+		}
+		write(outFs, output, impacts);
+		Path norms = new Path(input, DocumentNorms.FILE);
+		if (fs.exists(norms)) {
+			FileUtil.copy(fs, norms, outFs, new Path(output,
+					DocumentNorms.FILE), false, conf);
+		}
+		outFs.create(new Path(output, "_SUCCESS"), true).close();
+		LOG.info("INDEX BYTES: " + inputBytes + ", IMPACT INDEX BYTES: "
+				+ outputBytes);
+		return 0;
+	}
+
+	/**
+	 * Rewrites one partition with impacts
+	 *
+	 * @return the bytes of the new dictionary and postings
+	 */
+	private static long quantize(FileSystem fs, Path terms, Path postings,
+			long termsLength, FileSystem outFs, Path outTerms,
+			Path outPostings, Impacts impacts) throws IOException {
+		TermDictionary.Reader dictionary = new TermDictionary.Reader(
+				fs.open(terms), termsLength);
+		// the postings lists are in dictionary order
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				fs.open(postings), 65536));
+		FSDataOutputStream out = outFs.create(outPostings, false);
+		TermDictionary.Writer writer = new TermDictionary.Writer(
+				outFs.create(outTerms, false));
+		TermDictionary.Entry entry = new TermDictionary.Entry();
+		PostingsWritable list = new PostingsWritable();
+		try {
+			while (dictionary.next(entry)) {
+				list.readPostings(in, entry.df);
+				entry.offset = out.getPos();
+				int maxImpact = 0;
+				int previousDoc = 0;
+				for (int i = 0; i < list.size(); i++) {
+					int impact = impacts.quantize(list.getWeight(i));
+					PostingsWritable.writeImpact(out, previousDoc,
+							list.getDoc(i), impact, impacts.bits);
+					previousDoc = list.getDoc(i);
+					maxImpact = Math.max(maxImpact, impact);
+				}
+				entry.maxWeight = maxImpact;
+				writer.add(entry);
+			}
+		} finally {
+			dictionary.close();
+			in.close();
+			out.close();
+			writer.close();
+		}
+		return outFs.getFileStatus(outTerms).getLen()
+				+ outFs.getFileStatus(outPostings).getLen();
+	}
+
+	private static void write(FileSystem fs, Path index, Impacts impacts)
+			throws IOException {
+		DataOutputStream out = fs.create(new Path(index, FILE), true);
+		try {
+			out.writeInt(impacts.bits);
+			out.writeDouble(impacts.scale);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads how the postings of an index directory are encoded. A shard is
+	 * encoded as the sharded index it belongs to.
+	 *
+	 * @return null for an index of plain weights
+	 */
+	public static Impacts load(FileSystem fs, Path index) throws IOException {
+		Path file = new Path(index, FILE);
+		if (!fs.exists(file)
+				&& index.getName().startsWith(
+						ShardedIndexOutputFormat.SHARD_PREFIX)) {
+			file = new Path(index.getParent(), FILE);
+		}
+		return fs.exists(file) ? read(fs.open(file)) : null;
+	}
+
+	/**
+	 * Reads how the postings of a local index directory are encoded
+	 *
+	 * @return null for an index of plain weights
+	 */
+	public static Impacts load(File index) throws IOException {
+		File file = new File(index, FILE);
+		if (!file.exists()
+				&& index.getName().startsWith(
+						ShardedIndexOutputFormat.SHARD_PREFIX)) {
+			file = new File(index.getParentFile(), FILE);
+		}
+		return file.exists() ? read(new FileInputStream(file)) : null;
+	}
+
+	private static Impacts read(InputStream stream) throws IOException {
+		DataInputStream in = new DataInputStream(stream);
+		try {
+			return new Impacts(in.readInt(), in.readDouble());
+		} finally {
+			in.close();
+		}
+	}
+}
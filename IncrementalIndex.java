@@ -0,0 +1,596 @@
+package org.myorg;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class adds new and changed documents to an index without
+ *         reading the rest of the corpus again. The index is kept in a state
+ *         directory:
+ *
+ *         - tf: the term frequency of every word in every document, in the
+ *         index format of InvertedIndexOutputFormat
+ *
+ *         - index: the TF-IDF index read by Search, BatchSearch and
+ *         QueryEngine
+ *
+ *         - docids: the document id table
+ *
+ *         - paths: the id of every document by its path relative to the
+ *         input directory it was read from
+ *
+ *         - meta: the number of documents and index partitions
+ *
+ *         Only the documents of the delta directory go through TermFrequency.
+ *         Their term frequencies are then merged, partition by partition,
+ *         into the previous state. A document with the same relative path as
+ *         one already indexed, such as a/b.txt in the delta directory and in
+ *         the directory it was first read from, replaces it and keeps its id,
+ *         and the relative paths listed in the file given by
+ *         incremental.deleted are removed. Words whose documents did
+ *         not change keep their TF-IDF weights; the others are recomputed from
+ *         their term frequencies.
+ *
+ *         The IDF of the words is computed with the number of documents at
+ *         the time of the last full recomputation. Once the number of
+ *         documents has moved away from it by more than incremental.idf.drift
+ *         (default 0.05, a fraction), the weights of every word are
+ *         recomputed. Since log10(1 + N/df) grows at most in proportion to N,
+ *         no weight is off by more than that fraction in between.
+ *
+ *         Every posting of the new index, copied or recomputed, also has its
+ *         squared weight added to the sums of squares of its document, as in
+ *         TFIDF, so the norms are those of the weights the index holds; they
+ *         are summed into index/_norms once the merge has succeeded.
+ *         -Dindex.norms=false leaves them out.
+ *
+ *         Usage: IncrementalIndex <new state dir> <delta input dir>
+ *         [<previous state dir>]. Without a previous state the delta is the
+ *         whole corpus.
+ */
+public class IncrementalIndex extends Configured implements Tool {
+
+	private static final Logger LOG = Logger.getLogger(IncrementalIndex.class);
+
+	/** Configuration key for the file listing the paths of deleted documents */
+	public static final String DELETED = "incremental.deleted";
+	/** Configuration key for the allowed drift of the number of documents */
+	public static final String DRIFT = "incremental.idf.drift";
+
+	static final String PREVIOUS = "incremental.previous";
+	static final String REMOVED = "incremental.removed";
+	static final String IDF_DOCUMENTS = "incremental.idf.documents";
+	static final String RECOMPUTE = "incremental.recompute";
+
+	public static final String TF_DIR = "tf";
+	public static final String INDEX_DIR = "index";
+	public static final String DOCIDS_DIR = "docids";
+	public static final String PATHS_DIR = "paths";
+	public static final String META = "meta";
+
+	public static enum Counters {
+		TERMS_COPIED, TERMS_RECOMPUTED, TERMS_UPDATED, TERMS_ADDED, TERMS_DROPPED
+	}
+
+	public static void main(String[] args) throws Exception {
+		int res = ToolRunner.run(new IncrementalIndex(), args);
+		System.exit(res);
+	}
+
+	/**
+	 * This method is used to execute the map reduce code
+	 */
+	public int run(String[] args) throws Exception {
+		Configuration conf = getConf();
+		Path state = new Path(args[0]);
+		Path delta = new Path(args[1]);
+		Path previous = args.length > 2 ? new Path(args[2]) : null;
+		FileSystem fs = state.getFileSystem(conf);
+
+		// document path -> id of every document still in the index
+		TreeMap<String, Integer> table = new TreeMap<String, Integer>();
+		// path relative to the input directory it came in -> id
+		TreeMap<String, Integer> paths = new TreeMap<String, Integer>();
+		Properties meta = new Properties();
+		if (previous != null) {
+			readTable(conf, new Path(previous, DOCIDS_DIR), table);
+			if (fs.exists(new Path(previous, PATHS_DIR))) {
+				readTable(conf, new Path(previous, PATHS_DIR), paths);
+			} else {
+				// a state written before the relative paths were kept
+				for (java.util.Map.Entry<String, Integer> entry : table
+						.entrySet()) {
+					paths.put(new Path(entry.getKey()).getName(),
+							entry.getValue());
+				}
+			}
+			InputStream in = fs.open(new Path(previous, META));
+			try {
+				meta.load(in);
+			} finally {
+				in.close();
+			}
+		}
+		int nextDoc = Integer.parseInt(meta.getProperty("next.doc", "0"));
+		HashMap<Integer, String> pathsById = new HashMap<Integer, String>();
+		for (java.util.Map.Entry<String, Integer> entry : table.entrySet()) {
+			pathsById.put(entry.getValue(), entry.getKey());
+		}
+
+		// ids whose postings are dropped from the previous state
+		List<Integer> removed = new ArrayList<Integer>();
+		for (String path : readDeleted(conf)) {
+			Integer id = paths.remove(path);
+			if (id == null) {
+				LOG.warn("Deleted document " + path + " is not in the index");
+				continue;
+			}
+			table.remove(pathsById.get(id));
+			removed.add(id);
+		}
+		int added = 0;
+		int replaced = 0;
+		// new documents get their ids in the order of the path Texts, as
+		// DocIndex gives them
+		List<Path> files = new ArrayList<Path>();
+		RemoteIterator<LocatedFileStatus> it = fs.listFiles(delta, true);
+		while (it.hasNext()) {
+			LocatedFileStatus status = it.next();
+			Path file = status.getPath();
+			// empty files hold no words, so TermFrequency does not count them
+			if (status.getLen() > 0 && !file.getName().startsWith("_")
+					&& !file.getName().startsWith(".")) {
+				files.add(file);
+			}
+		}
+		Collections.sort(files, new Comparator<Path>() {
+			@Override
+			public int compare(Path a, Path b) {
+				return new Text(a.toString()).compareTo(new Text(b.toString()));
+			}
+		});
+		Path root = fs.makeQualified(delta);
+		HashSet<String> delivered = new HashSet<String>();
+		for (Path file : files) {
+			String relative = relativePath(root, file);
+			if (!delivered.add(relative)) {
+				throw new IOException("Document " + relative
+						+ " appears twice in " + delta);
+			}
+			Integer old = paths.get(relative);
+			int id;
+			if (old == null) {
+				id = nextDoc++;
+				added++;
+			} else {
+				// the new version keeps the id of the document it replaces
+				id = old;
+				table.remove(pathsById.get(id));
+				removed.add(id);
+				replaced++;
+			}
+			paths.put(relative, id);
+			table.put(file.toString(), id);
+		}
+
+		int documents = table.size();
+		double drift = conf.getFloat(DRIFT, 0.05f);
+		int idfDocuments = Integer.parseInt(meta.getProperty("idf.documents",
+				"0"));
+		boolean recompute = previous == null
+				|| Math.abs(documents / (double) idfDocuments - 1) > drift;
+		if (recompute) {
+			idfDocuments = documents;
+		}
+		LOG.info("Documents: " + documents + " (" + added + " added, "
+				+ replaced + " replaced, "
+				+ (removed.size() - replaced) + " deleted)"
+				+ (recompute ? ", recomputing every weight" : ""));
+
+		Path newTable = new Path(args[0] + "_docids");
+		writeTable(conf, newTable, table);
+		Path newPaths = new Path(args[0] + "_paths");
+		writeTable(conf, newPaths, paths);
+
+		// term frequencies of the delta documents only
+		Path deltaTf = new Path(args[0] + "_delta");
+		Configuration tfConf = new Configuration(conf);
+		tfConf.set(DocumentIds.TABLE, newTable.toString());
+		if (ToolRunner.run(tfConf, new TermFrequency(), new String[] {
+				delta.toString(), deltaTf.toString() }) != 0) {
+			return 1;
+		}
+
+		Job job = Job.getInstance(conf, " incrementalIndex ");
+		Configuration jobConf = job.getConfiguration();
+		if (previous != null) {
+			jobConf.set(PREVIOUS, previous.toString());
+			// the partitions must line up with those of the previous state
+			job.setNumReduceTasks(Integer.parseInt(meta
+					.getProperty("partitions")));
+		}
+		String[] removedIds = new String[removed.size()];
+		for (int i = 0; i < removedIds.length; i++) {
+			removedIds[i] = removed.get(i).toString();
+		}
+		jobConf.setStrings(REMOVED, removedIds);
+		jobConf.setInt(IDF_DOCUMENTS, idfDocuments);
+		jobConf.setBoolean(RECOMPUTE, recompute);
+		job.setJarByClass(this.getClass());
+		FileInputFormat.addInputPath(job, deltaTf);
+		FileOutputFormat.setOutputPath(job, state);
+		job.setInputFormatClass(SequenceFileInputFormat.class);
+		job.setMapperClass(Mapper.class);
+		job.setReducerClass(Merge.class);
+		job.setPartitionerClass(TermDocWritable.TermPartitioner.class);
+		job.setGroupingComparatorClass(TermDocWritable.TermComparator.class);
+		job.setOutputKeyClass(TermDocWritable.class);
+		job.setOutputValueClass(DoubleWritable.class);
+		LazyOutputFormat.setOutputFormatClass(job,
+				InvertedIndexOutputFormat.class);
+
+		StageCompression.configure(job);
+		boolean norms = conf.getBoolean(TFIDF.NORMS, true);
+		jobConf.setBoolean(TFIDF.NORMS, norms);
+		if (norms) {
+			MultipleOutputs.addNamedOutput(job, DocumentNorms.NAMED_OUTPUT,
+					SequenceFileOutputFormat.class, IntWritable.class,
+					DoubleWritable.class);
+			StageCompression.compressSequenceFiles(job);
+		}
+
+		boolean success = JobCounters.run(LOG, job);
+		for (Counters counter : Counters.values()) {
+			LOG.info(counter + ": "
+					+ job.getCounters().findCounter(counter).getValue());
+		}
+		if (!success) {
+			return 1;
+		}
+		if (norms) {
+			DocumentNorms.aggregate(conf, new Path(state, INDEX_DIR));
+		}
+		fs.rename(newTable, new Path(state, DOCIDS_DIR));
+		fs.rename(newPaths, new Path(state, PATHS_DIR));
+		fs.delete(deltaTf, true);
+		meta.setProperty("documents", String.valueOf(documents));
+		meta.setProperty("idf.documents", String.valueOf(idfDocuments));
+		meta.setProperty("next.doc", String.valueOf(nextDoc));
+		meta.setProperty("partitions",
+				String.valueOf(job.getNumReduceTasks()));
+		OutputStream out = fs.create(new Path(state, META));
+		try {
+			meta.store(out, "IncrementalIndex state");
+		} finally {
+			out.close();
+		}
+		IndexStats.logSize(LOG, conf, new Path(state, INDEX_DIR));
+		return 0;
+	}
+
+	private static void readTable(Configuration conf, Path dir,
+			TreeMap<String, Integer> table) throws IOException {
+		MapFile.Reader reader = new MapFile.Reader(new Path(dir,
+				"part-r-00000"), conf);
+		try {
+			Text path = new Text();
+			IntWritable docId = new IntWritable();
+			while (reader.next(path, docId)) {
+				table.put(path.toString(), docId.get());
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Writes the table in the layout of DocIndex, so DocumentIds reads it
+	 */
+	private static void writeTable(Configuration conf, Path dir,
+			TreeMap<String, Integer> table) throws IOException {
+		MapFile.Writer writer = new MapFile.Writer(conf, new Path(dir,
+				"part-r-00000"), MapFile.Writer.keyClass(Text.class),
+				MapFile.Writer.valueClass(IntWritable.class));
+		try {
+			Text path = new Text();
+			IntWritable docId = new IntWritable();
+			for (java.util.Map.Entry<String, Integer> entry : table.entrySet()) {
+				path.set(entry.getKey());
+				docId.set(entry.getValue());
+				writer.append(path, docId);
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Returns the path of a file relative to the input directory it was
+	 * found in, or its name if it is the input itself
+	 */
+	static String relativePath(Path root, Path file) {
+		if (file.equals(root)) {
+			return file.getName();
+		}
+		String path = file.getName();
+		for (Path parent = file.getParent(); parent != null
+				&& !parent.equals(root); parent = parent.getParent()) {
+			path = parent.getName() + Path.SEPARATOR + path;
+		}
+		return path;
+	}
+
+	private static List<String> readDeleted(Configuration conf)
+			throws IOException {
+		List<String> names = new ArrayList<String>();
+		if (conf.get(DELETED) == null) {
+			return names;
+		}
+		Path file = new Path(conf.get(DELETED));
+		BufferedReader in = new BufferedReader(new InputStreamReader(file
+				.getFileSystem(conf).open(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (!line.trim().isEmpty()) {
+					names.add(line.trim());
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return names;
+	}
+
+	/**
+	 *
+	 * This reducer merges the term frequencies of the delta documents of its
+	 * partition with the same partition of the previous state. Both are
+	 * sorted by word, so the previous partition is read once from start to
+	 * end alongside the reduce calls, and the words the delta does not
+	 * contain are copied over in between.
+	 *
+	 */
+	public static class Merge extends
+			Reducer<TermDocWritable, DoubleWritable, TermDocWritable, DoubleWritable> {
+		private MultipleOutputs<TermDocWritable, DoubleWritable> outputs;
+		private int[] removed;
+		private double idfDocuments;
+		private boolean recompute;
+
+		// the previous tf and index partitions hold the same words in order
+		private InvertedIndexInputFormat.IndexRecordReader previousTf;
+		private InvertedIndexInputFormat.IndexRecordReader previousIndex;
+		private boolean hasPrevious;
+
+		private final Text term = new Text();
+		private final PostingsWritable kept = new PostingsWritable();
+		private final PostingsWritable delta = new PostingsWritable();
+		private final PostingsWritable merged = new PostingsWritable();
+		private final TermDocWritable key = new TermDocWritable();
+		private final DoubleWritable weight = new DoubleWritable();
+		// the sums of squares, if norms are written
+		private DocumentNorms.PartialSums squares;
+
+		@Override
+		public void setup(Context context) throws IOException,
+				InterruptedException {
+			Configuration conf = context.getConfiguration();
+			outputs = new MultipleOutputs<TermDocWritable, DoubleWritable>(
+					context);
+			String[] ids = conf.getStrings(REMOVED, new String[0]);
+			removed = new int[ids.length];
+			for (int i = 0; i < ids.length; i++) {
+				removed[i] = Integer.parseInt(ids[i]);
+			}
+			Arrays.sort(removed);
+			idfDocuments = conf.getInt(IDF_DOCUMENTS, 0);
+			recompute = conf.getBoolean(RECOMPUTE, true);
+			if (conf.getBoolean(TFIDF.NORMS, false)) {
+				squares = new DocumentNorms.PartialSums(conf, outputs,
+						INDEX_DIR + "/" + DocumentNorms.PARTIAL_DIR + "/part");
+			}
+
+			String previous = conf.get(PREVIOUS);
+			if (previous != null) {
+				String part = String.format("part-r-%05d"
+						+ InvertedIndexOutputFormat.TERMS, context
+						.getTaskAttemptID().getTaskID().getId());
+				previousTf = open(new Path(new Path(previous, TF_DIR), part),
+						context);
+				previousIndex = open(new Path(new Path(previous, INDEX_DIR),
+						part), context);
+				hasPrevious = previousTf != null && previousTf.nextKeyValue()
+						& previousIndex.nextKeyValue();
+			}
+		}
+
+		/**
+		 * Opens a partition of the previous state, or returns null if it
+		 * holds no words
+		 */
+		private static InvertedIndexInputFormat.IndexRecordReader open(
+				Path terms, Context context) throws IOException,
+				InterruptedException {
+			FileSystem fs = terms.getFileSystem(context.getConfiguration());
+			if (!fs.exists(terms)) {
+				return null;
+			}
+			InvertedIndexInputFormat.IndexRecordReader reader = new InvertedIndexInputFormat.IndexRecordReader();
+			reader.initialize(new FileSplit(terms, 0, fs.getFileStatus(terms)
+					.getLen(), null), context);
+			return reader;
+		}
+
+		@Override
+		public void reduce(TermDocWritable word,
+				Iterable<DoubleWritable> frequencies, Context context)
+				throws IOException, InterruptedException {
+			term.set(word.getTerm());
+			while (hasPrevious
+					&& previousTf.getCurrentKey().compareTo(term) < 0) {
+				copyPrevious(context);
+			}
+			delta.clear();
+			for (DoubleWritable frequency : frequencies) {
+				delta.add(word.getDoc(), frequency.get());
+			}
+			if (hasPrevious && previousTf.getCurrentKey().equals(term)) {
+				keep(previousTf.getCurrentValue());
+				PostingsWritable.merge(kept, delta, merged);
+				write(term, merged);
+				context.getCounter(Counters.TERMS_UPDATED).increment(1);
+				advance();
+			} else {
+				write(term, delta);
+				context.getCounter(Counters.TERMS_ADDED).increment(1);
+			}
+		}
+
+		/**
+		 * Writes the current word of the previous state, without the removed
+		 * documents
+		 */
+		private void copyPrevious(Context context) throws IOException,
+				InterruptedException {
+			Text previousTerm = previousTf.getCurrentKey();
+			PostingsWritable frequencies = previousTf.getCurrentValue();
+			boolean changed = keep(frequencies);
+			if (kept.size() == 0) {
+				context.getCounter(Counters.TERMS_DROPPED).increment(1);
+			} else if (changed || recompute) {
+				write(previousTerm, kept);
+				context.getCounter(Counters.TERMS_RECOMPUTED).increment(1);
+			} else {
+				write(TF_DIR, previousTerm, frequencies);
+				writeIndex(previousTerm, previousIndex.getCurrentValue());
+				context.getCounter(Counters.TERMS_COPIED).increment(1);
+			}
+			advance();
+		}
+
+		private void advance() throws IOException, InterruptedException {
+			hasPrevious = previousTf.nextKeyValue()
+					& previousIndex.nextKeyValue();
+		}
+
+		/**
+		 * Copies the postings of the documents that were not removed into
+		 * kept
+		 *
+		 * @return true if any posting was dropped
+		 */
+		private boolean keep(PostingsWritable postings) {
+			kept.clear();
+			for (int i = 0; i < postings.size(); i++) {
+				if (Arrays.binarySearch(removed, postings.getDoc(i)) < 0) {
+					kept.add(postings.getDoc(i), postings.getWeight(i));
+				}
+			}
+			return kept.size() < postings.size();
+		}
+
+		/**
+		 * Writes the term frequencies of a word and its TF-IDF weights
+		 * computed the way TFIDF.Reduce2 does
+		 */
+		private void write(Text word, PostingsWritable frequencies)
+				throws IOException, InterruptedException {
+			write(TF_DIR, word, frequencies);
+			double termIDF = Math.log10(1 + (idfDocuments / frequencies
+					.size()));
+			for (int i = 0; i < frequencies.size(); i++) {
+				writePosting(word, frequencies.getDoc(i), termIDF
+						* frequencies.getWeight(i));
+			}
+		}
+
+		/**
+		 * Writes the TF-IDF weights of a word that did not change
+		 */
+		private void writeIndex(Text word, PostingsWritable weights)
+				throws IOException, InterruptedException {
+			for (int i = 0; i < weights.size(); i++) {
+				writePosting(word, weights.getDoc(i), weights.getWeight(i));
+			}
+		}
+
+		/**
+		 * Writes a posting of the index and, with index.norms, adds its
+		 * squared weight to the sums of squares, as TFIDF.Reduce2 does
+		 */
+		private void writePosting(Text word, int docId, double tfidf)
+				throws IOException, InterruptedException {
+			key.set(word, docId);
+			weight.set(tfidf);
+			outputs.write(key, weight, INDEX_DIR + "/part");
+			if (squares != null) {
+				squares.add(docId, tfidf);
+			}
+		}
+
+		private void write(String dir, Text word, PostingsWritable postings)
+				throws IOException, InterruptedException {
+			for (int i = 0; i < postings.size(); i++) {
+				key.set(word, postings.getDoc(i));
+				weight.set(postings.getWeight(i));
+				outputs.write(key, weight, dir + "/part");
+			}
+		}
+
+		@Override
+		public void cleanup(Context context) throws IOException,
+				InterruptedException {
+			while (hasPrevious) {
+				copyPrevious(context);
+			}
+			if (previousTf != null) {
+				previousTf.close();
+				previousIndex.close();
+			}
+			if (squares != null) {
+				squares.flush();
+			}
+			outputs.close();
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package org.myorg;
+
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class checks that two TF-IDF indexes hold the same postings,
+ *         for example one built by TFIDF and one built by LocalIndexer from
+ *         the same corpus. The indexes may have different numbers of
+ *         partitions. Every term of either index must be in the other with
+ *         the same documents, and the weights must be equal, or within the
+ *         given tolerance. The differences are printed, the first few in
+ *         full, and the exit code is 0 only if there are none.
+ *
+ *         Usage: IndexCompare <index dir> <index dir> [tolerance]
+ */
+public class IndexCompare extends Configured implements Tool {
+
+	private static final int PRINTED = 10;
+
+	public static void main(String[] args) throws Exception {
+		int res = ToolRunner.run(new IndexCompare(), args);
+		System.exit(res);
+	}
+
+	public int run(String[] args) throws Exception {
+		double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 0;
+		long differences = compare(getConf(), new Path(args[0]), new Path(
+				args[1]), tolerance);
+		return differences == 0 ? 0 : 1;
+	}
+
+	/**
+	 * Compares the postings of two indexes and prints the differences
+	 *
+	 * @param tolerance
+	 *            : largest difference allowed between two weights, 0 for
+	 *            equal weights
+	 * @return the number of differences
+	 */
+	public static long compare(Configuration conf, Path first, Path second,
+			double tolerance) throws Exception {
+		TreeSet<Text> terms = new TreeSet<Text>();
+		addTerms(conf, first, terms);
+		addTerms(conf, second, terms);
+
+		InvertedIndexReader a = new InvertedIndexReader(conf, first);
+		InvertedIndexReader b = new InvertedIndexReader(conf, second);
+		PostingsWritable x = new PostingsWritable();
+		PostingsWritable y = new PostingsWritable();
+		long differences = 0;
+		long postings = 0;
+		double maxError = 0;
+		try {
+			for (Text term : terms) {
+				boolean inA = a.read(term, x);
+				boolean inB = b.read(term, y);
+				if (!inA || !inB) {
+					differences += report(differences, term + " is only in "
+							+ (inA ? first : second));
+					continue;
+				}
+				if (x.size() != y.size()) {
+					differences += report(differences, term + " has "
+							+ x.size() + " and " + y.size() + " documents");
+					continue;
+				}
+				for (int i = 0; i < x.size(); i++) {
+					postings++;
+					if (x.getDoc(i) != y.getDoc(i)) {
+						differences += report(differences, term
+								+ " has document " + x.getDoc(i) + " and "
+								+ y.getDoc(i) + " at " + i);
+						break;
+					}
+					double error = Math.abs(x.getWeight(i) - y.getWeight(i));
+					maxError = Math.max(maxError, error);
+					if (error > tolerance
+							|| (tolerance == 0 && Double.compare(
+									x.getWeight(i), y.getWeight(i)) != 0)) {
+						differences += report(differences, term + " in "
+								+ x.getDoc(i) + ": " + x.getWeight(i)
+								+ " and " + y.getWeight(i));
+					}
+				}
+			}
+		} finally {
+			a.close();
+			b.close();
+		}
+		System.out.println("terms: " + terms.size() + ", postings: "
+				+ postings + ", differences: " + differences
+				+ ", largest weight difference: " + maxError);
+		return differences;
+	}
+
+	private static void addTerms(Configuration conf, Path dir,
+			TreeSet<Text> terms) throws Exception {
+		FileSystem fs = dir.getFileSystem(conf);
+		for (FileStatus status : InvertedIndexReader.listDictionaries(fs, dir)) {
+			TermDictionary.Reader reader = new TermDictionary.Reader(
+					fs.open(status.getPath()), status.getLen());
+			try {
+				TermDictionary.Entry entry = new TermDictionary.Entry();
+				while (reader.next(entry)) {
+					terms.add(new Text(entry.term));
+				}
+			} finally {
+				reader.close();
+			}
+		}
+	}
+
+	private static int report(long differences, String difference) {
+		if (differences < PRINTED) {
+			System.out.println(difference);
+		}
+		return 1;
+	}
+}
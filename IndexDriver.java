@@ -0,0 +1,316 @@
+package org.myorg;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class builds the TF-IDF index from a corpus in one run, chaining
+ *         the three jobs of the pipeline:
+ *
+ *         - docids: DocIndex gives every document its id
+ *
+ *         - tf: TermFrequency tokenizes the documents and computes the term
+ *         frequencies
+ *
+ *         - tfidf: TFIDF computes the document frequencies and IDF and writes
+ *         the index
+ *
+ *         - positions: with index.positions=true, PositionIndex writes the
+ *         positional index for phrase queries to <index output>_positions
+ *
+ *         The chain stops at the first stage that fails. Every stage that
+ *         succeeds records what it read in _INPUT in its output: for the
+ *         corpus, the size and the numbers of files and directories under
+ *         every input path, one getContentSummary call each rather than a
+ *         listing of the whole tree, and the modification time of the path;
+ *         for a later stage, the time the stage it reads finished. A stage
+ *         whose _INPUT matches this run is skipped, so a run that failed half
+ *         way, or a run on an unchanged corpus, only repeats the stages that
+ *         need it. A file rewritten in place with the same size is not seen;
+ *         index.force=true runs every stage.
+ *
+ *         Every setting of the form index.<stage>.<key> is passed to that
+ *         stage only as <key>, for example
+ *         -Dindex.tfidf.mapreduce.job.reduces=20 or
+ *         -Dindex.tf.mapreduce.input.fileinputformat.split.maxsize=33554432.
+ *         When the corpus is smaller than index.uber.maxbytes (default 0, off)
+ *         the jobs run as uber tasks, in the application master, which saves
+ *         the start up of their task containers. With pipeline.summary set,
+ *         RunSummary writes the outcome of every stage and the counters of
+ *         every job to run.json in that directory.
+ *
+ *         Usage: IndexDriver <input> <tf output> <index output>. The paths
+ *         are the same as those of TFIDF, so the document id table is written
+ *         to <tf output>_docids.
+ */
+public class IndexDriver extends Configured implements Tool {
+
+	private static final Logger LOG = Logger.getLogger(IndexDriver.class);
+
+	/** Configuration flag that makes every stage run */
+	public static final String FORCE = "index.force";
+	/** Configuration flag that also builds the positional index */
+	public static final String POSITIONS = "index.positions";
+	/** Configuration key for the corpus size below which jobs run uber */
+	public static final String UBER_MAX_BYTES = "index.uber.maxbytes";
+	/** Name of the file recording what a stage read, in its output */
+	public static final String INPUT_FILE = "_INPUT";
+	/** Prefix of the settings passed to a single stage */
+	public static final String STAGE_PREFIX = "index.";
+
+	private RunSummary summary;
+
+	public static void main(String[] args) throws Exception {
+		int res = ToolRunner.run(new IndexDriver(), args);
+		System.exit(res);
+	}
+
+	public int run(String[] args) throws Exception {
+		summary = new RunSummary();
+		int res = 1;
+		try {
+			res = runStages(args);
+		} finally {
+			summary.writeRun(getConf(), "IndexDriver", res == 0);
+		}
+		return res;
+	}
+
+	private int runStages(String[] args) throws Exception {
+		Configuration conf = getConf();
+		String input = args[0];
+		Path tf = new Path(args[1]);
+		Path index = new Path(args[2]);
+		Path docids = new Path(args[1] + "_docids");
+		boolean force = conf.getBoolean(FORCE, false);
+
+		// one summary per input path instead of a walk of the whole tree
+		StringBuilder corpus = new StringBuilder();
+		long corpusBytes = 0;
+		for (String dir : input.split(",")) {
+			corpusBytes += fingerprint(conf, new Path(dir), corpus);
+		}
+		boolean uber = corpusBytes < conf.getLong(UBER_MAX_BYTES, 0);
+		LOG.info("Corpus of " + corpusBytes + " bytes"
+				+ (uber ? ", running the jobs as uber tasks" : ""));
+
+		// each stage is out of date if what it reads has changed since it
+		// last ran
+		String docidsInput = corpus.toString();
+		if (force || !upToDate(conf, docids, null, docidsInput)) {
+			int res = runStage("docids", new DocIndex(), uber, docids,
+					null, docidsInput, new String[] { input,
+							docids.toString() });
+			if (res != 0) {
+				return res;
+			}
+		} else {
+			LOG.info("Stage docids is up to date");
+			summary.addStage("docids", "skipped", 0);
+		}
+		long docidsTime = done(conf, docids, null);
+
+		String tfInput = corpus + "docids " + docidsTime + "\n";
+		if (force
+				|| !upToDate(conf, tf, TermFrequency.DOCUMENTS_FILE, tfInput)) {
+			conf.set(DocumentIds.TABLE, docids.toString());
+			int res = runStage("tf", new TermFrequency(), uber, tf,
+					TermFrequency.DOCUMENTS_FILE, tfInput, new String[] {
+							input, tf.toString() });
+			if (res != 0) {
+				return res;
+			}
+		} else {
+			LOG.info("Stage tf is up to date");
+			summary.addStage("tf", "skipped", 0);
+		}
+		long tfTime = done(conf, tf, TermFrequency.DOCUMENTS_FILE);
+
+		String indexInput = "tf " + tfTime + "\n";
+		if (force || !upToDate(conf, index, null, indexInput)) {
+			int res = runStage("tfidf", new TFIDF(), uber, index, null,
+					indexInput, new String[] { input, tf.toString(),
+							index.toString() });
+			if (res != 0) {
+				return res;
+			}
+		} else {
+			LOG.info("Stage tfidf is up to date");
+			summary.addStage("tfidf", "skipped", 0);
+		}
+
+		if (!conf.getBoolean(POSITIONS, false)) {
+			return 0;
+		}
+		Path positions = new Path(args[2] + "_positions");
+		String positionsInput = tfInput;
+		if (force || !upToDate(conf, positions, null, positionsInput)) {
+			conf.set(DocumentIds.TABLE, docids.toString());
+			int res = runStage("positions", new PositionIndex(), uber,
+					positions, null, positionsInput, new String[] { input,
+							positions.toString() });
+			if (res != 0) {
+				return res;
+			}
+		} else {
+			LOG.info("Stage positions is up to date");
+			summary.addStage("positions", "skipped", 0);
+		}
+		return 0;
+	}
+
+	/**
+	 * Runs one stage with its own copy of the configuration, after removing
+	 * what an earlier run left in its output directory, and records what it
+	 * read in its output once it has succeeded
+	 *
+	 * @return the exit code of the stage
+	 * @throws Exception
+	 */
+	private int runStage(String stage, Tool tool, boolean uber, Path output,
+			String marker, String stageInput, String[] args) throws Exception {
+		Configuration conf = stageConf(getConf(), stage);
+		if (uber) {
+			conf.setBoolean(MRJobConfig.JOB_UBERTASK_ENABLE, true);
+			conf.setLong(MRJobConfig.JOB_UBERTASK_MAXBYTES,
+					getConf().getLong(UBER_MAX_BYTES, 0));
+		}
+		FileSystem fs = output.getFileSystem(conf);
+		if (fs.exists(output)) {
+			LOG.info("Removing the out of date output " + output);
+			fs.delete(output, true);
+		}
+		long start = System.currentTimeMillis();
+		int res = ToolRunner.run(conf, tool, args);
+		long elapsed = System.currentTimeMillis() - start;
+		summary.addStage(stage, res == 0 ? "ran" : "failed", elapsed);
+		if (res != 0) {
+			LOG.error("Stage " + stage + " failed after " + elapsed + " ms");
+		} else {
+			LOG.info("Stage " + stage + " took " + elapsed + " ms");
+			if (done(conf, output, marker) >= 0) {
+				FSDataOutputStream out = fs.create(
+						new Path(output, INPUT_FILE), true);
+				try {
+					out.write(stageInput.getBytes("UTF-8"));
+				} finally {
+					out.close();
+				}
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Copies the configuration and applies the index.<stage>.<key> settings
+	 * of the stage to it
+	 */
+	static Configuration stageConf(Configuration conf, String stage) {
+		Configuration stageConf = new Configuration(conf);
+		String prefix = STAGE_PREFIX + stage + ".";
+		for (Map.Entry<String, String> entry : conf) {
+			if (entry.getKey().startsWith(prefix)) {
+				stageConf.set(entry.getKey().substring(prefix.length()),
+						entry.getValue());
+			}
+		}
+		return stageConf;
+	}
+
+	/**
+	 * Returns the time a stage finished writing its output, or -1 if the
+	 * output is missing or incomplete
+	 *
+	 * @param marker
+	 *            : file the stage writes after its job, or null if the job's
+	 *            _SUCCESS file marks the end of the stage
+	 * @throws IOException
+	 */
+	static long done(Configuration conf, Path output, String marker)
+			throws IOException {
+		FileSystem fs = output.getFileSystem(conf);
+		Path success = new Path(output, "_SUCCESS");
+		if (!fs.exists(success)) {
+			return -1;
+		}
+		Path last = marker == null ? success : new Path(output, marker);
+		if (!fs.exists(last)) {
+			return -1;
+		}
+		return fs.getFileStatus(last).getModificationTime();
+	}
+
+	/**
+	 * Returns true if a stage has finished writing its output and the inputs
+	 * it recorded there are those given
+	 *
+	 * @param marker
+	 *            : file the stage writes after its job, or null if the job's
+	 *            _SUCCESS file marks the end of the stage
+	 * @throws IOException
+	 */
+	static boolean upToDate(Configuration conf, Path output, String marker,
+			String stageInput) throws IOException {
+		if (done(conf, output, marker) < 0) {
+			return false;
+		}
+		Path file = new Path(output, INPUT_FILE);
+		FileSystem fs = file.getFileSystem(conf);
+		if (!fs.exists(file)) {
+			return false;
+		}
+		byte[] bytes = new byte[(int) fs.getFileStatus(file).getLen()];
+		FSDataInputStream in = fs.open(file);
+		try {
+			in.readFully(bytes);
+		} finally {
+			in.close();
+		}
+		return new String(bytes, "UTF-8").equals(stageInput);
+	}
+
+	/**
+	 * Appends a line per file or directory matched by an input path to the
+	 * fingerprint of the corpus: its path, modification time, and the size,
+	 * number of files and number of directories under it, which the file
+	 * system sums up in a single call
+	 *
+	 * @return the total size of the files
+	 * @throws IOException
+	 */
+	static long fingerprint(Configuration conf, Path path,
+			StringBuilder fingerprint) throws IOException {
+		FileSystem fs = path.getFileSystem(conf);
+		FileStatus[] matches = fs.globStatus(path);
+		if (matches == null || matches.length == 0) {
+			throw new IOException("Input path does not exist: " + path);
+		}
+		long bytes = 0;
+		for (FileStatus status : matches) {
+			ContentSummary content = fs.getContentSummary(status.getPath());
+			bytes += content.getLength();
+			fingerprint.append(status.getPath()).append(' ')
+					.append(status.getModificationTime()).append(' ')
+					.append(content.getLength()).append(' ')
+					.append(content.getFileCount()).append(' ')
+					.append(content.getDirectoryCount()).append('\n');
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,220 @@
+package org.myorg;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class reports the size of a TF-IDF index and how fast it can be
+ *         read, both as a full scan and as single term lookups, and the bytes
+ *         the dictionary takes per term on disk, mapped by QueryEngine, and
+ *         on the heap, where only its block index is kept. When a second
+ *         directory holding TF-IDF output in the older formats (text lines of
+ *         word#####filename score, or SequenceFiles) is given, it is scanned
+ *         the way Search used to read it for comparison.
+ *
+ *         Usage: IndexStats <index dir> [<previous tfidf output dir>]
+ */
+public class IndexStats extends Configured implements Tool {
+
+	private static final Logger LOG = Logger.getLogger(IndexStats.class);
+	private static final int LOOKUP_SAMPLE = 1000;
+
+	public static void main(String[] args) throws Exception {
+		int res = ToolRunner.run(new IndexStats(), args);
+		System.exit(res);
+	}
+
+	public int run(String[] args) throws Exception {
+		Configuration conf = getConf();
+		Path dir = new Path(args[0]);
+		FileSystem fs = dir.getFileSystem(conf);
+
+		long termBytes = 0;
+		long heapBytes = 0;
+		long postingBytes = 0;
+		long terms = 0;
+		long postings = 0;
+		List<Text> sample = new ArrayList<Text>();
+		PostingsWritable list = new PostingsWritable();
+		TermDictionary.Entry entry = new TermDictionary.Entry();
+		ImpactIndex.Impacts impacts = ImpactIndex.load(fs, dir);
+		long start = System.nanoTime();
+		for (FileStatus status : InvertedIndexReader.listDictionaries(fs, dir)) {
+			Path postingsPath = InvertedIndexInputFormat.postingsPath(status
+					.getPath());
+			termBytes += status.getLen();
+			postingBytes += fs.getFileStatus(postingsPath).getLen();
+			TermDictionary.Reader dictionary = new TermDictionary.Reader(
+					fs.open(status.getPath()), status.getLen());
+			heapBytes += dictionary.getHeapBytes();
+			FSDataInputStream in = fs.open(postingsPath);
+			DataInputStream data = new DataInputStream(
+					new BufferedInputStream(in, 65536));
+			long step = Math.max(1, dictionary.getTerms() / LOOKUP_SAMPLE);
+			try {
+				while (dictionary.next(entry)) {
+					list.readPostings(data, entry.df, impacts);
+					if (terms++ % step == 0) {
+						sample.add(new Text(entry.term));
+					}
+					postings += list.size();
+				}
+			} finally {
+				dictionary.close();
+				data.close();
+			}
+		}
+		long scan = System.nanoTime() - start;
+		long size = termBytes + postingBytes;
+		System.out.println("index: " + dir);
+		System.out.println("  terms: " + terms + ", postings: " + postings
+				+ (impacts == null ? "" : ", " + impacts));
+		System.out.println("  dictionary bytes: " + termBytes
+				+ ", postings bytes: " + postingBytes + ", total: " + size);
+		System.out.println("  bytes per posting: "
+				+ String.format("%.2f", size / (double) Math.max(1, postings)));
+		System.out.println("  dictionary bytes per term: "
+				+ String.format("%.2f", termBytes / (double) Math.max(1, terms))
+				+ ", block index heap bytes per term: "
+				+ String.format("%.2f", heapBytes / (double) Math.max(1, terms)));
+		report("  full scan", size, postings, scan);
+
+		InvertedIndexReader reader = new InvertedIndexReader(conf, dir);
+		try {
+			start = System.nanoTime();
+			for (Text term : sample) {
+				reader.read(term, list);
+			}
+			long lookup = System.nanoTime() - start;
+			System.out.println("  term lookups: " + sample.size() + " in "
+					+ String.format("%.1f", lookup / 1e6) + " ms ("
+					+ String.format("%.0f", sample.size() / (lookup / 1e9))
+					+ " lookups/s)");
+		} finally {
+			reader.close();
+		}
+
+		if (args.length > 1) {
+			scanPrevious(fs, new Path(args[1]));
+		}
+		return 0;
+	}
+
+	/**
+	 * Reads every record of an older TF-IDF output directory
+	 */
+	private void scanPrevious(FileSystem fs, Path dir) throws IOException {
+		long bytes = 0;
+		long records = 0;
+		double checksum = 0;
+		long start = System.nanoTime();
+		for (FileStatus status : fs.listStatus(dir)) {
+			String name = status.getPath().getName();
+			if (!status.isFile() || name.startsWith("_")
+					|| name.startsWith(".")) {
+				continue;
+			}
+			bytes += status.getLen();
+			if (isSequenceFile(fs, status.getPath())) {
+				SequenceFile.Reader reader = new SequenceFile.Reader(getConf(),
+						SequenceFile.Reader.file(status.getPath()));
+				TermDocWritable key = new TermDocWritable();
+				DoubleWritable value = new DoubleWritable();
+				try {
+					while (reader.next(key, value)) {
+						checksum += value.get();
+						records++;
+					}
+				} finally {
+					reader.close();
+				}
+			} else {
+				BufferedReader reader = new BufferedReader(
+						new InputStreamReader(fs.open(status.getPath()),
+								"UTF-8"));
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						// parsed the way Search.Map parsed the text output
+						String words[] = line.split("#####");
+						if (words.length == 2) {
+							String list[] = words[1].split("\t");
+							checksum += Double.valueOf(list[1]);
+							records++;
+						}
+					}
+				} finally {
+					reader.close();
+				}
+			}
+		}
+		long scan = System.nanoTime() - start;
+		System.out.println("previous output: " + dir);
+		System.out.println("  records: " + records + ", bytes: " + bytes
+				+ ", bytes per record: "
+				+ String.format("%.2f", bytes / (double) Math.max(1, records)));
+		report("  full scan", bytes, records, scan);
+		LOG.debug("checksum " + checksum);
+	}
+
+	private static boolean isSequenceFile(FileSystem fs, Path path)
+			throws IOException {
+		FSDataInputStream in = fs.open(path);
+		try {
+			byte[] magic = new byte[3];
+			return in.read(magic) == 3 && magic[0] == 'S' && magic[1] == 'E'
+					&& magic[2] == 'Q';
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void report(String label, long bytes, long records,
+			long nanos) {
+		double seconds = nanos / 1e9;
+		System.out.println(label + ": "
+				+ String.format("%.1f", nanos / 1e6) + " ms, "
+				+ String.format("%.1f", bytes / 1048576.0 / seconds)
+				+ " MB/s, " + String.format("%.0f", records / seconds)
+				+ " postings/s");
+	}
+
+	/**
+	 * Logs the size of the index written to a directory
+	 */
+	public static void logSize(Logger log, Configuration conf, Path dir)
+			throws IOException {
+		FileSystem fs = dir.getFileSystem(conf);
+		long termBytes = 0;
+		long postingBytes = 0;
+		for (FileStatus status : InvertedIndexReader.listDictionaries(fs, dir)) {
+			termBytes += status.getLen();
+			postingBytes += fs.getFileStatus(
+					InvertedIndexInputFormat.postingsPath(status.getPath()))
+					.getLen();
+		}
+		log.info("INDEX DICTIONARY BYTES: " + termBytes);
+		log.info("INDEX POSTINGS BYTES: " + postingBytes);
+	}
+}
@@ -0,0 +1,185 @@
+package org.myorg;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This input format reads the index written by
+ *         InvertedIndexOutputFormat as (term, postings list) records, one split
+ *         per index partition. When index.input.terms names a set of terms,
+ *         only those terms are looked up in the dictionary and the rest of the
+ *         index is never read. A term of the set holding the wildcards of
+ *         TermPattern stands for every term of the partition it matches.
+ *         The impacts of an index written by ImpactIndex are read back as
+ *         weights.
+ */
+public class InvertedIndexInputFormat extends
+		FileInputFormat<Text, PostingsWritable> {
+
+	/** Configuration key with the only terms to read, if set */
+	public static final String TERMS = "index.input.terms";
+
+	/**
+	 * Returns the dictionary files of the index partitions, in every shard of
+	 * a sharded index
+	 */
+	@Override
+	protected List<FileStatus> listStatus(JobContext job) throws IOException {
+		List<FileStatus> dictionaries = new ArrayList<FileStatus>();
+		for (FileStatus status : super.listStatus(job)) {
+			if (ShardedIndexOutputFormat.isShard(status)) {
+				FileSystem fs = status.getPath().getFileSystem(
+						job.getConfiguration());
+				dictionaries.addAll(Arrays.asList(InvertedIndexReader
+						.listDictionaries(fs, status.getPath())));
+			} else if (status.getPath().getName()
+					.endsWith(InvertedIndexOutputFormat.TERMS)) {
+				dictionaries.add(status);
+			}
+		}
+		return dictionaries;
+	}
+
+	@Override
+	protected boolean isSplitable(JobContext context, Path filename) {
+		return false;
+	}
+
+	@Override
+	public RecordReader<Text, PostingsWritable> createRecordReader(
+			InputSplit split, TaskAttemptContext context) throws IOException,
+			InterruptedException {
+		return new IndexRecordReader();
+	}
+
+	/**
+	 * Returns the postings file that belongs to a dictionary file
+	 */
+	public static Path postingsPath(Path terms) {
+		String name = terms.getName();
+		return new Path(terms.getParent(), name.substring(0, name.length()
+				- InvertedIndexOutputFormat.TERMS.length())
+				+ InvertedIndexOutputFormat.POSTINGS);
+	}
+
+	/**
+	 *
+	 * This record reader walks the dictionary of one partition, or only the
+	 * requested terms, and decodes the postings list of each term
+	 *
+	 */
+	static class IndexRecordReader extends RecordReader<Text, PostingsWritable> {
+		private TermDictionary.Reader dictionary;
+		private FSDataInputStream postingsIn;
+		private DataInput postings;
+		private final TermDictionary.Entry entry = new TermDictionary.Entry();
+		private final PostingsWritable value = new PostingsWritable();
+		private List<Text> terms;
+		private ImpactIndex.Impacts impacts;
+		private long total;
+		private long read;
+
+		@Override
+		public void initialize(InputSplit split, TaskAttemptContext context)
+				throws IOException, InterruptedException {
+			Configuration conf = context.getConfiguration();
+			Path path = ((FileSplit) split).getPath();
+			FileSystem fs = path.getFileSystem(conf);
+			dictionary = new TermDictionary.Reader(fs.open(path), fs
+					.getFileStatus(path).getLen());
+			postingsIn = fs.open(postingsPath(path));
+			impacts = ImpactIndex.load(fs, path.getParent());
+			String[] filter = conf.getStrings(TERMS);
+			if (filter == null) {
+				// the postings lists are read in file order, so buffer them
+				postings = new DataInputStream(new BufferedInputStream(
+						postingsIn, 65536));
+				total = dictionary.getTerms();
+			} else {
+				TreeSet<Text> sorted = new TreeSet<Text>();
+				List<TermDictionary.Entry> matches = new ArrayList<TermDictionary.Entry>();
+				for (String term : filter) {
+					if (TermPattern.isPattern(term)) {
+						dictionary.expand(term, matches, Integer.MAX_VALUE);
+					} else {
+						sorted.add(new Text(term));
+					}
+				}
+				for (TermDictionary.Entry match : matches) {
+					sorted.add(match.term);
+				}
+				terms = new ArrayList<Text>(sorted);
+				postings = postingsIn;
+				total = terms.size();
+			}
+		}
+
+		@Override
+		public boolean nextKeyValue() throws IOException, InterruptedException {
+			if (terms == null) {
+				if (!dictionary.next(entry)) {
+					return false;
+				}
+				read++;
+			} else {
+				boolean found = false;
+				while (!found && read < terms.size()) {
+					found = dictionary.seek(terms.get((int) read++), entry);
+				}
+				if (!found) {
+					return false;
+				}
+				postingsIn.seek(entry.offset);
+			}
+			value.readPostings(postings, entry.df, impacts);
+			return true;
+		}
+
+		@Override
+		public Text getCurrentKey() {
+			return entry.term;
+		}
+
+		@Override
+		public PostingsWritable getCurrentValue() {
+			return value;
+		}
+
+		@Override
+		public float getProgress() {
+			return total == 0 ? 1.0f : Math.min(1.0f, read / (float) total);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (dictionary != null) {
+				dictionary.close();
+			}
+			if (postingsIn != null) {
+				postingsIn.close();
+			}
+		}
+	}
+}
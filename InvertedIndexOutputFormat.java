@@ -0,0 +1,93 @@
+package org.myorg;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This output format writes the TF-IDF index. Each reducer writes two
+ *         files: part-r-NNNNN.postings with the postings list of every term,
+ *         and part-r-NNNNN.terms with the term dictionary pointing into it and
+ *         holding the largest weight of every list.
+ *         The records must arrive sorted by term and then by document id, which
+ *         is the order TFIDF.Reduce2 writes them in.
+ */
+public class InvertedIndexOutputFormat extends
+		FileOutputFormat<TermDocWritable, DoubleWritable> {
+
+	public static final String POSTINGS = ".postings";
+	public static final String TERMS = ".terms";
+
+	@Override
+	public RecordWriter<TermDocWritable, DoubleWritable> getRecordWriter(
+			TaskAttemptContext context) throws IOException,
+			InterruptedException {
+		Path terms = getDefaultWorkFile(context, TERMS);
+		Path postings = getDefaultWorkFile(context, POSTINGS);
+		FileSystem fs = terms.getFileSystem(context.getConfiguration());
+		return new IndexRecordWriter(fs.create(postings, false), fs.create(
+				terms, false));
+	}
+
+	/**
+	 *
+	 * This record writer appends the postings of the current term and adds
+	 * its dictionary entry when the term changes
+	 *
+	 */
+	static class IndexRecordWriter extends
+			RecordWriter<TermDocWritable, DoubleWritable> {
+		private final FSDataOutputStream postings;
+		private final TermDictionary.Writer dictionary;
+		private final TermDictionary.Entry entry = new TermDictionary.Entry();
+		private int previousDoc;
+
+		IndexRecordWriter(FSDataOutputStream postings,
+				FSDataOutputStream terms) {
+			this.postings = postings;
+			this.dictionary = new TermDictionary.Writer(terms);
+		}
+
+		@Override
+		public void write(TermDocWritable key, DoubleWritable value)
+				throws IOException {
+			Text term = key.getTerm();
+			if (entry.df == 0 || !entry.term.equals(term)) {
+				finishTerm();
+				entry.term.set(term);
+				entry.offset = postings.getPos();
+				entry.maxWeight = 0;
+				previousDoc = 0;
+			}
+			PostingsWritable.writePosting(postings, previousDoc, key.getDoc(),
+					value.get());
+			previousDoc = key.getDoc();
+			entry.maxWeight = Math.max(entry.maxWeight, value.get());
+			entry.df++;
+		}
+
+		private void finishTerm() throws IOException {
+			if (entry.df > 0) {
+				dictionary.add(entry);
+				entry.df = 0;
+			}
+		}
+
+		@Override
+		public void close(TaskAttemptContext context) throws IOException {
+			finishTerm();
+			postings.close();
+			dictionary.close();
+		}
+	}
+}
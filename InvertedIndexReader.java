@@ -0,0 +1,104 @@
+package org.myorg;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class looks up the postings list of a term in an index
+ *         directory written by InvertedIndexOutputFormat. The dictionary
+ *         trailer of every partition is loaded once, so a lookup costs one
+ *         block scan and one read of the postings list. The impacts of an
+ *         index written by ImpactIndex are read back as weights.
+ */
+public class InvertedIndexReader implements Closeable {
+
+	private final List<TermDictionary.Reader> dictionaries = new ArrayList<TermDictionary.Reader>();
+	private final List<FSDataInputStream> postings = new ArrayList<FSDataInputStream>();
+	private final ImpactIndex.Impacts impacts;
+	private final TermDictionary.Entry entry = new TermDictionary.Entry();
+	private final PostingsWritable part = new PostingsWritable();
+	private final PostingsWritable merged = new PostingsWritable();
+
+	public InvertedIndexReader(Configuration conf, Path dir) throws IOException {
+		FileSystem fs = dir.getFileSystem(conf);
+		impacts = ImpactIndex.load(fs, dir);
+		for (FileStatus status : listDictionaries(fs, dir)) {
+			dictionaries.add(new TermDictionary.Reader(fs.open(status
+					.getPath()), status.getLen()));
+			postings.add(fs.open(InvertedIndexInputFormat
+					.postingsPath(status.getPath())));
+		}
+	}
+
+	/**
+	 * Returns the dictionary files of the partitions in the index directory,
+	 * and in its shard directories if the index is sharded
+	 */
+	public static FileStatus[] listDictionaries(FileSystem fs, Path dir)
+			throws IOException {
+		List<FileStatus> result = new ArrayList<FileStatus>();
+		for (FileStatus status : fs.listStatus(dir)) {
+			if (ShardedIndexOutputFormat.isShard(status)) {
+				result.addAll(Arrays.asList(listDictionaries(fs,
+						status.getPath())));
+			} else if (status.getPath().getName()
+					.endsWith(InvertedIndexOutputFormat.TERMS)) {
+				result.add(status);
+			}
+		}
+		return result.toArray(new FileStatus[result.size()]);
+	}
+
+	/**
+	 * Reads the postings list of a term from every partition holding it
+	 *
+	 * @param term
+	 * @param result
+	 *            : filled with the postings sorted by document id
+	 * @return false if the term is not in the index
+	 */
+	public synchronized boolean read(Text term, PostingsWritable result)
+			throws IOException {
+		result.clear();
+		boolean found = false;
+		for (int i = 0; i < dictionaries.size(); i++) {
+			if (!dictionaries.get(i).seek(term, entry)) {
+				continue;
+			}
+			FSDataInputStream in = postings.get(i);
+			in.seek(entry.offset);
+			if (!found) {
+				result.readPostings(in, entry.df, impacts);
+				found = true;
+			} else {
+				part.readPostings(in, entry.df, impacts);
+				PostingsWritable.merge(result, part, merged);
+				result.set(merged);
+			}
+		}
+		return found;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (TermDictionary.Reader dictionary : dictionaries) {
+			dictionary.close();
+		}
+		for (FSDataInputStream in : postings) {
+			in.close();
+		}
+	}
+}
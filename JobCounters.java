@@ -0,0 +1,192 @@
+package org.myorg;
+
+import java.io.IOException;
+
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.FileSystemCounter;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.mapreduce.TaskReport;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class runs the jobs of the pipeline and writes the built in
+ *         counters of each finished job to the log, so that the run time, the
+ *         shuffle volume, the I/O and the balance of the reducers of each
+ *         stage can be compared between runs. With pipeline.summary set, the
+ *         counters of every job are also saved as JSON by RunSummary.
+ */
+public class JobCounters {
+
+	private JobCounters() {
+	}
+
+	/**
+	 * Logs the map output, combiner, shuffle and spill counters of the job
+	 *
+	 * @param log
+	 *            : logger of the calling class
+	 * @param job
+	 *            : completed job
+	 * @throws IOException
+	 */
+	public static void logShuffle(Logger log, Job job) throws IOException {
+		Counters counters = job.getCounters();
+		if (counters == null) {
+			return;
+		}
+		log.info(job.getJobName().trim() + " MAP_OUTPUT_RECORDS: "
+				+ value(counters, TaskCounter.MAP_OUTPUT_RECORDS));
+		log.info(job.getJobName().trim() + " COMBINE_INPUT_RECORDS: "
+				+ value(counters, TaskCounter.COMBINE_INPUT_RECORDS));
+		log.info(job.getJobName().trim() + " COMBINE_OUTPUT_RECORDS: "
+				+ value(counters, TaskCounter.COMBINE_OUTPUT_RECORDS));
+		log.info(job.getJobName().trim() + " SHUFFLE_BYTES: "
+				+ value(counters, TaskCounter.MAP_OUTPUT_MATERIALIZED_BYTES));
+		log.info(job.getJobName().trim() + " SPILLED_RECORDS: "
+				+ value(counters, TaskCounter.SPILLED_RECORDS));
+	}
+
+	/**
+	 * Runs the job and waits for it, then logs its run time and I/O and adds
+	 * it to the run summary
+	 *
+	 * @param log
+	 *            : logger of the calling class
+	 * @param job
+	 *            : job ready to be submitted
+	 * @return true if the job succeeded
+	 * @throws Exception
+	 */
+	public static boolean run(Logger log, Job job) throws Exception {
+		long start = System.currentTimeMillis();
+		boolean success = job.waitForCompletion(true);
+		long elapsed = System.currentTimeMillis() - start;
+		logIO(log, job, elapsed);
+		RunSummary.writeJob(job, success, elapsed);
+		return success;
+	}
+
+	/**
+	 * Logs the run time of the job with the bytes it read and wrote on HDFS
+	 * and on the local disks, the size of its map output before and after
+	 * compression, and the CPU and garbage collection time of its tasks
+	 *
+	 * @param log
+	 *            : logger of the calling class
+	 * @param job
+	 *            : completed job
+	 * @param elapsed
+	 *            : wall time of the job in milliseconds
+	 * @throws IOException
+	 */
+	public static void logIO(Logger log, Job job, long elapsed)
+			throws IOException {
+		Counters counters = job.getCounters();
+		if (counters == null) {
+			return;
+		}
+		String name = job.getJobName().trim();
+		log.info(name + " ELAPSED_MS: " + elapsed);
+		log.info(name + " HDFS_BYTES_READ: "
+				+ counters.findCounter("hdfs", FileSystemCounter.BYTES_READ)
+						.getValue()
+				+ ", HDFS_BYTES_WRITTEN: "
+				+ counters.findCounter("hdfs", FileSystemCounter.BYTES_WRITTEN)
+						.getValue());
+		log.info(name + " FILE_BYTES_READ: "
+				+ counters.findCounter("file", FileSystemCounter.BYTES_READ)
+						.getValue()
+				+ ", FILE_BYTES_WRITTEN: "
+				+ counters.findCounter("file", FileSystemCounter.BYTES_WRITTEN)
+						.getValue());
+		log.info(name + " MAP_OUTPUT_BYTES: "
+				+ value(counters, TaskCounter.MAP_OUTPUT_BYTES)
+				+ ", MAP_OUTPUT_MATERIALIZED_BYTES: "
+				+ value(counters, TaskCounter.MAP_OUTPUT_MATERIALIZED_BYTES));
+		log.info(name + " CPU_MS: "
+				+ value(counters, TaskCounter.CPU_MILLISECONDS) + ", GC_MS: "
+				+ value(counters, TaskCounter.GC_TIME_MILLIS));
+	}
+
+	/**
+	 * Returns the largest value a counter reached in one reduce task. Without
+	 * task reports, as in local mode, the job total is returned, which is
+	 * exact for a single reducer and an upper bound otherwise.
+	 *
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static long maxOverReducers(Job job, Enum<?> counter)
+			throws IOException, InterruptedException {
+		TaskReport[] reports = job.getTaskReports(TaskType.REDUCE);
+		if (reports == null || reports.length == 0) {
+			return job.getCounters().findCounter(counter).getValue();
+		}
+		long max = 0;
+		for (TaskReport report : reports) {
+			if (report.getTaskCounters() != null) {
+				max = Math.max(max, report.getTaskCounters()
+						.findCounter(counter).getValue());
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Logs how evenly the work was spread over the reduce tasks: the mean,
+	 * standard deviation and maximum of their run times and input records.
+	 * Nothing is logged when the framework keeps no task reports, as in local
+	 * mode.
+	 *
+	 * @param log
+	 *            : logger of the calling class
+	 * @param job
+	 *            : completed job
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void logReduceBalance(Logger log, Job job)
+			throws IOException, InterruptedException {
+		TaskReport[] reports = job.getTaskReports(TaskType.REDUCE);
+		if (reports == null || reports.length == 0) {
+			return;
+		}
+		double[] times = new double[reports.length];
+		double[] records = new double[reports.length];
+		for (int i = 0; i < reports.length; i++) {
+			times[i] = reports[i].getFinishTime() - reports[i].getStartTime();
+			Counters counters = reports[i].getTaskCounters();
+			records[i] = counters == null ? 0 : value(counters,
+					TaskCounter.REDUCE_INPUT_RECORDS);
+		}
+		log.info(job.getJobName().trim() + " REDUCE_TIME_MS: "
+				+ summary(times));
+		log.info(job.getJobName().trim() + " REDUCE_INPUT_RECORDS: "
+				+ summary(records));
+	}
+
+	private static String summary(double[] values) {
+		double sum = 0;
+		double max = 0;
+		for (double value : values) {
+			sum += value;
+			max = Math.max(max, value);
+		}
+		double mean = sum / values.length;
+		double squares = 0;
+		for (double value : values) {
+			squares += (value - mean) * (value - mean);
+		}
+		return String.format("mean %.0f, stddev %.0f, max %.0f", mean,
+				Math.sqrt(squares / values.length), max);
+	}
+
+	private static long value(Counters counters, TaskCounter counter) {
+		return counters.findCounter(counter).getValue();
+	}
+}
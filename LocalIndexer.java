@@ -0,0 +1,401 @@
+package org.myorg;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.RecordWriter;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class builds the TF-IDF index on one machine, with every core
+ *         and without MapReduce, for corpora small enough that starting the
+ *         jobs costs more than the indexing.
+ *
+ *         The documents are numbered in path order as DocIndex numbers them,
+ *         and tokenized on a fork-join pool. Each worker thread counts the
+ *         words of one document at a time and appends (document, count) to
+ *         its own postings lists, packed in long arrays. At the end the lists
+ *         of the threads are merged and sorted by document, and the index is
+ *         written with InvertedIndexOutputFormat's record writer, in term
+ *         order, as one partition. The term frequency, IDF and TF-IDF are
+ *         computed with the same expressions, in the same order, as
+ *         TermFrequency.Reduce and TFIDF.Reduce2, so the weights are equal to
+ *         the last bit; IndexCompare checks this against an index built by
+ *         TFIDF, and LocalIndexerTest does so on a small corpus in the build.
+ *
+ *         The document id table is written to <index output>_docids. With
+ *         -Dindex.shards=N the index is written as N shards partitioned by
+ *         document, as ShardedIndexOutputFormat writes them. The document
+ *         norms are written to the index as TFIDF writes them, unless
+ *         -Dindex.norms=false.
+ *
+ *         Usage: LocalIndexer <input> <index output> [threads]
+ */
+public class LocalIndexer extends Configured implements Tool {
+
+	private static final Logger LOG = Logger.getLogger(LocalIndexer.class);
+
+	/** Documents tokenized by a fork-join task without splitting it */
+	private static final int DOCUMENTS_PER_TASK = 8;
+
+	public static void main(String[] args) throws Exception {
+		int res = ToolRunner.run(new LocalIndexer(), args);
+		System.exit(res);
+	}
+
+	public int run(String[] args) throws Exception {
+		Configuration conf = getConf();
+		Path output = new Path(args[1]);
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime
+				.getRuntime().availableProcessors();
+		long start = System.currentTimeMillis();
+
+		List<FileStatus> documents = new ArrayList<FileStatus>();
+		for (String input : args[0].split(",")) {
+			Path path = new Path(input);
+			FileSystem fs = path.getFileSystem(conf);
+			for (FileStatus status : fs.globStatus(path)) {
+				listDocuments(fs, status, documents);
+			}
+		}
+		// DocIndex hands out the ids in the order of the path Texts
+		Collections.sort(documents, new Comparator<FileStatus>() {
+			@Override
+			public int compare(FileStatus a, FileStatus b) {
+				return new Text(a.getPath().toString()).compareTo(new Text(b
+						.getPath().toString()));
+			}
+		});
+		writeTable(conf, documents, new Path(args[1] + "_docids"));
+
+		final List<Accumulator> accumulators = new ArrayList<Accumulator>();
+		ThreadLocal<Accumulator> perThread = new ThreadLocal<Accumulator>() {
+			@Override
+			protected Accumulator initialValue() {
+				Accumulator accumulator = new Accumulator();
+				synchronized (accumulators) {
+					accumulators.add(accumulator);
+				}
+				return accumulator;
+			}
+		};
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new IndexTask(conf, documents, 0, documents.size(),
+					perThread));
+		} catch (RuntimeException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw e;
+		} finally {
+			pool.shutdown();
+		}
+		long tokenized = System.currentTimeMillis();
+
+		// merge the postings lists of the threads
+		HashMap<Text, Postings> postings = new HashMap<Text, Postings>();
+		long withWords = 0;
+		for (Accumulator accumulator : accumulators) {
+			withWords += accumulator.documents;
+			for (Map.Entry<Text, Postings> entry : accumulator.postings
+					.entrySet()) {
+				Postings all = postings.get(entry.getKey());
+				if (all == null) {
+					postings.put(entry.getKey(), entry.getValue());
+				} else {
+					all.addAll(entry.getValue());
+				}
+			}
+		}
+		accumulators.clear();
+		write(conf, output, postings, withWords);
+		long end = System.currentTimeMillis();
+		LOG.info("TOTAL NUMBER OF DOCUMENTS: " + withWords + " of "
+				+ documents.size() + ", terms: " + postings.size());
+		LOG.info("Tokenized on " + threads + " threads in "
+				+ (tokenized - start) + " ms, wrote the index in "
+				+ (end - tokenized) + " ms");
+		IndexStats.logSize(LOG, conf, output);
+		return 0;
+	}
+
+	/**
+	 * Adds the files under a path, skipping hidden files as FileInputFormat
+	 * does
+	 */
+	private static void listDocuments(FileSystem fs, FileStatus status,
+			List<FileStatus> documents) throws IOException {
+		String name = status.getPath().getName();
+		if (name.startsWith("_") || name.startsWith(".")) {
+			return;
+		}
+		if (status.isDirectory()) {
+			for (FileStatus child : fs.listStatus(status.getPath())) {
+				listDocuments(fs, child, documents);
+			}
+		} else {
+			documents.add(status);
+		}
+	}
+
+	private static void writeTable(Configuration conf,
+			List<FileStatus> documents, Path table) throws IOException {
+		MapFile.Writer writer = new MapFile.Writer(conf, new Path(table,
+				"part-r-00000"), MapFile.Writer.keyClass(Text.class),
+				MapFile.Writer.valueClass(IntWritable.class));
+		try {
+			Text path = new Text();
+			IntWritable id = new IntWritable();
+			for (int i = 0; i < documents.size(); i++) {
+				path.set(documents.get(i).getPath().toString());
+				id.set(i);
+				writer.append(path, id);
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Computes the weights and writes the index in term order
+	 */
+	private static void write(Configuration conf, Path output,
+			HashMap<Text, Postings> postings, long documents)
+			throws IOException, InterruptedException {
+		List<Text> terms = new ArrayList<Text>(postings.keySet());
+		Collections.sort(terms);
+		FileSystem fs = output.getFileSystem(conf);
+		int shards = conf.getInt(ShardedIndexOutputFormat.SHARDS, 1);
+		RecordWriter<TermDocWritable, DoubleWritable> writer;
+		if (shards > 1) {
+			writer = ShardedIndexOutputFormat.create(fs, output,
+					"part-r-00000", shards);
+		} else {
+			writer = new InvertedIndexOutputFormat.IndexRecordWriter(
+					fs.create(new Path(output, "part-r-00000"
+							+ InvertedIndexOutputFormat.POSTINGS), false),
+					fs.create(new Path(output, "part-r-00000"
+							+ InvertedIndexOutputFormat.TERMS), false));
+		}
+		double totalNoOfFiles = documents;
+		// squared weights by document, summed in term order as a single
+		// TFIDF reducer sums them
+		double[] squares = null;
+		if (conf.getBoolean(TFIDF.NORMS, true)) {
+			squares = new double[(int) documents];
+		}
+		TermDocWritable key = new TermDocWritable();
+		DoubleWritable tfidf = new DoubleWritable();
+		for (Text term : terms) {
+			Postings list = postings.get(term);
+			list.sort();
+			double termIDF = Math.log10(1 + (totalNoOfFiles / list.size));
+			for (int i = 0; i < list.size; i++) {
+				// as TermFrequency.Reduce
+				double tfValue = 1 + Math.log10((double) count(list.entries[i]));
+				key.set(term, doc(list.entries[i]));
+				tfidf.set(termIDF * tfValue);
+				writer.write(key, tfidf);
+				if (squares != null) {
+					squares = DocumentNorms.add(squares, key.getDoc(),
+							tfidf.get());
+				}
+			}
+		}
+		writer.close(null);
+		if (squares != null) {
+			DocumentNorms.write(fs, output, squares);
+		}
+		fs.create(new Path(output, "_SUCCESS"), false).close();
+	}
+
+	static long posting(int doc, int count) {
+		return (long) doc << 32 | count;
+	}
+
+	static int doc(long posting) {
+		return (int) (posting >>> 32);
+	}
+
+	static int count(long posting) {
+		return (int) posting;
+	}
+
+	/**
+	 *
+	 * The postings of one term, (document, count) packed in longs so that
+	 * they sort by document
+	 *
+	 */
+	static class Postings {
+		long[] entries = new long[4];
+		int size;
+
+		void add(long posting) {
+			if (size == entries.length) {
+				entries = Arrays.copyOf(entries, size * 2);
+			}
+			entries[size++] = posting;
+		}
+
+		void addAll(Postings other) {
+			if (size + other.size > entries.length) {
+				entries = Arrays.copyOf(entries,
+						Math.max(size + other.size, size * 2));
+			}
+			System.arraycopy(other.entries, 0, entries, size, other.size);
+			size += other.size;
+		}
+
+		void sort() {
+			Arrays.sort(entries, 0, size);
+		}
+	}
+
+	/**
+	 *
+	 * The postings lists built by one worker thread
+	 *
+	 */
+	static class Accumulator {
+		final HashMap<Text, Postings> postings = new HashMap<Text, Postings>();
+		long documents;
+		private final HashMap<Text, int[]> counts = new HashMap<Text, int[]>();
+		private final Tokenizer tokenizer = new Tokenizer(false);
+		private final Text line = new Text();
+		private final Text word = new Text();
+
+		/**
+		 * Counts the words of a document and adds them to the postings lists.
+		 * The lines are split as LineRecordReader splits them.
+		 */
+		void add(int doc, byte[] contents) {
+			int start = 0;
+			if (contents.length >= 3 && (contents[0] & 0xff) == 0xef
+					&& (contents[1] & 0xff) == 0xbb
+					&& (contents[2] & 0xff) == 0xbf) {
+				// LineRecordReader drops the UTF-8 byte order mark
+				start = 3;
+			}
+			for (int i = start; i <= contents.length; i++) {
+				if (i == contents.length || contents[i] == '\n'
+						|| contents[i] == '\r') {
+					if (i > start) {
+						line.set(contents, start, i - start);
+						tokenizer.reset(line);
+						while (tokenizer.next(word)) {
+							int[] count = counts.get(word);
+							if (count == null) {
+								counts.put(new Text(word), new int[] { 1 });
+							} else {
+								count[0]++;
+							}
+						}
+					}
+					if (i + 1 < contents.length && contents[i] == '\r'
+							&& contents[i + 1] == '\n') {
+						i++;
+					}
+					start = i + 1;
+				}
+			}
+			if (counts.isEmpty()) {
+				return;
+			}
+			documents++;
+			for (Map.Entry<Text, int[]> entry : counts.entrySet()) {
+				Postings list = postings.get(entry.getKey());
+				if (list == null) {
+					list = new Postings();
+					postings.put(entry.getKey(), list);
+				}
+				list.add(posting(doc, entry.getValue()[0]));
+			}
+			counts.clear();
+		}
+	}
+
+	/**
+	 *
+	 * Tokenizes a range of documents, splitting it in halves until it is
+	 * small enough
+	 *
+	 */
+	static class IndexTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Configuration conf;
+		private final List<FileStatus> documents;
+		private final int from;
+		private final int to;
+		private final ThreadLocal<Accumulator> perThread;
+
+		IndexTask(Configuration conf, List<FileStatus> documents, int from,
+				int to, ThreadLocal<Accumulator> perThread) {
+			this.conf = conf;
+			this.documents = documents;
+			this.from = from;
+			this.to = to;
+			this.perThread = perThread;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > DOCUMENTS_PER_TASK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new IndexTask(conf, documents, from, middle,
+						perThread), new IndexTask(conf, documents, middle, to,
+						perThread));
+				return;
+			}
+			Accumulator accumulator = perThread.get();
+			try {
+				for (int doc = from; doc < to; doc++) {
+					accumulator.add(doc, read(documents.get(doc)));
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		private byte[] read(FileStatus status) throws IOException {
+			if (status.getLen() > Integer.MAX_VALUE) {
+				throw new IOException("Document " + status.getPath()
+						+ " is too large");
+			}
+			byte[] contents = new byte[(int) status.getLen()];
+			FSDataInputStream in = status.getPath().getFileSystem(conf)
+					.open(status.getPath());
+			try {
+				IOUtils.readFully(in, contents, 0, contents.length);
+			} finally {
+				in.close();
+			}
+			return contents;
+		}
+	}
+}
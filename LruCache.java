@@ -0,0 +1,129 @@
+package org.myorg;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class is a size bounded cache that evicts the least recently
+ *         used entries first. Every entry has a weight, 1 by default, and the
+ *         weights of the entries held never add up to more than the capacity;
+ *         an entry heavier than the whole capacity is not cached at all. The
+ *         hits, misses and evictions are counted. All methods are synchronized,
+ *         so the cache can be shared by the threads of a QueryEngine.
+ *
+ * @param <K>
+ *            key type, which must not change once added
+ * @param <V>
+ *            value type, which must not change once added
+ */
+public class LruCache<K, V> {
+
+	private final String name;
+	private final long capacity;
+	// access order: the least recently used entry comes first
+	private final LinkedHashMap<K, V> entries = new LinkedHashMap<K, V>(16,
+			0.75f, true);
+	private long weight;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * @param name
+	 *            : name of the cache in its statistics
+	 * @param capacity
+	 *            : largest total weight held, 0 to cache nothing
+	 */
+	public LruCache(String name, long capacity) {
+		this.name = name;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the weight of a value, 1 unless overridden
+	 */
+	protected long weigh(V value) {
+		return 1;
+	}
+
+	/**
+	 * Returns the cached value of the key and marks it as recently used, or
+	 * null on a miss
+	 */
+	public synchronized V get(K key) {
+		V value = entries.get(key);
+		if (value == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return value;
+	}
+
+	/**
+	 * Adds a value, evicting the least recently used entries until it fits
+	 */
+	public synchronized void put(K key, V value) {
+		long w = weigh(value);
+		if (w > capacity) {
+			return;
+		}
+		V old = entries.put(key, value);
+		if (old != null) {
+			weight -= weigh(old);
+		}
+		weight += w;
+		Iterator<Map.Entry<K, V>> eldest = entries.entrySet().iterator();
+		while (weight > capacity) {
+			Map.Entry<K, V> entry = eldest.next();
+			weight -= weigh(entry.getValue());
+			eldest.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Removes every entry, keeping the statistics
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		weight = 0;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getWeight() {
+		return weight;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the entries, weight and counts of the cache on one line
+	 */
+	@Override
+	public synchronized String toString() {
+		long lookups = hits + misses;
+		return name + ": " + entries.size() + " entries, weight " + weight
+				+ " of " + capacity + ", hits " + hits + ", misses " + misses
+				+ ", hit rate "
+				+ String.format("%.3f", lookups == 0 ? 0 : (double) hits / lookups)
+				+ ", evictions " + evictions;
+	}
+}
@@ -0,0 +1,86 @@
+package org.myorg;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class holds the partial word counts of a map task when in-mapper
+ *         aggregation is enabled. The number of distinct keys is bounded so the
+ *         mapper can flush the counts to the context whenever the table fills
+ *         up, and once more in cleanup().
+ */
+public class PartialCounts<K> {
+
+	/** Configuration flag that turns on in-mapper aggregation */
+	public static final String ENABLED = "mapper.aggregation";
+	/** Configuration key for the maximum number of keys held before a flush */
+	public static final String MAX_ENTRIES = "mapper.aggregation.max.entries";
+	public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+	private final Map<K, int[]> counts;
+	private final int maxEntries;
+
+	public PartialCounts(int maxEntries) {
+		this.maxEntries = maxEntries;
+		this.counts = new HashMap<K, int[]>();
+	}
+
+	/**
+	 * Returns a table sized from the job configuration, or null if in-mapper
+	 * aggregation is disabled for the job.
+	 */
+	public static <K> PartialCounts<K> fromConfiguration(Configuration conf) {
+		if (!conf.getBoolean(ENABLED, false)) {
+			return null;
+		}
+		return new PartialCounts<K>(conf.getInt(MAX_ENTRIES,
+				DEFAULT_MAX_ENTRIES));
+	}
+
+	/**
+	 * Adds one occurrence of the key
+	 *
+	 * @param key
+	 * @return true if the table is full and should be flushed
+	 */
+	public boolean add(K key) {
+		int[] count = counts.get(key);
+		if (count == null) {
+			counts.put(key, new int[] { 1 });
+		} else {
+			count[0]++;
+		}
+		return counts.size() >= maxEntries;
+	}
+
+	/**
+	 * Adds one occurrence of a key that is already in the table, so that a
+	 * reused key object never ends up stored in the table
+	 *
+	 * @param key
+	 * @return false if the key is not in the table yet, in which case a copy
+	 *         of it has to be passed to add()
+	 */
+	public boolean increment(K key) {
+		int[] count = counts.get(key);
+		if (count == null) {
+			return false;
+		}
+		count[0]++;
+		return true;
+	}
+
+	public Set<Map.Entry<K, int[]>> entries() {
+		return counts.entrySet();
+	}
+
+	public void clear() {
+		counts.clear();
+	}
+}
@@ -0,0 +1,399 @@
+package org.myorg;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class plans how the words of the TFIDF job are spread over the
+ *         reducers, so that a few very frequent words do not keep one reducer
+ *         busy long after the others have finished.
+ *
+ *         A sampling job reads the TermFrequency output and counts a random
+ *         fraction (skew.sample.rate, default 0.01) of the postings of every
+ *         word. From these counts the plan gives each sampled word its own
+ *         reducers, largest words first, always choosing the reducers with the
+ *         least expected load. A word whose expected postings exceed
+ *         skew.split.fraction (default 0.5) of the average reducer load is
+ *         split over several reducers by document id. Words that were not
+ *         sampled are hashed as before.
+ *
+ *         The plan is a SequenceFile of word and reducer list. TFIDF uses it
+ *         when skew.partitioning is true; it can also be built on its own to
+ *         see the expected balance:
+ *
+ *         Usage: PartitionPlan <TermFrequency output> <plan file> <reducers>
+ */
+public class PartitionPlan extends Configured implements Tool {
+
+	private static final Logger LOG = Logger.getLogger(PartitionPlan.class);
+
+	/** Configuration flag that makes TFIDF plan its partitions */
+	public static final String ENABLED = "skew.partitioning";
+	/** Configuration key holding the location of the plan file */
+	public static final String PLAN = "skew.plan";
+	/** Configuration key for the fraction of postings sampled */
+	public static final String SAMPLE_RATE = "skew.sample.rate";
+	/** Configuration key for the load above which a word is split */
+	public static final String SPLIT_FRACTION = "skew.split.fraction";
+	/** Configuration key for the samples a word needs to be planned */
+	public static final String MIN_SAMPLES = "skew.min.samples";
+
+	private final HashMap<Text, int[]> reducers = new HashMap<Text, int[]>();
+
+	public static void main(String[] args) throws Exception {
+		int res = ToolRunner.run(new PartitionPlan(), args);
+		System.exit(res);
+	}
+
+	public int run(String[] args) throws Exception {
+		create(getConf(), new Path(args[0]), new Path(args[1]),
+				Integer.parseInt(args[2]));
+		return 0;
+	}
+
+	/**
+	 * Loads the plan named in the configuration
+	 *
+	 * @return the plan, or null if the job has none
+	 * @throws IOException
+	 */
+	public static PartitionPlan load(Configuration conf) throws IOException {
+		if (conf.get(PLAN) == null) {
+			return null;
+		}
+		PartitionPlan plan = new PartitionPlan();
+		Path file = new Path(conf.get(PLAN));
+		SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+				SequenceFile.Reader.file(file));
+		try {
+			Text term = new Text();
+			Text list = new Text();
+			while (reader.next(term, list)) {
+				String[] parts = list.toString().split(",");
+				int[] r = new int[parts.length];
+				for (int i = 0; i < r.length; i++) {
+					r[i] = Integer.parseInt(parts[i]);
+				}
+				plan.reducers.put(new Text(term), r);
+			}
+		} finally {
+			reader.close();
+		}
+		return plan;
+	}
+
+	/**
+	 * Returns the reducers of a word, or null if the word is hashed
+	 */
+	public int[] getReducers(Text term) {
+		return reducers.get(term);
+	}
+
+	/**
+	 * Returns the number of reducers the postings of a word are split over
+	 */
+	public int getPieces(Text term) {
+		int[] r = reducers.get(term);
+		return r == null ? 1 : r.length;
+	}
+
+	/**
+	 * Returns the piece of a word that a document falls in
+	 */
+	public static int piece(int doc, int pieces) {
+		return doc % pieces;
+	}
+
+	/**
+	 * Samples the TermFrequency output and writes the plan for the given
+	 * number of reducers
+	 *
+	 * @throws Exception
+	 */
+	public static void create(Configuration conf, Path tfOutput,
+			Path planFile, int numReducers) throws Exception {
+		Path samples = new Path(planFile + "_samples");
+		Job job = Job.getInstance(conf, " partitionPlan ");
+		job.setJarByClass(PartitionPlan.class);
+		FileInputFormat.addInputPath(job, tfOutput);
+		FileOutputFormat.setOutputPath(job, samples);
+		job.setInputFormatClass(SequenceFileInputFormat.class);
+		job.setMapperClass(SampleMap.class);
+		job.setCombinerClass(SampleCombine.class);
+		job.setReducerClass(SampleReduce.class);
+		job.setOutputKeyClass(Text.class);
+		job.setOutputValueClass(LongWritable.class);
+		job.setOutputFormatClass(SequenceFileOutputFormat.class);
+		StageCompression.configureSequenceFile(job);
+		if (!JobCounters.run(LOG, job)) {
+			throw new IOException("Sampling of " + tfOutput + " failed");
+		}
+		long total = job.getCounters()
+				.findCounter(TaskCounter.MAP_INPUT_RECORDS).getValue();
+
+		double rate = conf.getFloat(SAMPLE_RATE, 0.01f);
+		HashMap<Text, Double> estimates = new HashMap<Text, Double>();
+		FileSystem fs = samples.getFileSystem(conf);
+		for (FileStatus status : fs.listStatus(samples)) {
+			if (status.getPath().getName().startsWith("_")) {
+				continue;
+			}
+			SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+					SequenceFile.Reader.file(status.getPath()));
+			try {
+				Text term = new Text();
+				LongWritable count = new LongWritable();
+				while (reader.next(term, count)) {
+					estimates.put(new Text(term), count.get() / rate);
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		fs.delete(samples, true);
+
+		HashMap<Text, int[]> plan = build(estimates, total, numReducers,
+				conf.getFloat(SPLIT_FRACTION, 0.5f));
+		SequenceFile.Writer writer = SequenceFile.createWriter(conf,
+				SequenceFile.Writer.file(planFile),
+				SequenceFile.Writer.keyClass(Text.class),
+				SequenceFile.Writer.valueClass(Text.class));
+		try {
+			Text list = new Text();
+			for (java.util.Map.Entry<Text, int[]> entry : plan.entrySet()) {
+				StringBuilder sb = new StringBuilder();
+				for (int r : entry.getValue()) {
+					if (sb.length() > 0) {
+						sb.append(',');
+					}
+					sb.append(r);
+				}
+				list.set(sb.toString());
+				writer.append(entry.getKey(), list);
+			}
+		} finally {
+			writer.close();
+		}
+		conf.set(PLAN, planFile.toString());
+	}
+
+	/**
+	 * Assigns the sampled words to reducers, largest first, each to the
+	 * reducers with the least expected load so far
+	 */
+	static HashMap<Text, int[]> build(final HashMap<Text, Double> estimates,
+			long total, int numReducers, double splitFraction) {
+		double sampled = 0;
+		for (double estimate : estimates.values()) {
+			sampled += estimate;
+		}
+		// the words that were not sampled are hashed and spread evenly
+		double rest = Math.max(0, total - sampled) / numReducers;
+		final double[] loads = new double[numReducers];
+		double[] hashLoads = new double[numReducers];
+		for (int r = 0; r < numReducers; r++) {
+			loads[r] = rest;
+			hashLoads[r] = rest;
+		}
+		for (java.util.Map.Entry<Text, Double> entry : estimates.entrySet()) {
+			hashLoads[(entry.getKey().hashCode() & Integer.MAX_VALUE)
+					% numReducers] += entry.getValue();
+		}
+
+		List<Text> terms = new ArrayList<Text>(estimates.keySet());
+		Collections.sort(terms, new Comparator<Text>() {
+			@Override
+			public int compare(Text a, Text b) {
+				int cmp = Double.compare(estimates.get(b), estimates.get(a));
+				return cmp != 0 ? cmp : a.compareTo(b);
+			}
+		});
+		double limit = Math.max(1, total / (double) numReducers
+				* splitFraction);
+		List<Integer> order = new ArrayList<Integer>();
+		for (int r = 0; r < numReducers; r++) {
+			order.add(r);
+		}
+		HashMap<Text, int[]> plan = new HashMap<Text, int[]>();
+		int split = 0;
+		for (Text term : terms) {
+			double estimate = estimates.get(term);
+			int pieces = (int) Math.min(numReducers,
+					Math.ceil(estimate / limit));
+			pieces = Math.max(1, pieces);
+			Collections.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					int cmp = Double.compare(loads[a], loads[b]);
+					return cmp != 0 ? cmp : a.compareTo(b);
+				}
+			});
+			int[] r = new int[pieces];
+			for (int i = 0; i < pieces; i++) {
+				r[i] = order.get(i);
+				loads[r[i]] += estimate / pieces;
+			}
+			plan.put(term, r);
+			if (pieces > 1) {
+				split++;
+			}
+		}
+		LOG.info("Planned " + plan.size() + " words, " + split
+				+ " split over several reducers");
+		LOG.info("Expected reducer load, max / mean: hash partitioning "
+				+ String.format("%.2f", imbalance(hashLoads)) + ", plan "
+				+ String.format("%.2f", imbalance(loads)));
+		return plan;
+	}
+
+	static double imbalance(double[] loads) {
+		double max = 0;
+		double sum = 0;
+		for (double load : loads) {
+			max = Math.max(max, load);
+			sum += load;
+		}
+		return sum == 0 ? 1 : max / (sum / loads.length);
+	}
+
+	/**
+	 *
+	 * This map class writes (word, 1) for a random sample of the postings
+	 *
+	 */
+	public static class SampleMap extends
+			Mapper<TermDocWritable, DoubleWritable, Text, LongWritable> {
+		private final static LongWritable one = new LongWritable(1);
+		private Random random;
+		private double rate;
+
+		@Override
+		public void setup(Context context) {
+			rate = context.getConfiguration().getFloat(SAMPLE_RATE, 0.01f);
+			random = new Random(context.getTaskAttemptID().getTaskID()
+					.getId());
+		}
+
+		public void map(TermDocWritable word, DoubleWritable frequency,
+				Context context) throws IOException, InterruptedException {
+			if (random.nextDouble() < rate) {
+				context.write(word.getTerm(), one);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * This combiner class adds up the samples of a word
+	 *
+	 */
+	public static class SampleCombine extends
+			Reducer<Text, LongWritable, Text, LongWritable> {
+		@Override
+		public void reduce(Text term, Iterable<LongWritable> counts,
+				Context context) throws IOException, InterruptedException {
+			long sum = 0;
+			for (LongWritable count : counts) {
+				sum += count.get();
+			}
+			context.write(term, new LongWritable(sum));
+		}
+	}
+
+	/**
+	 *
+	 * This reducer class keeps the words with enough samples for their
+	 * estimate to be planned
+	 *
+	 */
+	public static class SampleReduce extends
+			Reducer<Text, LongWritable, Text, LongWritable> {
+		@Override
+		public void reduce(Text term, Iterable<LongWritable> counts,
+				Context context) throws IOException, InterruptedException {
+			long sum = 0;
+			for (LongWritable count : counts) {
+				sum += count.get();
+			}
+			if (sum >= context.getConfiguration().getInt(MIN_SAMPLES, 10)) {
+				context.write(term, new LongWritable(sum));
+			}
+		}
+	}
+
+	/**
+	 *
+	 * This partitioner sends the words of the plan to their reducers, a split
+	 * word by the document id of each posting and its count records to the
+	 * reducer of their piece. The other words are hashed like
+	 * TermDocWritable.TermPartitioner does.
+	 *
+	 */
+	public static class PlanPartitioner extends
+			Partitioner<TermDocWritable, DoubleWritable> implements
+			Configurable {
+		private Configuration conf;
+		private PartitionPlan plan;
+
+		@Override
+		public void setConf(Configuration conf) {
+			this.conf = conf;
+			try {
+				plan = load(conf);
+			} catch (IOException e) {
+				throw new IllegalStateException("Partition plan not readable",
+						e);
+			}
+		}
+
+		@Override
+		public Configuration getConf() {
+			return conf;
+		}
+
+		@Override
+		public int getPartition(TermDocWritable key, DoubleWritable value,
+				int numPartitions) {
+			int[] r = plan == null ? null : plan.getReducers(key.getTerm());
+			if (r == null) {
+				return (key.getTerm().hashCode() & Integer.MAX_VALUE)
+						% numPartitions;
+			}
+			int doc = key.getDoc();
+			// count records carry their piece as -(piece + 1)
+			int piece = doc < 0 ? -doc - 1 : piece(doc, r.length);
+			return r[piece] % numPartitions;
+		}
+	}
+}
@@ -0,0 +1,706 @@
+package org.myorg;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.Progress;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.MapContext;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.ReduceContext;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.lib.map.WrappedMapper;
+import org.apache.hadoop.mapreduce.lib.reduce.WrappedReducer;
+import org.apache.hadoop.mapreduce.task.MapContextImpl;
+import org.apache.hadoop.mapreduce.task.ReduceContextImpl;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class measures the mappers and reducers of the pipeline in
+ *         process, without a cluster, so that changes to the tokenizer, the
+ *         key formats or the scoring can be compared on a laptop before they
+ *         are deployed.
+ *
+ *         It generates a corpus whose words follow a Zipf distribution, then
+ *         runs, in pipeline order, DocWordCount.Map, TermFrequency.Map,
+ *         TermFrequency.Reduce, TFIDF.Map2, TFIDF.Reduce2, Search.Map and
+ *         Rank.Map. Each one is given the sorted output of the one before it
+ *         through the same task contexts Hadoop uses, and its output is
+ *         serialized as the map output buffer would. Every benchmark runs
+ *         once to warm up and then the given number of rounds, and reports
+ *         the input and output records per second, the bytes allocated per
+ *         input record, and the number and time of the garbage collections.
+ *
+ *         The mappers read the corpus as one combined split, the way they do
+ *         with input.combine, so the document id table is written to a
+ *         temporary local directory.
+ *
+ *         The benchmarks module runs the same stages, through Pipeline, as
+ *         JMH benchmarks, which fork a JVM, control warm up and dead code
+ *         elimination and report the garbage collections with -prof gc. This
+ *         tool is the quick check that needs nothing but the Hadoop
+ *         classpath.
+ *
+ *         Usage: PipelineBenchmark [documents] [words per document]
+ *         [vocabulary] [zipf exponent] [rounds]
+ */
+public class PipelineBenchmark extends Configured implements Tool {
+
+	private static final int WORDS_PER_LINE = 12;
+
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	public static void main(String[] args) throws Exception {
+		int res = ToolRunner.run(new PipelineBenchmark(), args);
+		System.exit(res);
+	}
+
+	public int run(String[] args) throws Exception {
+		int documents = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int wordsPerDocument = args.length > 1 ? Integer.parseInt(args[1])
+				: 500;
+		int vocabulary = args.length > 2 ? Integer.parseInt(args[2]) : 50000;
+		double exponent = args.length > 3 ? Double.parseDouble(args[3]) : 1.0;
+		int rounds = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+
+		File tmp = Files.createTempDirectory("pipeline-benchmark").toFile();
+		try {
+			Pipeline pipeline = new Pipeline(new Configuration(getConf()),
+					tmp, documents, wordsPerDocument, vocabulary, exponent);
+			System.out.println("documents: " + documents + ", words: "
+					+ (long) documents * wordsPerDocument + ", vocabulary: "
+					+ vocabulary + ", zipf exponent: " + exponent
+					+ ", rounds: " + rounds);
+			System.out.println(String.format("%-22s %14s %14s %12s %5s %8s",
+					"", "in records/s", "out records/s", "bytes/record",
+					"GCs", "GC ms"));
+			for (int stage = 0; stage < Pipeline.STAGES.length; stage++) {
+				// the first round warms up
+				pipeline.run(stage, null);
+				Measurement measurement = new Measurement();
+				measurement.start();
+				for (int round = 0; round < rounds; round++) {
+					measurement.add(pipeline.input(stage).size(),
+							pipeline.run(stage, null));
+				}
+				measurement.print(Pipeline.STAGES[stage]);
+			}
+		} finally {
+			FileUtil.fullyDelete(tmp);
+		}
+		return 0;
+	}
+
+	/**
+	 *
+	 * The generated corpus and the input of every stage of the pipeline, each
+	 * one the sorted output of the stage before it. Both this tool and the
+	 * JMH benchmarks of the benchmarks module run the stages through it.
+	 *
+	 */
+	static class Pipeline {
+		static final String[] STAGES = { "DocWordCount.Map",
+				"TermFrequency.Map", "TermFrequency.Reduce", "TFIDF.Map2",
+				"TFIDF.Reduce2", "Search.Map", "Rank.Map" };
+
+		private final Configuration conf;
+		private final InputSplit split;
+		private final RecordList[] inputs = new RecordList[STAGES.length];
+
+		/**
+		 * Generates the corpus and runs every stage once to make the input of
+		 * the next. The document id table is written to dir.
+		 */
+		Pipeline(Configuration conf, File dir, int documents,
+				int wordsPerDocument, int vocabulary, double exponent)
+				throws Exception {
+			this.conf = conf;
+			String[] words = vocabulary(vocabulary);
+			String[] paths = new String[documents];
+			RecordList corpus = corpus(words, exponent, paths,
+					wordsPerDocument, new Random(42));
+			conf.set(DocumentIds.TABLE, writeTable(conf, dir, paths));
+			conf.set("TotalNoOfFiles", String.valueOf(documents));
+			// one term of every order of magnitude of frequency
+			List<String> query = new ArrayList<String>();
+			query.add("index");
+			query.add("output");
+			for (int rank = 1; rank <= vocabulary; rank *= 10) {
+				query.add(words[rank - 1]);
+			}
+			conf.setStrings("userQuery", query.toArray(new String[query
+					.size()]));
+
+			Path[] splitPaths = new Path[documents];
+			long[] lengths = new long[documents];
+			for (int i = 0; i < documents; i++) {
+				splitPaths[i] = new Path(paths[i]);
+				lengths[i] = 1;
+			}
+			split = new CombineFileSplit(splitPaths, lengths);
+
+			TermDocWritable.Comparator sort = new TermDocWritable.Comparator();
+			inputs[0] = corpus;
+			inputs[1] = corpus;
+			inputs[2] = new RecordList();
+			run(1, inputs[2]);
+			inputs[2].sort(sort);
+			inputs[3] = new RecordList();
+			run(2, inputs[3]);
+			inputs[4] = new RecordList();
+			run(3, inputs[4]);
+			inputs[4].sort(sort);
+			RecordList weights = new RecordList();
+			run(4, weights);
+			inputs[5] = postings(weights, query);
+			inputs[6] = new RecordList();
+			run(5, inputs[6]);
+		}
+
+		/**
+		 * Returns the input records of a stage
+		 */
+		RecordList input(int stage) {
+			return inputs[stage];
+		}
+
+		/**
+		 * Runs a stage, given by its index in STAGES, over its input
+		 *
+		 * @param output
+		 *            : list keeping the output records, or null
+		 * @return the number of output records
+		 */
+		long run(int stage, RecordList output) throws Exception {
+			switch (stage) {
+			case 0:
+				return map(DocWordCount.Map.class, LongWritable.class,
+						Text.class, conf, split, inputs[0], output);
+			case 1:
+				return map(TermFrequency.Map.class, LongWritable.class,
+						Text.class, conf, split, inputs[1], output);
+			case 2:
+				return reduce(TermFrequency.Reduce.class,
+						TermDocWritable.class, DoubleWritable.class,
+						new TermDocWritable.Comparator(), conf, inputs[2],
+						output);
+			case 3:
+				return map(TFIDF.Map2.class, TermDocWritable.class,
+						DoubleWritable.class, conf, split, inputs[3], output);
+			case 4:
+				return reduce(TFIDF.Reduce2.class, TermDocWritable.class,
+						DoubleWritable.class,
+						new TermDocWritable.TermComparator(), conf, inputs[4],
+						output);
+			case 5:
+				return map(Search.Map.class, Text.class,
+						PostingsWritable.class, conf, split, inputs[5], output);
+			case 6:
+				return map(Rank.Map.class, IntWritable.class,
+						DoubleWritable.class, conf, split, inputs[6], output);
+			default:
+				throw new IllegalArgumentException("No stage " + stage);
+			}
+		}
+	}
+
+	/**
+	 * Makes the words of the vocabulary, most frequent first
+	 */
+	static String[] vocabulary(int size) {
+		String[] words = new String[size];
+		for (int rank = 0; rank < size; rank++) {
+			StringBuilder sb = new StringBuilder();
+			int n = rank;
+			do {
+				sb.append((char) ('a' + n % 26));
+				n = n / 26 - 1;
+			} while (n >= 0);
+			words[rank] = sb.reverse().toString();
+		}
+		return words;
+	}
+
+	/**
+	 * Generates the lines of every document, with the words drawn from a
+	 * Zipf distribution over the vocabulary
+	 */
+	static RecordList corpus(String[] words, double exponent, String[] paths,
+			int wordsPerDocument, Random random) throws IOException {
+		double[] cdf = new double[words.length];
+		double sum = 0;
+		for (int i = 0; i < words.length; i++) {
+			sum += 1 / Math.pow(i + 1, exponent);
+			cdf[i] = sum;
+		}
+		for (int i = 0; i < cdf.length; i++) {
+			cdf[i] /= sum;
+		}
+
+		RecordList corpus = new RecordList();
+		LongWritable offset = new LongWritable();
+		Text line = new Text();
+		StringBuilder sb = new StringBuilder();
+		for (int d = 0; d < paths.length; d++) {
+			paths[d] = String.format("file:/benchmark/doc%07d.txt", d);
+			long position = 0;
+			for (int w = 0; w < wordsPerDocument; w++) {
+				int rank = Arrays.binarySearch(cdf, random.nextDouble());
+				if (rank < 0) {
+					rank = Math.min(-rank - 1, words.length - 1);
+				}
+				if (sb.length() > 0) {
+					sb.append(w % 5 == 0 ? ", " : " ");
+				}
+				sb.append(words[rank]);
+				if ((w + 1) % WORDS_PER_LINE == 0 || w == wordsPerDocument - 1) {
+					sb.append('.');
+					offset.set(position);
+					line.set(sb.toString());
+					corpus.add(offset, line, paths[d]);
+					position += line.getLength() + 1;
+					sb.setLength(0);
+				}
+			}
+		}
+		return corpus;
+	}
+
+	/**
+	 * Writes the document id table of the corpus and returns its location
+	 */
+	private static String writeTable(Configuration conf, File dir,
+			String[] paths) throws IOException {
+		Path table = new Path(new Path(dir.toURI()), "docids");
+		MapFile.Writer writer = new MapFile.Writer(conf, new Path(table,
+				"part-r-00000"), MapFile.Writer.keyClass(Text.class),
+				MapFile.Writer.valueClass(IntWritable.class));
+		try {
+			// the paths are generated in sorted order
+			Text path = new Text();
+			IntWritable id = new IntWritable();
+			for (int i = 0; i < paths.length; i++) {
+				path.set(paths[i]);
+				id.set(i);
+				writer.append(path, id);
+			}
+		} finally {
+			writer.close();
+		}
+		return table.toString();
+	}
+
+	/**
+	 * Groups the output of TFIDF.Reduce2 into the postings lists of the query
+	 * terms, as InvertedIndexInputFormat would read them
+	 */
+	private static RecordList postings(RecordList weights, List<String> query)
+			throws IOException {
+		RecordList lists = new RecordList();
+		TermDocWritable key = new TermDocWritable();
+		DoubleWritable weight = new DoubleWritable();
+		Text term = new Text();
+		PostingsWritable postings = new PostingsWritable();
+		for (int i = 0; i < weights.size(); i++) {
+			weights.read(i, key, weight);
+			if (!key.getTerm().equals(term)) {
+				if (query.contains(term.toString())) {
+					lists.add(term, postings, null);
+				}
+				term.set(key.getTerm());
+				postings.clear();
+			}
+			postings.add(key.getDoc(), weight.get());
+		}
+		if (query.contains(term.toString())) {
+			lists.add(term, postings, null);
+		}
+		return lists;
+	}
+
+	/**
+	 * Runs a mapper once over the input, through the task contexts Hadoop
+	 * uses
+	 *
+	 * @return the number of output records
+	 */
+	static <KI extends Writable, VI extends Writable, KO extends Writable, VO extends Writable> long map(
+			Class<? extends Mapper<KI, VI, KO, VO>> mapperClass,
+			Class<KI> keyClass, Class<VI> valueClass, Configuration conf,
+			InputSplit split, RecordList input, RecordList output)
+			throws Exception {
+		Mapper<KI, VI, KO, VO> mapper = ReflectionUtils.newInstance(
+				mapperClass, conf);
+		ListReader<KI, VI> reader = new ListReader<KI, VI>(input,
+				ReflectionUtils.newInstance(keyClass, conf),
+				ReflectionUtils.newInstance(valueClass, conf));
+		Sink<KO, VO> sink = new Sink<KO, VO>(output);
+		MapContext<KI, VI, KO, VO> mapContext = new MapContextImpl<KI, VI, KO, VO>(
+				conf, new TaskAttemptID(), reader, sink, null, new Reporter(),
+				split);
+		reader.initialize(split, mapContext);
+		mapper.run(new WrappedMapper<KI, VI, KO, VO>()
+				.getMapContext(mapContext));
+		return sink.records;
+	}
+
+	/**
+	 * Runs a reducer once over the sorted input, through the task contexts
+	 * Hadoop uses
+	 *
+	 * @return the number of output records
+	 */
+	static <KI extends Writable, VI extends Writable, KO extends Writable, VO extends Writable> long reduce(
+			Class<? extends Reducer<KI, VI, KO, VO>> reducerClass,
+			Class<KI> keyClass, Class<VI> valueClass,
+			RawComparator<?> grouping, Configuration conf, RecordList input,
+			RecordList output) throws Exception {
+		@SuppressWarnings("unchecked")
+		RawComparator<KI> comparator = (RawComparator<KI>) grouping;
+		Reducer<KI, VI, KO, VO> reducer = ReflectionUtils.newInstance(
+				reducerClass, conf);
+		Sink<KO, VO> sink = new Sink<KO, VO>(output);
+		Reporter reporter = new Reporter();
+		ReduceContext<KI, VI, KO, VO> reduceContext = new ReduceContextImpl<KI, VI, KO, VO>(
+				conf, new TaskAttemptID(), new ListIterator(input),
+				reporter.getCounter(TaskCounter.REDUCE_INPUT_GROUPS),
+				reporter.getCounter(TaskCounter.REDUCE_INPUT_RECORDS), sink,
+				null, reporter, comparator, keyClass, valueClass);
+		reducer.run(new WrappedReducer<KI, VI, KO, VO>()
+				.getReducerContext(reduceContext));
+		return sink.records;
+	}
+
+	/**
+	 * Time, allocation and garbage collection of the measured rounds
+	 */
+	private class Measurement {
+		private long records;
+		private long outputRecords;
+		private long nanos;
+		private long allocated;
+		private long collections;
+		private long collectionMillis;
+
+		void start() {
+			records = 0;
+			outputRecords = 0;
+			nanos = System.nanoTime();
+			allocated = allocatedBytes();
+			collections = 0;
+			collectionMillis = 0;
+			for (GarbageCollectorMXBean gc : ManagementFactory
+					.getGarbageCollectorMXBeans()) {
+				collections -= gc.getCollectionCount();
+				collectionMillis -= gc.getCollectionTime();
+			}
+		}
+
+		void add(long in, long out) {
+			records += in;
+			outputRecords += out;
+		}
+
+		void print(String name) {
+			double seconds = (System.nanoTime() - nanos) / 1e9;
+			long bytes = allocatedBytes() - allocated;
+			for (GarbageCollectorMXBean gc : ManagementFactory
+					.getGarbageCollectorMXBeans()) {
+				collections += gc.getCollectionCount();
+				collectionMillis += gc.getCollectionTime();
+			}
+			System.out.println(String.format(
+					"%-22s %14.0f %14.0f %12.1f %5d %8d", name, records
+							/ seconds, outputRecords / seconds,
+					allocated < 0 ? Double.NaN : bytes / (double) records,
+					collections, collectionMillis));
+		}
+	}
+
+	/**
+	 * Returns the bytes allocated by the current thread, or -1 if the JVM
+	 * does not count them
+	 */
+	private long allocatedBytes() {
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	/**
+	 * Serialized records, optionally with the path of the document each one
+	 * comes from
+	 */
+	static class RecordList {
+		private final List<byte[]> keys = new ArrayList<byte[]>();
+		private final List<byte[]> values = new ArrayList<byte[]>();
+		private final List<String> documents = new ArrayList<String>();
+		private final DataOutputBuffer buffer = new DataOutputBuffer();
+		private final DataInputBuffer in = new DataInputBuffer();
+
+		void add(Writable key, Writable value, String document)
+				throws IOException {
+			keys.add(serialize(key));
+			values.add(serialize(value));
+			documents.add(document);
+		}
+
+		private byte[] serialize(Writable writable) throws IOException {
+			buffer.reset();
+			writable.write(buffer);
+			return Arrays.copyOf(buffer.getData(), buffer.getLength());
+		}
+
+		int size() {
+			return keys.size();
+		}
+
+		void read(int i, Writable key, Writable value) throws IOException {
+			in.reset(keys.get(i), keys.get(i).length);
+			key.readFields(in);
+			in.reset(values.get(i), values.get(i).length);
+			value.readFields(in);
+		}
+
+		/**
+		 * Sorts the records on their serialized keys, as the shuffle does
+		 */
+		void sort(final RawComparator<?> comparator) {
+			Integer[] order = new Integer[keys.size()];
+			for (int i = 0; i < order.length; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					byte[] x = keys.get(a);
+					byte[] y = keys.get(b);
+					return comparator.compare(x, 0, x.length, y, 0, y.length);
+				}
+			});
+			List<byte[]> sortedKeys = new ArrayList<byte[]>(order.length);
+			List<byte[]> sortedValues = new ArrayList<byte[]>(order.length);
+			List<String> sortedDocuments = new ArrayList<String>(order.length);
+			for (int i : order) {
+				sortedKeys.add(keys.get(i));
+				sortedValues.add(values.get(i));
+				sortedDocuments.add(documents.get(i));
+			}
+			keys.clear();
+			keys.addAll(sortedKeys);
+			values.clear();
+			values.addAll(sortedValues);
+			documents.clear();
+			documents.addAll(sortedDocuments);
+		}
+	}
+
+	/**
+	 * Gives a mapper the records of a list, deserializing them as a record
+	 * reader would, and sets the document of each record under
+	 * mapreduce.map.input.file as the combined input formats do
+	 */
+	static class ListReader<K extends Writable, V extends Writable> extends
+			RecordReader<K, V> {
+		private final RecordList records;
+		private final K key;
+		private final V value;
+		private Configuration conf;
+		private int next;
+		private String document;
+
+		ListReader(RecordList records, K key, V value) {
+			this.records = records;
+			this.key = key;
+			this.value = value;
+		}
+
+		@Override
+		public void initialize(InputSplit split, TaskAttemptContext context) {
+			conf = context.getConfiguration();
+		}
+
+		@Override
+		public boolean nextKeyValue() throws IOException {
+			if (next == records.size()) {
+				return false;
+			}
+			records.read(next, key, value);
+			String path = records.documents.get(next);
+			if (path != null && path != document) {
+				conf.set(MRJobConfig.MAP_INPUT_FILE, path);
+				document = path;
+			}
+			next++;
+			return true;
+		}
+
+		@Override
+		public K getCurrentKey() {
+			return key;
+		}
+
+		@Override
+		public V getCurrentValue() {
+			return value;
+		}
+
+		@Override
+		public float getProgress() {
+			return records.size() == 0 ? 1 : next / (float) records.size();
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * Gives a reducer the records of a sorted list in their serialized form
+	 */
+	static class ListIterator implements RawKeyValueIterator {
+		private final RecordList records;
+		private final DataInputBuffer key = new DataInputBuffer();
+		private final DataInputBuffer value = new DataInputBuffer();
+		private final Progress progress = new Progress();
+		private int next;
+
+		ListIterator(RecordList records) {
+			this.records = records;
+		}
+
+		@Override
+		public boolean next() {
+			if (next == records.size()) {
+				return false;
+			}
+			byte[] k = records.keys.get(next);
+			byte[] v = records.values.get(next);
+			key.reset(k, k.length);
+			value.reset(v, v.length);
+			next++;
+			return true;
+		}
+
+		@Override
+		public DataInputBuffer getKey() {
+			return key;
+		}
+
+		@Override
+		public DataInputBuffer getValue() {
+			return value;
+		}
+
+		@Override
+		public Progress getProgress() {
+			return progress;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * Serializes the output records into a buffer that is reused, as the map
+	 * output buffer is, and keeps a copy of them if asked
+	 */
+	static class Sink<K extends Writable, V extends Writable> extends
+			RecordWriter<K, V> {
+		private final DataOutputBuffer buffer = new DataOutputBuffer();
+		private final RecordList kept;
+		long records;
+
+		Sink(RecordList kept) {
+			this.kept = kept;
+		}
+
+		@Override
+		public void write(K key, V value) throws IOException {
+			key.write(buffer);
+			value.write(buffer);
+			if (buffer.getLength() > 1 << 20) {
+				buffer.reset();
+			}
+			if (kept != null) {
+				kept.add(key, value, null);
+			}
+			records++;
+		}
+
+		@Override
+		public void close(TaskAttemptContext context) {
+		}
+	}
+
+	/**
+	 * Counters of a task run outside a cluster
+	 */
+	static class Reporter extends StatusReporter {
+		private final Counters counters = new Counters();
+
+		@Override
+		public Counter getCounter(Enum<?> name) {
+			return counters.findCounter(name);
+		}
+
+		@Override
+		public Counter getCounter(String group, String name) {
+			return counters.findCounter(group, name);
+		}
+
+		@Override
+		public void progress() {
+		}
+
+		@Override
+		public float getProgress() {
+			return 0;
+		}
+
+		@Override
+		public void setStatus(String status) {
+		}
+	}
+}
@@ -0,0 +1,224 @@
+package org.myorg;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class contains map reduce code to build the positional index
+ *         used for phrase and proximity queries. It records where each word
+ *         occurs in each document, counting the words of the document in the
+ *         order the Tokenizer returns them, with the same split and the same
+ *         document ids as TermFrequency, so its terms are the terms of the
+ *         TF-IDF index.
+ *
+ *         Positions run on across the lines of a document, so every document
+ *         must be read by a single mapper: files are not split, and with
+ *         input.combine or input.containers a split holds whole documents
+ *         anyway. The mapper collects the positions of every word of the
+ *         current document and writes (word, document id) positions when the
+ *         document ends. The index is written by PositionIndexOutputFormat,
+ *         partitioned by word, next to the TF-IDF index rather than in it, so
+ *         bag of words queries do not read the positions.
+ *
+ *         Usage: PositionIndex <input> <positions output>. Without a
+ *         docids.table the document id table is written to <positions
+ *         output>_docids.
+ */
+public class PositionIndex extends Configured implements Tool {
+
+	private static final Logger LOG = Logger.getLogger(PositionIndex.class);
+
+	public static enum Counters {
+		TOKENS, POSTINGS
+	}
+
+	public static void main(String[] args) throws Exception {
+		int res = ToolRunner.run(new PositionIndex(), args);
+		System.exit(res);
+	}
+
+	/**
+	 * This method is used to execute the map reduce code
+	 */
+	public int run(String[] args) throws Exception {
+		// documents are identified by the ids of the DocIndex table
+		DocIndex.prepare(getConf(), args[0], new Path(args[1] + "_docids"));
+		Job job = Job.getInstance(getConf(), " positionIndex ");
+		job.setJarByClass(this.getClass());
+		FileInputFormat.addInputPaths(job, args[0]);
+		FileInputFormat.setInputDirRecursive(job, true);
+		FileOutputFormat.setOutputPath(job, new Path(args[1]));
+		DocumentInput.configure(job);
+		if (job.getInputFormatClass() == TextInputFormat.class) {
+			job.setInputFormatClass(WholeTextInputFormat.class);
+		}
+		job.setMapperClass(Map.class);
+		// every (word, document) key comes from one mapper, exactly once
+		job.setReducerClass(Reducer.class);
+		job.setPartitionerClass(TermDocWritable.TermPartitioner.class);
+		job.setOutputKeyClass(TermDocWritable.class);
+		job.setOutputValueClass(PositionsWritable.class);
+		job.setOutputFormatClass(PositionIndexOutputFormat.class);
+		StageCompression.configure(job);
+
+		boolean success = JobCounters.run(LOG, job);
+		JobCounters.logShuffle(LOG, job);
+		LOG.info("TOKENS: "
+				+ job.getCounters().findCounter(Counters.TOKENS).getValue()
+				+ ", POSTINGS: "
+				+ job.getCounters().findCounter(Counters.POSTINGS).getValue());
+		if (success) {
+			logSize(LOG, job, new Path(args[1]));
+		}
+		return success ? 0 : 1;
+	}
+
+	/**
+	 * Logs the size of the dictionary and positions files of a positional
+	 * index
+	 */
+	static void logSize(Logger log, Job job, Path dir) throws IOException {
+		FileSystem fs = dir.getFileSystem(job.getConfiguration());
+		long termBytes = 0;
+		long positionBytes = 0;
+		for (FileStatus status : InvertedIndexReader.listDictionaries(fs, dir)) {
+			termBytes += status.getLen();
+			positionBytes += fs.getFileStatus(
+					PositionIndexOutputFormat.positionsPath(status.getPath()))
+					.getLen();
+		}
+		log.info("POSITIONAL INDEX DICTIONARY BYTES: " + termBytes);
+		log.info("POSITIONAL INDEX POSITIONS BYTES: " + positionBytes);
+	}
+
+	/**
+	 * Reads the lines of each file as TextInputFormat does, without splitting
+	 * the file
+	 */
+	public static class WholeTextInputFormat extends TextInputFormat {
+		@Override
+		protected boolean isSplitable(JobContext context, Path file) {
+			return false;
+		}
+	}
+
+	/**
+	 *
+	 * This map class numbers the words of each document and collects the
+	 * positions of every distinct word until the document ends
+	 *
+	 */
+	public static class Map extends
+			Mapper<LongWritable, Text, TermDocWritable, PositionsWritable> {
+		private final Tokenizer tokenizer = new Tokenizer(false);
+		private final Text word = new Text();
+		private final TermDocWritable key = new TermDocWritable();
+		private final HashMap<Text, PositionsWritable> positions = new HashMap<Text, PositionsWritable>();
+		private int docId;
+		private int position;
+		private long tokens;
+		// open only when the split holds several documents
+		private DocumentIds ids;
+		private String document;
+
+		/**
+		 * Looks up the id of the file being read. When the split holds
+		 * several documents the id is looked up each time the document
+		 * changes instead.
+		 */
+		@Override
+		public void setup(Context context) throws IOException,
+				InterruptedException {
+			try {
+				if (DocumentInput.hasManyDocuments(context)) {
+					ids = DocumentIds.open(context.getConfiguration());
+					return;
+				}
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			}
+			FileSplit fileSplit = (FileSplit) context.getInputSplit();
+			if (fileSplit.getLength() == 0) {
+				// an empty file has no words, and need not have an id
+				return;
+			}
+			DocumentIds ids = DocumentIds.open(context.getConfiguration());
+			try {
+				docId = ids.getId(fileSplit.getPath());
+			} finally {
+				ids.close();
+			}
+		}
+
+		@Override
+		public void map(LongWritable offset, Text lineText, Context context)
+				throws IOException, InterruptedException {
+			if (ids != null) {
+				String path = DocumentInput.currentDocument(context
+						.getConfiguration());
+				if (!path.equals(document)) {
+					endDocument(context);
+					document = path;
+					docId = ids.getId(path);
+				}
+			}
+			tokenizer.reset(lineText);
+			while (tokenizer.next(word)) {
+				PositionsWritable list = positions.get(word);
+				if (list == null) {
+					list = new PositionsWritable();
+					positions.put(new Text(word), list);
+				}
+				list.add(position++);
+			}
+		}
+
+		@Override
+		public void cleanup(Context context) throws IOException,
+				InterruptedException {
+			endDocument(context);
+			context.getCounter(Counters.TOKENS).increment(tokens);
+			if (ids != null) {
+				ids.close();
+			}
+		}
+
+		/**
+		 * Writes the positions of every word of the current document and
+		 * starts counting again for the next one
+		 */
+		private void endDocument(Context context) throws IOException,
+				InterruptedException {
+			for (java.util.Map.Entry<Text, PositionsWritable> entry : positions
+					.entrySet()) {
+				key.set(entry.getKey(), docId);
+				context.write(key, entry.getValue());
+			}
+			context.getCounter(Counters.POSTINGS).increment(positions.size());
+			tokens += position;
+			positions.clear();
+			position = 0;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package org.myorg;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This output format writes the positional index. Like
+ *         InvertedIndexOutputFormat each reducer writes a term dictionary,
+ *         part-r-NNNNN.terms, but it points into part-r-NNNNN.positions, which
+ *         holds every posting as the varint delta of its document id followed
+ *         by the positions of the term in the document (see
+ *         PositionalPostings). The records must arrive sorted by term and then
+ *         by document id.
+ */
+public class PositionIndexOutputFormat extends
+		FileOutputFormat<TermDocWritable, PositionsWritable> {
+
+	public static final String POSITIONS = ".positions";
+
+	@Override
+	public RecordWriter<TermDocWritable, PositionsWritable> getRecordWriter(
+			TaskAttemptContext context) throws IOException,
+			InterruptedException {
+		Path terms = getDefaultWorkFile(context, InvertedIndexOutputFormat.TERMS);
+		Path positions = getDefaultWorkFile(context, POSITIONS);
+		FileSystem fs = terms.getFileSystem(context.getConfiguration());
+		return new PositionRecordWriter(fs.create(positions, false), fs.create(
+				terms, false));
+	}
+
+	/**
+	 * Returns the positions file of a dictionary file
+	 */
+	public static Path positionsPath(Path terms) {
+		String name = terms.getName();
+		return new Path(terms.getParent(), name.substring(0, name.length()
+				- InvertedIndexOutputFormat.TERMS.length())
+				+ POSITIONS);
+	}
+
+	/**
+	 *
+	 * This record writer appends the positions of the current term and adds
+	 * its dictionary entry when the term changes
+	 *
+	 */
+	static class PositionRecordWriter extends
+			RecordWriter<TermDocWritable, PositionsWritable> {
+		private final FSDataOutputStream positions;
+		private final TermDictionary.Writer dictionary;
+		private final TermDictionary.Entry entry = new TermDictionary.Entry();
+		private int previousDoc;
+
+		PositionRecordWriter(FSDataOutputStream positions,
+				FSDataOutputStream terms) {
+			this.positions = positions;
+			this.dictionary = new TermDictionary.Writer(terms);
+		}
+
+		@Override
+		public void write(TermDocWritable key, PositionsWritable value)
+				throws IOException {
+			Text term = key.getTerm();
+			if (entry.df == 0 || !entry.term.equals(term)) {
+				finishTerm();
+				entry.term.set(term);
+				entry.offset = positions.getPos();
+				previousDoc = 0;
+			}
+			WritableUtils.writeVInt(positions, key.getDoc() - previousDoc);
+			value.write(positions);
+			previousDoc = key.getDoc();
+			entry.df++;
+		}
+
+		private void finishTerm() throws IOException {
+			if (entry.df > 0) {
+				dictionary.add(entry);
+				entry.df = 0;
+			}
+		}
+
+		@Override
+		public void close(TaskAttemptContext context) throws IOException {
+			finishTerm();
+			positions.close();
+			dictionary.close();
+		}
+	}
+}
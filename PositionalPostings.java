@@ -0,0 +1,176 @@
+package org.myorg;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class holds the positional postings list of one term: the
+ *         document ids in increasing order, each with the positions of the term
+ *         in that document. In the positional index every posting is the varint
+ *         delta from the previous document id followed by the positions in the
+ *         encoding of PositionsWritable. The positions of all the documents are
+ *         kept in one array, so reading a list allocates nothing once the
+ *         arrays are large enough.
+ */
+public class PositionalPostings {
+
+	private int size;
+	private int[] docs = new int[16];
+	// positions of document i are positions[starts[i]] to positions[starts[i + 1] - 1]
+	private int[] starts = new int[17];
+	private int[] positions = new int[64];
+
+	public int size() {
+		return size;
+	}
+
+	public int getDoc(int i) {
+		return docs[i];
+	}
+
+	/**
+	 * Returns the number of times the term occurs in document i
+	 */
+	public int getFrequency(int i) {
+		return starts[i + 1] - starts[i];
+	}
+
+	/**
+	 * Returns position j of the term in document i
+	 */
+	public int getPosition(int i, int j) {
+		return positions[starts[i] + j];
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Replaces the contents with count postings read from the index encoding
+	 */
+	public void readPostings(DataInput in, int count) throws IOException {
+		clear();
+		if (docs.length < count) {
+			docs = new int[count];
+			starts = new int[count + 1];
+		}
+		int doc = 0;
+		int end = 0;
+		for (int i = 0; i < count; i++) {
+			doc += WritableUtils.readVInt(in);
+			docs[i] = doc;
+			starts[i] = end;
+			int frequency = WritableUtils.readVInt(in);
+			if (positions.length < end + frequency) {
+				positions = Arrays.copyOf(positions,
+						Math.max(end + frequency, positions.length * 2));
+			}
+			int position = 0;
+			for (int j = 0; j < frequency; j++) {
+				position += WritableUtils.readVInt(in);
+				positions[end++] = position;
+			}
+		}
+		starts[count] = end;
+		size = count;
+	}
+
+	/**
+	 * Replaces the contents with a copy of another list
+	 */
+	public void set(PositionalPostings other) {
+		clear();
+		for (int i = 0; i < other.size; i++) {
+			append(other, i);
+		}
+	}
+
+	/**
+	 * Merges two lists of the same term holding different documents, such
+	 * as the parts of a term in two partitions, into result in document
+	 * order
+	 */
+	public static void merge(PositionalPostings a, PositionalPostings b,
+			PositionalPostings result) {
+		result.clear();
+		int i = 0;
+		int j = 0;
+		while (i < a.size || j < b.size) {
+			if (j == b.size || (i < a.size && a.docs[i] <= b.docs[j])) {
+				result.append(a, i++);
+			} else {
+				result.append(b, j++);
+			}
+		}
+	}
+
+	/**
+	 * Adds posting i of another list after the last posting
+	 */
+	private void append(PositionalPostings other, int i) {
+		if (docs.length == size) {
+			docs = Arrays.copyOf(docs, size * 2);
+			starts = Arrays.copyOf(starts, size * 2 + 1);
+		}
+		int end = size == 0 ? 0 : starts[size];
+		int frequency = other.getFrequency(i);
+		if (positions.length < end + frequency) {
+			positions = Arrays.copyOf(positions,
+					Math.max(end + frequency, positions.length * 2));
+		}
+		System.arraycopy(other.positions, other.starts[i], positions, end,
+				frequency);
+		docs[size] = other.docs[i];
+		starts[size] = end;
+		starts[size + 1] = end + frequency;
+		size++;
+	}
+
+	/**
+	 * Returns true if the terms occur in order in one document, with at most
+	 * slop other words between the first and the last of them in total. For
+	 * each occurrence of the first term the earliest following occurrence of
+	 * every next term is taken, which gives the shortest span starting there.
+	 * A slop of 0 matches the exact phrase.
+	 *
+	 * @param lists
+	 *            : positional postings of the terms, in phrase order
+	 * @param at
+	 *            : index of the document in each list
+	 * @param slop
+	 *            : most words allowed between the terms
+	 */
+	public static boolean matches(PositionalPostings[] lists, int[] at, int slop) {
+		int n = lists.length;
+		int[] cursor = new int[n];
+		PositionalPostings first = lists[0];
+		for (int s = 0; s < first.getFrequency(at[0]); s++) {
+			int start = first.getPosition(at[0], s);
+			int previous = start;
+			for (int t = 1; t < n; t++) {
+				PositionalPostings list = lists[t];
+				int frequency = list.getFrequency(at[t]);
+				while (cursor[t] < frequency
+						&& list.getPosition(at[t], cursor[t]) <= previous) {
+					cursor[t]++;
+				}
+				if (cursor[t] == frequency) {
+					// a later start cannot find a later occurrence either
+					return false;
+				}
+				previous = list.getPosition(at[t], cursor[t]);
+			}
+			if (previous - start - (n - 1) <= slop) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,69 @@
+package org.myorg;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class holds the positions of one term in one document, in
+ *         increasing order. A position is the number of words before the
+ *         occurrence in the document, as split by the Tokenizer. The positions
+ *         are written as their count followed by varint deltas from the
+ *         previous position, which is also how they are stored in the
+ *         positional index.
+ */
+public class PositionsWritable implements Writable {
+
+	private int size;
+	private int[] positions = new int[4];
+
+	public int size() {
+		return size;
+	}
+
+	public int get(int i) {
+		return positions[i];
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Appends a position. Positions must be added in increasing order.
+	 */
+	public void add(int position) {
+		if (size == positions.length) {
+			positions = Arrays.copyOf(positions, size * 2);
+		}
+		positions[size++] = position;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, size);
+		int previous = 0;
+		for (int i = 0; i < size; i++) {
+			WritableUtils.writeVInt(out, positions[i] - previous);
+			previous = positions[i];
+		}
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		clear();
+		int count = WritableUtils.readVInt(in);
+		int position = 0;
+		for (int i = 0; i < count; i++) {
+			position += WritableUtils.readVInt(in);
+			add(position);
+		}
+	}
+}
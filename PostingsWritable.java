@@ -0,0 +1,201 @@
+package org.myorg;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class holds the postings list of one term: the document ids in
+ *         increasing order with the TF-IDF weight of the term in each
+ *         document. The ids are written as varint deltas from the previous id,
+ *         each followed by its weight. In an index written by ImpactIndex the
+ *         weight is replaced by its impact, an unsigned byte or short.
+ */
+public class PostingsWritable implements Writable {
+
+	private int size;
+	private int[] docs = new int[16];
+	private double[] weights = new double[16];
+
+	public int size() {
+		return size;
+	}
+
+	public int getDoc(int i) {
+		return docs[i];
+	}
+
+	public double getWeight(int i) {
+		return weights[i];
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Returns the index of the first posting at or after from whose document
+	 * id is at least doc, or size() if there is none. The search gallops
+	 * forward from from, so stepping through the list costs little more
+	 * than a scan and a long jump costs a binary search.
+	 */
+	public int advance(int from, int doc) {
+		int bound = from;
+		int step = 1;
+		while (bound < size && docs[bound] < doc) {
+			from = bound + 1;
+			bound += step;
+			step <<= 1;
+		}
+		int high = Math.min(bound, size);
+		while (from < high) {
+			int mid = (from + high) >>> 1;
+			if (docs[mid] < doc) {
+				from = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return from;
+	}
+
+	public void set(PostingsWritable other) {
+		clear();
+		for (int i = 0; i < other.size; i++) {
+			add(other.docs[i], other.weights[i]);
+		}
+	}
+
+	/**
+	 * Appends a posting. Documents must be added in increasing id order.
+	 */
+	public void add(int doc, double weight) {
+		if (size == docs.length) {
+			docs = Arrays.copyOf(docs, size * 2);
+			weights = Arrays.copyOf(weights, size * 2);
+		}
+		docs[size] = doc;
+		weights[size++] = weight;
+	}
+
+	/**
+	 * Merges two postings lists sorted by document id into result
+	 */
+	public static void merge(PostingsWritable a, PostingsWritable b,
+			PostingsWritable result) {
+		result.clear();
+		int i = 0;
+		int j = 0;
+		while (i < a.size || j < b.size) {
+			if (j == b.size || (i < a.size && a.docs[i] <= b.docs[j])) {
+				result.add(a.docs[i], a.weights[i]);
+				i++;
+			} else {
+				result.add(b.docs[j], b.weights[j]);
+				j++;
+			}
+		}
+	}
+
+	/**
+	 * Writes one posting in the index encoding
+	 *
+	 * @param out
+	 * @param previousDoc
+	 *            : id of the previous posting of the term, 0 for the first
+	 * @param doc
+	 * @param weight
+	 * @throws IOException
+	 */
+	public static void writePosting(DataOutput out, int previousDoc, int doc,
+			double weight) throws IOException {
+		WritableUtils.writeVInt(out, doc - previousDoc);
+		out.writeDouble(weight);
+	}
+
+	/**
+	 * Replaces the contents with count postings read from the index encoding
+	 */
+	public void readPostings(DataInput in, int count) throws IOException {
+		clear();
+		int doc = 0;
+		for (int i = 0; i < count; i++) {
+			doc += WritableUtils.readVInt(in);
+			add(doc, in.readDouble());
+		}
+	}
+
+	/**
+	 * Replaces the contents with count postings read from the encoding of
+	 * the index, plain weights if impacts is null
+	 */
+	public void readPostings(DataInput in, int count,
+			ImpactIndex.Impacts impacts) throws IOException {
+		if (impacts == null) {
+			readPostings(in, count);
+		} else {
+			readImpacts(in, count, impacts.bits, impacts.scale);
+		}
+	}
+
+	/**
+	 * Writes one posting in the impact encoding
+	 *
+	 * @param out
+	 * @param previousDoc
+	 *            : id of the previous posting of the term, 0 for the first
+	 * @param doc
+	 * @param impact
+	 *            : quantized weight, below 2 to the power of bits
+	 * @param bits
+	 *            : 8 or 16
+	 * @throws IOException
+	 */
+	public static void writeImpact(DataOutput out, int previousDoc, int doc,
+			int impact, int bits) throws IOException {
+		WritableUtils.writeVInt(out, doc - previousDoc);
+		if (bits == 8) {
+			out.writeByte(impact);
+		} else {
+			out.writeShort(impact);
+		}
+	}
+
+	/**
+	 * Replaces the contents with count postings read from the impact
+	 * encoding, each impact multiplied by scale
+	 */
+	public void readImpacts(DataInput in, int count, int bits, double scale)
+			throws IOException {
+		clear();
+		int doc = 0;
+		for (int i = 0; i < count; i++) {
+			doc += WritableUtils.readVInt(in);
+			int impact = bits == 8 ? in.readUnsignedByte() : in
+					.readUnsignedShort();
+			add(doc, impact * scale);
+		}
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, size);
+		int previous = 0;
+		for (int i = 0; i < size; i++) {
+			writePosting(out, previous, docs[i], weights[i]);
+			previous = docs[i];
+		}
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		readPostings(in, WritableUtils.readVInt(in));
+	}
+}
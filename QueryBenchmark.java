@@ -0,0 +1,175 @@
+package org.myorg;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class measures the latency of the resident QueryEngine. It runs
+ *         every query of a file once to warm up, then the given number of
+ *         rounds from several threads at once, and reports the p50, p99 and
+ *         maximum latency together with the throughput. Phrase queries are
+ *         measured with -Dquery.positions set to the positional index.
+ *
+ *         Bag of words queries run with MaxScore pruning unless
+ *         -Dquery.pruning=false is given. Before the timed rounds every such
+ *         query is also run exhaustively and the two results are checked to be
+ *         the same documents with bit for bit the same scores. The postings
+ *         decoded and the postings visited per query are reported with the
+ *         latency.
+ *
+ *         The engine caches are on with their default sizes, so once warmed
+ *         up the repeated queries are answered from the result cache; the
+ *         hits and misses of both caches are reported at the end. Give
+ *         -Dquery.cache.results=0 to measure the postings cache alone, and
+ *         -Dquery.cache.postings.bytes=0 as well to measure the index.
+ *
+ *         Usage: QueryBenchmark [-Dquery.positions=<local positional index
+ *         dir>] [-Dquery.cache.results=<queries>]
+ *         [-Dquery.cache.postings.bytes=<bytes>] <local index dir> <query
+ *         file> [threads] [rounds] [k]
+ */
+public class QueryBenchmark extends Configured implements Tool {
+
+	private static final Logger LOG = Logger.getLogger(QueryBenchmark.class);
+
+	public static void main(String[] args) throws Exception {
+		int res = ToolRunner.run(new QueryBenchmark(), args);
+		System.exit(res);
+	}
+
+	public int run(String[] args) throws Exception {
+		final List<String> queries = readQueries(new File(args[1]));
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime
+				.getRuntime().availableProcessors();
+		int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+		final int k = args.length > 4 ? Integer.parseInt(args[4])
+				: QueryEngine.DEFAULT_K;
+		final QueryEngine engine = new QueryEngine(new File(args[0]),
+				DocumentIds.loadNames(getConf()));
+		engine.configure(getConf());
+		int checked = 0;
+		int identical = 0;
+		for (String query : queries) {
+			List<QueryEngine.Result> results = engine.search(query, k);
+			if (QueryEngine.parsePhrases(query).isEmpty()) {
+				checked++;
+				if (same(results, engine.searchExhaustive(
+						QueryEngine.parse(query), k))) {
+					identical++;
+				} else {
+					LOG.error("Pruned results differ for the query " + query);
+				}
+			}
+		}
+		long read = engine.getPostingsRead();
+		long visited = engine.getPostingsVisited();
+
+		final int total = queries.size() * rounds;
+		final long[] latencies = new long[total];
+		final AtomicInteger next = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		for (int t = 0; t < threads; t++) {
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					int i;
+					while ((i = next.getAndIncrement()) < total) {
+						long begin = System.nanoTime();
+						try {
+							engine.search(queries.get(i % queries.size()), k);
+						} catch (Exception e) {
+							LOG.error("Query failed", e);
+						}
+						latencies[i] = System.nanoTime() - begin;
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		long elapsed = System.nanoTime() - start;
+		read = engine.getPostingsRead() - read;
+		visited = engine.getPostingsVisited() - visited;
+
+		Arrays.sort(latencies);
+		System.out.println("queries: " + total + ", threads: " + threads);
+		System.out.println("p50: " + micros(percentile(latencies, 0.50))
+				+ " us, p99: " + micros(percentile(latencies, 0.99))
+				+ " us, max: " + micros(latencies[total - 1]) + " us");
+		System.out.println("throughput: "
+				+ String.format("%.0f", total / (elapsed / 1e9))
+				+ " queries/s");
+		System.out.println("postings per query: "
+				+ String.format("%.1f", (double) read / total) + " read, "
+				+ String.format("%.1f", (double) visited / total)
+				+ " visited");
+		System.out.println(engine.getResultCache());
+		System.out.println(engine.getPostingsCache());
+		System.out.println("identical to exhaustive scoring: " + identical
+				+ " of " + checked + " queries");
+		engine.close();
+		return identical == checked ? 0 : 1;
+	}
+
+	/**
+	 * Returns true if both results hold the same documents in the same order
+	 * with exactly the same scores
+	 */
+	static boolean same(List<QueryEngine.Result> a, List<QueryEngine.Result> b) {
+		if (a.size() != b.size()) {
+			return false;
+		}
+		for (int i = 0; i < a.size(); i++) {
+			if (a.get(i).doc != b.get(i).doc
+					|| Double.doubleToLongBits(a.get(i).score) != Double
+							.doubleToLongBits(b.get(i).score)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static List<String> readQueries(File file) throws Exception {
+		List<String> queries = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (!line.trim().isEmpty()) {
+					queries.add(line);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return queries;
+	}
+
+	static long percentile(long[] sorted, double p) {
+		int i = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+	}
+
+	static long micros(long nanos) {
+		return nanos / 1000;
+	}
+}
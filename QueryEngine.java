@@ -0,0 +1,1227 @@
+package org.myorg;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class is a long lived query engine over a local copy of the
+ *         index written by TFIDF. The dictionary and postings files are memory
+ *         mapped once; each query then looks up its terms, sums the TF-IDF
+ *         weights per document the way Search.Reduce does, and keeps the top K
+ *         documents the way Rank orders them. The engine holds no per query
+ *         state, so any number of threads may call search() at once.
+ *
+ *         Bag of words queries are evaluated document at a time with MaxScore
+ *         pruning. The dictionary holds the largest weight of every term, and
+ *         once the heap holds k documents the terms whose bounds together
+ *         cannot reach the k-th score only have their postings looked up for
+ *         documents found through the other terms, and only when the bound of
+ *         the document still reaches the k-th score. A document is passed
+ *         over only if its bound is strictly below the k-th score, and every
+ *         score and bound is summed in the order of the query terms, as the
+ *         exhaustive evaluation sums them; floating point addition of non
+ *         negative weights is monotone, so a bound is never below the score
+ *         it bounds, and the results are the same documents with the same
+ *         scores, to the last bit, as with query.pruning=false.
+ *
+ *         With query.cosine=true the engine loads the norms the index was
+ *         written with (see DocumentNorms) and divides every weight by the
+ *         norm of its document before adding it to the score. The bound of a
+ *         term is then its largest divided weight, found once when its
+ *         postings list is decoded and cached with it, so the pruning stays
+ *         as tight and as exact as on the plain sums.
+ *
+ *         An index written by ImpactIndex holds impacts, small integers, in
+ *         place of the weights. The engine then decodes a byte or two per
+ *         posting instead of a double, sums and bounds the impacts themselves,
+ *         exactly since they are integers, and multiplies the scores of the
+ *         results by the scale of the index, so the scores come out close to
+ *         those of the exact index (see ImpactBenchmark).
+ *
+ *         Two caches sit in front of the index. The first keeps the ranked
+ *         results of recent queries, keyed by their distinct terms as
+ *         Search.Map collects them, their phrases and k; the second keeps the
+ *         decoded postings lists of recent terms. Both evict the least
+ *         recently used entries: query.cache.results bounds the number of
+ *         queries (default 10000) and query.cache.postings.bytes the memory
+ *         of the postings lists (default 64 MB); 0 turns a cache off. Every
+ *         query.cache.check.ms (default 1000) the engine looks at the
+ *         _SUCCESS file of the index; when a rebuilt index has been copied
+ *         over the old one it maps the new files and empties both caches.
+ *
+ *         When a positional index written by PositionIndex is opened as well,
+ *         a query may hold phrases in double quotes, "new york", and proximity
+ *         clauses, "new york"~3, which also match when at most 3 other words
+ *         lie between the quoted words, still in order. Only the documents
+ *         that match every phrase of the query are ranked, on the summed
+ *         weights of all the query terms as before. The documents holding a
+ *         phrase are found by intersecting the positional postings of its
+ *         words, without reading the documents again.
+ *
+ *         A query term may hold the wildcards of TermPattern, comput* or
+ *         wom?n. Before it is run the engine replaces such a term by every
+ *         term of the dictionary it matches, found by scanning the front
+ *         coded dictionary blocks from its prefix on, and the matching terms
+ *         are then scored as if they had been typed. A pattern matching more
+ *         than query.wildcard.terms terms (default 1024) fails the query
+ *         rather than read that many postings lists. Phrases take no
+ *         wildcards.
+ *
+ *         Usage: QueryEngine [-Ddocids.table=<local table dir>]
+ *         [-Dquery.positions=<local positional index dir>]
+ *         [-Dquery.pruning=false] [-Dquery.cosine=true]
+ *         [-Dquery.cache.results=<queries>]
+ *         [-Dquery.cache.postings.bytes=<bytes>]
+ *         [-Dquery.wildcard.terms=<terms>] <local index dir> [k], then
+ *         one query per line on standard input.
+ */
+public class QueryEngine extends Configured implements Tool, Closeable {
+
+	private static final Logger LOG = Logger.getLogger(QueryEngine.class);
+	public static final int DEFAULT_K = 10;
+	/** Configuration key for the local copy of the positional index */
+	public static final String POSITIONS = "query.positions";
+	/** Configuration flag for MaxScore pruning, on by default */
+	public static final String PRUNING = "query.pruning";
+	/** Configuration key for the number of query results cached */
+	public static final String CACHE_RESULTS = "query.cache.results";
+	/** Configuration key for the bytes of postings lists cached */
+	public static final String CACHE_POSTINGS_BYTES = "query.cache.postings.bytes";
+	/** Configuration key for how often to look for a rebuilt index */
+	public static final String CACHE_CHECK_MS = "query.cache.check.ms";
+	/** Configuration flag for cosine scores, off by default */
+	public static final String COSINE = "query.cosine";
+	/** Configuration key for the most terms a wildcard may match */
+	public static final String WILDCARD_TERMS = "query.wildcard.terms";
+
+	private static final int DEFAULT_CACHE_RESULTS = 10000;
+	private static final long DEFAULT_CACHE_POSTINGS_BYTES = 64L * 1024 * 1024;
+	private static final long DEFAULT_CACHE_CHECK_MS = 1000;
+	private static final int DEFAULT_WILDCARD_TERMS = 1024;
+
+	/** A quoted phrase, optionally followed by ~ and its slop */
+	private static final Pattern PHRASE = Pattern
+			.compile("\"([^\"]*)\"(?:~(\\d+))?");
+
+	// replaced as a whole when a rebuilt index is mapped
+	private volatile Index index = Index.EMPTY;
+	private File dir;
+	private File positionsDir;
+	private boolean pruning = true;
+	private LruCache<String, List<Result>> resultCache = new LruCache<String, List<Result>>(
+			"result cache", DEFAULT_CACHE_RESULTS);
+	private LruCache<Text, TermPostings> postingsCache = new PostingsCache(
+			DEFAULT_CACHE_POSTINGS_BYTES);
+	private long checkInterval = DEFAULT_CACHE_CHECK_MS;
+	private int wildcardTerms = DEFAULT_WILDCARD_TERMS;
+	// modification time of the _SUCCESS file of the mapped index, if any
+	private volatile long version;
+	private volatile long lastCheck;
+	// postings decoded from the index, and postings scored or stepped over
+	private final AtomicLong postingsRead = new AtomicLong();
+	private final AtomicLong postingsVisited = new AtomicLong();
+
+	/**
+	 * Constructor used by ToolRunner for the command line
+	 */
+	public QueryEngine() {
+	}
+
+	/**
+	 * Opens the index in a local directory
+	 *
+	 * @param dir
+	 *            : local copy of the TFIDF output directory
+	 * @param names
+	 *            : file name of every document id, or null to report ids
+	 * @throws IOException
+	 */
+	public QueryEngine(File dir, String[] names) throws IOException {
+		open(dir, names);
+	}
+
+	private void open(File dir, String[] names) throws IOException {
+		this.dir = dir;
+		version = successTime(dir);
+		lastCheck = System.currentTimeMillis();
+		index = new Index(mapPartitions(dir,
+				InvertedIndexOutputFormat.POSTINGS), ImpactIndex.load(dir),
+				Collections.<Partition> emptyList(), names, null);
+	}
+
+	/**
+	 * Applies the query.* settings: opens the positional index and sets the
+	 * pruning and the sizes of the caches
+	 *
+	 * @throws IOException
+	 */
+	public void configure(Configuration conf) throws IOException {
+		if (conf.get(POSITIONS) != null) {
+			openPositions(new File(conf.get(POSITIONS)));
+		}
+		setPruning(conf.getBoolean(PRUNING, true));
+		if (conf.getBoolean(COSINE, false)) {
+			loadNorms();
+		}
+		resultCache = new LruCache<String, List<Result>>("result cache",
+				conf.getInt(CACHE_RESULTS, DEFAULT_CACHE_RESULTS));
+		postingsCache = new PostingsCache(conf.getLong(CACHE_POSTINGS_BYTES,
+				DEFAULT_CACHE_POSTINGS_BYTES));
+		checkInterval = conf.getLong(CACHE_CHECK_MS, DEFAULT_CACHE_CHECK_MS);
+		wildcardTerms = conf.getInt(WILDCARD_TERMS, DEFAULT_WILDCARD_TERMS);
+	}
+
+	/**
+	 * Opens the positional index in a local directory, for phrase queries
+	 *
+	 * @param dir
+	 *            : local copy of the PositionIndex output directory, built
+	 *            with the same document ids as the index
+	 * @throws IOException
+	 */
+	public synchronized void openPositions(File dir) throws IOException {
+		List<Partition> positions = mapPartitions(dir,
+				PositionIndexOutputFormat.POSITIONS);
+		positionsDir = dir;
+		Index old = index;
+		index = new Index(old.partitions, old.impacts, positions, old.names,
+				old.norms);
+		invalidate();
+	}
+
+	/**
+	 * Loads the norms of the index, after which every query is given cosine
+	 * scores
+	 *
+	 * @throws IOException
+	 *             if the index was written without norms
+	 */
+	public synchronized void loadNorms() throws IOException {
+		float[] norms = DocumentNorms.load(dir);
+		Index old = index;
+		index = new Index(old.partitions, old.impacts, old.positions,
+				old.names, norms);
+		invalidate();
+	}
+
+	/**
+	 * Returns the weight of a posting as it adds to the score: divided by the
+	 * norm of the document with cosine scores
+	 */
+	private static double weight(float[] norms, int doc, double weight) {
+		return norms == null ? weight : DocumentNorms.cosine(weight, norms,
+				doc);
+	}
+
+	/**
+	 * Empties both caches, for example after the index files were changed
+	 * in a way the _SUCCESS file does not show
+	 */
+	public void invalidate() {
+		resultCache.clear();
+		postingsCache.clear();
+	}
+
+	/**
+	 * Maps the index again and empties the caches if a newer complete index
+	 * has been copied into the directory since it was mapped. The check is
+	 * made at most once every query.cache.check.ms.
+	 *
+	 * @return true if the index was mapped again
+	 * @throws IOException
+	 */
+	public boolean refresh() throws IOException {
+		long now = System.currentTimeMillis();
+		if (dir == null || now - lastCheck < checkInterval) {
+			return false;
+		}
+		synchronized (this) {
+			if (now - lastCheck < checkInterval) {
+				return false;
+			}
+			lastCheck = now;
+			long time = successTime(dir);
+			// an index without _SUCCESS is still being copied
+			if (time <= 0 || time == version) {
+				return false;
+			}
+			Index old = index;
+			List<Partition> partitions = mapPartitions(dir,
+					InvertedIndexOutputFormat.POSTINGS);
+			ImpactIndex.Impacts impacts = ImpactIndex.load(dir);
+			List<Partition> positions = old.positions;
+			if (positionsDir != null) {
+				positions = mapPartitions(positionsDir,
+						PositionIndexOutputFormat.POSITIONS);
+			}
+			String[] names = old.names;
+			if (getConf() != null
+					&& getConf().get(DocumentIds.TABLE) != null) {
+				names = DocumentIds.loadNames(getConf());
+			}
+			float[] norms = old.norms;
+			if (norms != null) {
+				norms = DocumentNorms.load(dir);
+			}
+			// published at once, so no query sees the postings of the rebuilt
+			// index with the positions, names or norms of the old one
+			index = new Index(partitions, impacts, positions, names, norms);
+			version = time;
+			invalidate();
+			LOG.info("Mapped the rebuilt index in " + dir);
+			return true;
+		}
+	}
+
+	private static long successTime(File dir) {
+		File success = new File(dir, "_SUCCESS");
+		return success.exists() ? success.lastModified() : -1;
+	}
+
+	/**
+	 * Maps every dictionary of a directory with the file it points into
+	 */
+	private static List<Partition> mapPartitions(File dir, String suffix)
+			throws IOException {
+		List<Partition> result = new ArrayList<Partition>();
+		File[] files = dir.listFiles();
+		if (files == null) {
+			throw new IOException("Index directory " + dir + " not found");
+		}
+		Arrays.sort(files);
+		for (File file : files) {
+			String name = file.getName();
+			if (name.endsWith(InvertedIndexOutputFormat.TERMS)) {
+				File postings = new File(dir, name.substring(0, name.length()
+						- InvertedIndexOutputFormat.TERMS.length())
+						+ suffix);
+				result.add(new Partition(map(file), map(postings)));
+			}
+		}
+		if (result.isEmpty()) {
+			throw new IOException("No index partitions in " + dir);
+		}
+		return result;
+	}
+
+	private static MappedByteBuffer map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if (raf.length() > Integer.MAX_VALUE) {
+				throw new IOException(file
+						+ " is larger than 2GB, build the index with more reducers");
+			}
+			// the mapping stays valid after the channel is closed
+			return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+					raf.length());
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 *
+	 * The mapped partitions of the index with the encoding of their
+	 * postings, the positional partitions, the document names and the
+	 * norms. A query reads the engine's snapshot once and uses it
+	 * throughout, so a refresh never gives it the postings of one index and
+	 * the impacts, positions, names or norms of another.
+	 *
+	 */
+	static class Index {
+		static final Index EMPTY = new Index(
+				Collections.<Partition> emptyList(), null,
+				Collections.<Partition> emptyList(), null, null);
+
+		final List<Partition> partitions;
+		// how the postings are encoded, or null for plain weights
+		final ImpactIndex.Impacts impacts;
+		// empty without a positional index
+		final List<Partition> positions;
+		// file name of every document id, or null to report ids
+		final String[] names;
+		// document norms for cosine scores, or null for plain sums
+		final float[] norms;
+
+		Index(List<Partition> partitions, ImpactIndex.Impacts impacts,
+				List<Partition> positions, String[] names, float[] norms) {
+			this.partitions = partitions;
+			this.impacts = impacts;
+			this.positions = positions;
+			this.names = names;
+			this.norms = norms;
+		}
+
+		/**
+		 * Turns a sum of impacts into a score; plain weights are left as they
+		 * are
+		 */
+		double scale(double score) {
+			return impacts == null ? score : score * impacts.scale;
+		}
+	}
+
+	/**
+	 *
+	 * One memory mapped index partition
+	 *
+	 */
+	static class Partition {
+		final MappedByteBuffer terms;
+		final MappedByteBuffer postings;
+		final TermDictionary.BlockIndex index;
+
+		Partition(MappedByteBuffer terms, MappedByteBuffer postings)
+				throws IOException {
+			this.terms = terms;
+			this.postings = postings;
+			this.index = new TermDictionary.BlockIndex(new ByteBufferDataInput(
+					terms), terms.capacity());
+		}
+	}
+
+	/**
+	 *
+	 * The decoded postings list of a term with its largest weight, divided
+	 * by the norm of its document with cosine scores, and the index it was
+	 * read from. Once cached it is shared by the queries, which must not
+	 * change it.
+	 *
+	 */
+	static class TermPostings {
+		final PostingsWritable postings;
+		final double maxWeight;
+		final Index index;
+
+		TermPostings(PostingsWritable postings, double maxWeight, Index index) {
+			this.postings = postings;
+			this.maxWeight = maxWeight;
+			this.index = index;
+		}
+	}
+
+	/**
+	 *
+	 * The postings cache, weighed by the bytes of the lists
+	 *
+	 */
+	static class PostingsCache extends LruCache<Text, TermPostings> {
+		PostingsCache(long bytes) {
+			super("postings cache", bytes);
+		}
+
+		@Override
+		protected long weigh(TermPostings value) {
+			// a document id and a weight per posting, and the objects
+			return 12L * value.postings.size() + 96;
+		}
+	}
+
+	/**
+	 *
+	 * One ranked document
+	 *
+	 */
+	public static class Result {
+		public final int doc;
+		public final String name;
+		public final double score;
+
+		public Result(int doc, String name, double score) {
+			this.doc = doc;
+			this.name = name;
+			this.score = score;
+		}
+
+		@Override
+		public String toString() {
+			return name + "\t" + score;
+		}
+	}
+
+	/**
+	 *
+	 * A phrase or proximity clause of a query
+	 *
+	 */
+	public static class Phrase {
+		public final List<Text> terms;
+		public final int slop;
+
+		public Phrase(List<Text> terms, int slop) {
+			this.terms = terms;
+			this.slop = slop;
+		}
+	}
+
+	/**
+	 * Splits a query into its distinct terms, the same set Search.Map builds
+	 * from the command line, in a fixed order so scores are reproducible.
+	 * The words of a phrase are terms of the query too.
+	 */
+	public static List<Text> parse(String query) {
+		TreeSet<Text> terms = new TreeSet<Text>();
+		String words = PHRASE.matcher(query).replaceAll(" $1 ");
+		for (String term : words.trim().split("\\s+")) {
+			if (!term.isEmpty()) {
+				terms.add(new Text(term));
+			}
+		}
+		return new ArrayList<Text>(terms);
+	}
+
+	/**
+	 * Returns the quoted phrases of a query, in the order they appear
+	 */
+	public static List<Phrase> parsePhrases(String query) {
+		List<Phrase> phrases = new ArrayList<Phrase>();
+		Matcher matcher = PHRASE.matcher(query);
+		while (matcher.find()) {
+			List<Text> terms = new ArrayList<Text>();
+			for (String term : matcher.group(1).trim().split("\\s+")) {
+				if (!term.isEmpty()) {
+					terms.add(new Text(term));
+				}
+			}
+			if (!terms.isEmpty()) {
+				phrases.add(new Phrase(terms, matcher.group(2) == null ? 0
+						: Integer.parseInt(matcher.group(2))));
+			}
+		}
+		return phrases;
+	}
+
+	/**
+	 * Runs a query
+	 *
+	 * @param query
+	 *            : query terms separated by whitespace
+	 * @param k
+	 *            : number of documents to return
+	 * @return the best k documents, highest score first
+	 * @throws IOException
+	 */
+	public List<Result> search(String query, int k) throws IOException {
+		return search(parse(query), parsePhrases(query), k);
+	}
+
+	/**
+	 * Runs a query given as its distinct terms and its phrases. Only the
+	 * documents matching every phrase are ranked. The results come from the
+	 * result cache when the same query was run recently, and must not be
+	 * changed.
+	 *
+	 * @throws IOException
+	 *             if the query has phrases and no positional index is open,
+	 *             or a wildcard matches too many terms
+	 */
+	public List<Result> search(List<Text> terms, List<Phrase> phrases, int k)
+			throws IOException {
+		refresh();
+		long mapped = version;
+		Index index = this.index;
+		String key = cacheKey(terms, phrases, k);
+		List<Result> results = resultCache.get(key);
+		if (results != null) {
+			return results;
+		}
+		terms = expand(index, terms, phrases);
+		if (phrases.isEmpty()) {
+			results = pruning ? searchPruned(index, terms, k)
+					: searchExhaustive(index, terms, k);
+		} else {
+			results = searchPhrases(index, terms, phrases, k);
+		}
+		results = Collections.unmodifiableList(results);
+		// results of an index replaced meanwhile are not kept
+		if (version == mapped) {
+			resultCache.put(key, results);
+		}
+		return results;
+	}
+
+	/**
+	 * Replaces the wildcard terms of a query by the dictionary terms they
+	 * match, keeping the terms sorted and distinct as parse gives them
+	 *
+	 * @throws IOException
+	 *             if a pattern matches more than query.wildcard.terms terms or
+	 *             is part of a phrase
+	 */
+	List<Text> expand(Index index, List<Text> terms, List<Phrase> phrases)
+			throws IOException {
+		for (Phrase phrase : phrases) {
+			for (Text term : phrase.terms) {
+				if (TermPattern.isPattern(term.toString())) {
+					throw new IOException("Phrases cannot hold wildcards: "
+							+ term);
+				}
+			}
+		}
+		TreeSet<Text> expanded = null;
+		List<TermDictionary.Entry> matches = new ArrayList<TermDictionary.Entry>();
+		for (Text term : terms) {
+			String pattern = term.toString();
+			if (!TermPattern.isPattern(pattern)) {
+				continue;
+			}
+			if (expanded == null) {
+				expanded = new TreeSet<Text>();
+				for (Text exact : terms) {
+					if (!TermPattern.isPattern(exact.toString())) {
+						expanded.add(exact);
+					}
+				}
+			}
+			// PartitionPlan can spread the documents of a frequent term over
+			// several partitions, so the terms are counted once merged
+			TreeSet<Text> matched = new TreeSet<Text>();
+			for (Partition partition : index.partitions) {
+				matches.clear();
+				boolean all = partition.index.expand(new ByteBufferDataInput(
+						partition.terms), pattern, matches, wildcardTerms + 1);
+				for (TermDictionary.Entry match : matches) {
+					matched.add(match.term);
+				}
+				if (!all || matched.size() > wildcardTerms) {
+					throw new IOException(pattern + " matches more than "
+							+ wildcardTerms + " terms, set " + WILDCARD_TERMS);
+				}
+			}
+			expanded.addAll(matched);
+		}
+		return expanded == null ? terms : new ArrayList<Text>(expanded);
+	}
+
+	/**
+	 * Returns the result cache key of a query: its terms in order, which
+	 * parse gives as the sorted distinct set, its phrases and k
+	 */
+	static String cacheKey(List<Text> terms, List<Phrase> phrases, int k) {
+		StringBuilder key = new StringBuilder().append(k);
+		for (Text term : terms) {
+			key.append(' ').append(term);
+		}
+		for (Phrase phrase : phrases) {
+			key.append(" \"");
+			for (int i = 0; i < phrase.terms.size(); i++) {
+				key.append(i == 0 ? "" : " ").append(phrase.terms.get(i));
+			}
+			key.append("\"~").append(phrase.slop);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Ranks the documents matching every phrase by the weights of all the
+	 * terms
+	 */
+	private List<Result> searchPhrases(Index index, List<Text> terms,
+			List<Phrase> phrases, int k) throws IOException {
+		if (index.positions.isEmpty()) {
+			throw new IOException(
+					"Phrase queries need a positional index, set " + POSITIONS);
+		}
+		int[] matching = null;
+		for (Phrase phrase : phrases) {
+			int[] docs = phraseDocs(index, phrase);
+			matching = matching == null ? docs : intersect(matching, docs);
+			if (matching.length == 0) {
+				return Collections.emptyList();
+			}
+		}
+		ScoreTable scores = new ScoreTable(matching.length);
+		float[] norms = index.norms;
+		for (Text term : terms) {
+			PostingsWritable postings = postings(index, term).postings;
+			for (int i = 0; i < postings.size(); i++) {
+				if (Arrays.binarySearch(matching, postings.getDoc(i)) >= 0) {
+					scores.add(postings.getDoc(i), weight(norms,
+							postings.getDoc(i), postings.getWeight(i)));
+				}
+			}
+		}
+		return topK(index, scores, k);
+	}
+
+	/**
+	 * Returns the sorted ids of the documents holding a phrase. The
+	 * positional postings of its words are intersected by document, walking
+	 * the shortest list and moving forward in the others, and the positions
+	 * are only compared in the documents holding every word.
+	 */
+	int[] phraseDocs(Index index, Phrase phrase) throws IOException {
+		int n = phrase.terms.size();
+		PositionalPostings[] lists = new PositionalPostings[n];
+		int shortest = 0;
+		for (int t = 0; t < n; t++) {
+			lists[t] = new PositionalPostings();
+			if (!readPositions(index, phrase.terms.get(t), lists[t])) {
+				return new int[0];
+			}
+			if (lists[t].size() < lists[shortest].size()) {
+				shortest = t;
+			}
+		}
+		int[] at = new int[n];
+		int[] docs = new int[lists[shortest].size()];
+		int found = 0;
+		for (int i = 0; i < lists[shortest].size(); i++) {
+			int doc = lists[shortest].getDoc(i);
+			boolean inAll = true;
+			for (int t = 0; t < n && inAll; t++) {
+				while (at[t] < lists[t].size() && lists[t].getDoc(at[t]) < doc) {
+					at[t]++;
+				}
+				if (at[t] == lists[t].size()) {
+					return Arrays.copyOf(docs, found);
+				}
+				inAll = lists[t].getDoc(at[t]) == doc;
+			}
+			if (inAll && PositionalPostings.matches(lists, at, phrase.slop)) {
+				docs[found++] = doc;
+			}
+		}
+		return Arrays.copyOf(docs, found);
+	}
+
+	private static int[] intersect(int[] a, int[] b) {
+		int[] result = new int[Math.min(a.length, b.length)];
+		int n = 0;
+		int i = 0;
+		int j = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				result[n++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * Reads the positional postings list of a term, merging it from every
+	 * partition holding part of it
+	 *
+	 * @return false if the positional index does not have the term
+	 */
+	boolean readPositions(Index index, Text term, PositionalPostings result)
+			throws IOException {
+		result.clear();
+		boolean found = false;
+		TermDictionary.Entry entry = new TermDictionary.Entry();
+		PositionalPostings part = null;
+		for (Partition partition : index.positions) {
+			ByteBufferDataInput terms = new ByteBufferDataInput(partition.terms);
+			if (!partition.index.seek(terms, term, entry)) {
+				continue;
+			}
+			ByteBufferDataInput in = new ByteBufferDataInput(
+					partition.postings);
+			in.seek(entry.offset);
+			if (!found) {
+				result.readPostings(in, entry.df);
+				found = true;
+			} else {
+				if (part == null) {
+					part = new PositionalPostings();
+				}
+				part.readPostings(in, entry.df);
+				PositionalPostings merged = new PositionalPostings();
+				PositionalPostings.merge(result, part, merged);
+				result.set(merged);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Runs a query given as its distinct terms, with MaxScore pruning unless
+	 * it was turned off
+	 */
+	public List<Result> search(List<Text> terms, int k) throws IOException {
+		return search(terms, Collections.<Phrase> emptyList(), k);
+	}
+
+	/**
+	 * Runs a query by summing every posting of every term
+	 */
+	public List<Result> searchExhaustive(List<Text> terms, int k)
+			throws IOException {
+		return searchExhaustive(index, terms, k);
+	}
+
+	private List<Result> searchExhaustive(Index index, List<Text> terms, int k)
+			throws IOException {
+		ScoreTable scores = new ScoreTable(16);
+		float[] norms = index.norms;
+		for (Text term : terms) {
+			PostingsWritable postings = postings(index, term).postings;
+			for (int i = 0; i < postings.size(); i++) {
+				scores.add(postings.getDoc(i), weight(norms,
+						postings.getDoc(i), postings.getWeight(i)));
+			}
+			postingsVisited.addAndGet(postings.size());
+		}
+		return topK(index, scores, k);
+	}
+
+	/**
+	 * Runs a query document at a time with MaxScore pruning. The terms are
+	 * ranked by their largest weight; the lowest ranked terms whose bounds
+	 * summed stay below the k-th score are non essential. Only the essential
+	 * terms propose documents, and the non essential lists are searched for
+	 * a proposed document only if it can still reach the k-th score.
+	 */
+	public List<Result> searchPruned(List<Text> terms, int k)
+			throws IOException {
+		return searchPruned(index, terms, k);
+	}
+
+	private List<Result> searchPruned(Index index, List<Text> terms, int k)
+			throws IOException {
+		int n = terms.size();
+		float[] norms = index.norms;
+		final PostingsWritable[] lists = new PostingsWritable[n];
+		final double[] bounds = new double[n];
+		Integer[] byBound = new Integer[n];
+		for (int t = 0; t < n; t++) {
+			TermPostings term = postings(index, terms.get(t));
+			lists[t] = term.postings;
+			bounds[t] = term.maxWeight;
+			byBound[t] = t;
+		}
+		Arrays.sort(byBound, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(bounds[a], bounds[b]);
+			}
+		});
+		// contributions of the terms to the current document, in query term
+		// order: a weight, a bound still to be looked up, or NaN if absent
+		double[] contribution = new double[n];
+		boolean[] essential = new boolean[n];
+		Arrays.fill(essential, true);
+		int[] cursor = new int[n];
+		// byBound[0 .. firstEssential - 1] are the non essential terms
+		int firstEssential = 0;
+		double threshold = Double.NEGATIVE_INFINITY;
+		TopDocs top = new TopDocs(k);
+		long visited = 0;
+		while (k > 0) {
+			int doc = Integer.MAX_VALUE;
+			for (int t = 0; t < n; t++) {
+				if (essential[t] && cursor[t] < lists[t].size()) {
+					doc = Math.min(doc, lists[t].getDoc(cursor[t]));
+				}
+			}
+			if (doc == Integer.MAX_VALUE) {
+				break;
+			}
+			for (int t = 0; t < n; t++) {
+				contribution[t] = Double.NaN;
+				if (!essential[t]) {
+					contribution[t] = bounds[t];
+				} else if (cursor[t] < lists[t].size()
+						&& lists[t].getDoc(cursor[t]) == doc) {
+					contribution[t] = weight(norms, doc,
+							lists[t].getWeight(cursor[t]++));
+					visited++;
+				}
+			}
+			// look up the non essential terms, highest bound first, while the
+			// bound of the document reaches the k-th score
+			boolean pruned = false;
+			for (int r = firstEssential - 1; r >= 0; r--) {
+				if (sum(contribution) < threshold) {
+					pruned = true;
+					break;
+				}
+				int t = byBound[r];
+				cursor[t] = lists[t].advance(cursor[t], doc);
+				visited++;
+				contribution[t] = cursor[t] < lists[t].size()
+						&& lists[t].getDoc(cursor[t]) == doc ? weight(norms,
+						doc, lists[t].getWeight(cursor[t])) : Double.NaN;
+			}
+			if (pruned) {
+				continue;
+			}
+			if (!top.offer(doc, sum(contribution))
+					|| top.threshold() == threshold) {
+				continue;
+			}
+			threshold = top.threshold();
+			// move terms to the non essential set while their bounds together
+			// stay below the k-th score
+			while (firstEssential < n) {
+				essential[byBound[firstEssential]] = false;
+				for (int t = 0; t < n; t++) {
+					contribution[t] = essential[t] ? Double.NaN : bounds[t];
+				}
+				if (sum(contribution) >= threshold) {
+					essential[byBound[firstEssential]] = true;
+					break;
+				}
+				firstEssential++;
+			}
+		}
+		postingsVisited.addAndGet(visited);
+		return results(index, top);
+	}
+
+	/**
+	 * Adds up the contributions that are not NaN in query term order, from
+	 * 0, the order in which searchExhaustive adds the weights of a document
+	 */
+	private static double sum(double[] contribution) {
+		double sum = 0;
+		for (double c : contribution) {
+			if (!Double.isNaN(c)) {
+				sum += c;
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Turns MaxScore pruning on or off for the bag of words queries
+	 */
+	public void setPruning(boolean pruning) {
+		this.pruning = pruning;
+	}
+
+	public LruCache<String, List<Result>> getResultCache() {
+		return resultCache;
+	}
+
+	public LruCache<Text, TermPostings> getPostingsCache() {
+		return postingsCache;
+	}
+
+	/**
+	 * Returns the postings list of a term from the postings cache, or decodes
+	 * it from the index and adds it to the cache. A missing term gives an
+	 * empty list. A list cached from another index than the one the query
+	 * reads is decoded again.
+	 */
+	TermPostings postings(Index index, Text term) throws IOException {
+		TermPostings cached = postingsCache.get(term);
+		if (cached != null && cached.index == index) {
+			return cached;
+		}
+		long mapped = version;
+		PostingsWritable list = new PostingsWritable();
+		double[] maxWeight = new double[1];
+		readPostings(index, term, list, maxWeight);
+		postingsRead.addAndGet(list.size());
+		float[] norms = index.norms;
+		if (norms != null) {
+			// the bound of the weights as they add to cosine scores
+			maxWeight[0] = 0;
+			for (int i = 0; i < list.size(); i++) {
+				maxWeight[0] = Math.max(maxWeight[0],
+						weight(norms, list.getDoc(i), list.getWeight(i)));
+			}
+		}
+		cached = new TermPostings(list, maxWeight[0], index);
+		if (version == mapped) {
+			postingsCache.put(new Text(term), cached);
+		}
+		return cached;
+	}
+
+	/**
+	 * Returns the number of postings decoded from the index so far; lists
+	 * taken from the postings cache are not counted
+	 */
+	public long getPostingsRead() {
+		return postingsRead.get();
+	}
+
+	/**
+	 * Returns the number of postings scored, or looked up for a document, by
+	 * the bag of words queries so far. Without pruning every posting read is
+	 * visited.
+	 */
+	public long getPostingsVisited() {
+		return postingsVisited.get();
+	}
+
+	/**
+	 * Reads the postings list of a term from every partition holding it
+	 *
+	 * @return false if no partition has the term
+	 */
+	boolean readPostings(Text term, PostingsWritable result)
+			throws IOException {
+		return readPostings(index, term, result, new double[1]);
+	}
+
+	/**
+	 * Reads the postings list of a term from every partition holding it,
+	 * with the largest weight in the list
+	 *
+	 * @param maxWeight
+	 *            : its first element is set to the largest weight, 0 if the
+	 *            term is missing
+	 * @return false if no partition has the term
+	 */
+	boolean readPostings(Index index, Text term, PostingsWritable result,
+			double[] maxWeight) throws IOException {
+		result.clear();
+		maxWeight[0] = 0;
+		boolean found = false;
+		TermDictionary.Entry entry = new TermDictionary.Entry();
+		PostingsWritable part = null;
+		ImpactIndex.Impacts impacts = index.impacts;
+		for (Partition partition : index.partitions) {
+			ByteBufferDataInput terms = new ByteBufferDataInput(partition.terms);
+			if (!partition.index.seek(terms, term, entry)) {
+				continue;
+			}
+			ByteBufferDataInput in = new ByteBufferDataInput(
+					partition.postings);
+			in.seek(entry.offset);
+			maxWeight[0] = Math.max(maxWeight[0], entry.maxWeight);
+			if (!found) {
+				read(in, entry.df, impacts, result);
+				found = true;
+			} else {
+				if (part == null) {
+					part = new PostingsWritable();
+				}
+				read(in, entry.df, impacts, part);
+				PostingsWritable merged = new PostingsWritable();
+				PostingsWritable.merge(result, part, merged);
+				result.set(merged);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Decodes a postings list, keeping the impacts of an impact index as
+	 * they are so that the scores are sums of integers
+	 */
+	private static void read(ByteBufferDataInput in, int count,
+			ImpactIndex.Impacts impacts, PostingsWritable result)
+			throws IOException {
+		if (impacts == null) {
+			result.readPostings(in, count);
+		} else {
+			result.readImpacts(in, count, impacts.bits, 1);
+		}
+	}
+
+	/**
+	 * Returns the score a bag of words query gives a document, summed as
+	 * the exhaustive evaluation sums it, 0 if the document has none of the
+	 * terms. Wildcard terms are expanded as search expands them.
+	 *
+	 * @throws IOException
+	 *             if a wildcard matches too many terms
+	 */
+	public double score(List<Text> terms, int doc) throws IOException {
+		Index index = this.index;
+		float[] norms = index.norms;
+		terms = expand(index, terms, Collections.<Phrase> emptyList());
+		double score = 0;
+		for (Text term : terms) {
+			PostingsWritable postings = postings(index, term).postings;
+			int i = postings.advance(0, doc);
+			if (i < postings.size() && postings.getDoc(i) == doc) {
+				score += weight(norms, doc, postings.getWeight(i));
+			}
+		}
+		return index.scale(score);
+	}
+
+	private List<Result> topK(Index index, ScoreTable scores, int k) {
+		TopDocs top = new TopDocs(k);
+		for (int i = 0; i < scores.capacity(); i++) {
+			if (scores.isUsed(i)) {
+				top.offer(scores.docAt(i), scores.scoreAt(i));
+			}
+		}
+		return results(index, top);
+	}
+
+	/**
+	 * Empties the heap into the results, best document first, with the
+	 * scores of the index
+	 */
+	private List<Result> results(Index index, TopDocs top) {
+		int[] docs = new int[top.size()];
+		double[] best = new double[top.size()];
+		int n = top.drain(docs, best);
+		List<Result> results = new ArrayList<Result>(n);
+		for (int i = 0; i < n; i++) {
+			results.add(new Result(docs[i], name(index, docs[i]), index
+					.scale(best[i])));
+		}
+		return results;
+	}
+
+	static String name(Index index, int doc) {
+		return index.names == null ? String.valueOf(doc) : index.names[doc];
+	}
+
+	/**
+	 * Returns how the postings of the index are encoded, null for plain
+	 * weights
+	 */
+	public ImpactIndex.Impacts getImpacts() {
+		return index.impacts;
+	}
+
+	public int getDocuments() {
+		String[] names = index.names;
+		return names == null ? -1 : names.length;
+	}
+
+	@Override
+	public void close() {
+		// the mappings are released when the buffers are collected
+		index = Index.EMPTY;
+		invalidate();
+	}
+
+	/**
+	 *
+	 * This class is an open addressing table of document id to accumulated
+	 * score, so that summing a postings list does not box every document id
+	 *
+	 */
+	static class ScoreTable {
+		private int[] docs;
+		private double[] scores;
+		private boolean[] used;
+		private int size;
+
+		ScoreTable(int capacity) {
+			int n = Integer.highestOneBit(Math.max(16, capacity) - 1) << 1;
+			docs = new int[n];
+			scores = new double[n];
+			used = new boolean[n];
+		}
+
+		void add(int doc, double score) {
+			if (size * 2 >= docs.length) {
+				grow();
+			}
+			int mask = docs.length - 1;
+			int i = (doc * 0x9E3779B9) >>> 7 & mask;
+			while (used[i] && docs[i] != doc) {
+				i = (i + 1) & mask;
+			}
+			if (!used[i]) {
+				used[i] = true;
+				docs[i] = doc;
+				size++;
+			}
+			scores[i] += score;
+		}
+
+		private void grow() {
+			int[] oldDocs = docs;
+			double[] oldScores = scores;
+			boolean[] oldUsed = used;
+			docs = new int[oldDocs.length * 2];
+			scores = new double[oldDocs.length * 2];
+			used = new boolean[oldDocs.length * 2];
+			size = 0;
+			for (int i = 0; i < oldDocs.length; i++) {
+				if (oldUsed[i]) {
+					add(oldDocs[i], oldScores[i]);
+				}
+			}
+		}
+
+		int size() {
+			return size;
+		}
+
+		int capacity() {
+			return docs.length;
+		}
+
+		boolean isUsed(int i) {
+			return used[i];
+		}
+
+		int docAt(int i) {
+			return docs[i];
+		}
+
+		double scoreAt(int i) {
+			return scores[i];
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int res = ToolRunner.run(new QueryEngine(), args);
+		System.exit(res);
+	}
+
+	/**
+	 * Reads queries from standard input and prints the ranked documents with
+	 * the time each query took
+	 */
+	public int run(String[] args) throws Exception {
+		open(new File(args[0]), DocumentIds.loadNames(getConf()));
+		configure(getConf());
+		int k = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_K;
+		LOG.info("Loaded " + index.partitions.size() + " index partitions");
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				System.in, "UTF-8"));
+		String query;
+		while ((query = in.readLine()) != null) {
+			if (query.trim().isEmpty()) {
+				continue;
+			}
+			long start = System.nanoTime();
+			List<Result> results = search(query, k);
+			long micros = (System.nanoTime() - start) / 1000;
+			for (Result result : results) {
+				System.out.println(result);
+			}
+			System.out.println("# " + results.size() + " results in "
+					+ micros + " us");
+		}
+		LOG.info(resultCache);
+		LOG.info(postingsCache);
+		close();
+		return 0;
+	}
+}
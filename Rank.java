@@ -1,37 +1,68 @@
 package org.myorg;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.log4j.Logger;
+import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.Reducer;
-import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.partition.TotalOrderPartitioner;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.DoubleWritable;
-import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
-
+import org.apache.hadoop.io.WritableComparable;
 import org.apache.hadoop.io.WritableComparator;
 
 /**
- * 
- * @author Valentina Palghadmal 
- * 
- * 
+ *
+ * @author Valentina Palghadmal
+ *
+ *
  *         This class ranks the search hits in descending order using their
- *         accumulated score
+ *         accumulated score. The document ids of the hits are turned back into
+ *         file names using the table named by docids.table.
+ *
+ *         With rank.topk set to k > 0 only the best k hits are written: every
+ *         mapper keeps its best k and a single reducer merges them. Otherwise
+ *         every hit is ranked, spread over the reducers by a
+ *         TotalOrderPartitioner so that the part files are in rank order.
  *
  */
 public class Rank extends Configured implements Tool {
 
 	private static final Logger LOG = Logger.getLogger(Rank.class);
 
+	/** Configuration key for the number of hits to keep, 0 keeps them all */
+	public static final String TOP_K = "rank.topk";
+	/** Configuration key for the number of scores sampled for partitioning */
+	public static final String SAMPLE_SIZE = "rank.sample.size";
+	/** Configuration key for the most input splits read for the sample */
+	public static final String SAMPLE_SPLITS = "rank.sample.splits";
+
+	public static enum Counters {
+		INVALID_HITS, RANKED
+	}
+
 	public static void main(String[] args) throws Exception {
 		int res = ToolRunner.run(new Rank(), args);
 		System.exit(res);
@@ -46,74 +77,257 @@ public class Rank extends Configured implements Tool {
 		job.setJarByClass(this.getClass());
 		FileInputFormat.addInputPaths(job, args[0]);
 		FileOutputFormat.setOutputPath(job, new Path(args[1]));
+		job.setInputFormatClass(SequenceFileInputFormat.class);
 		job.setMapperClass(Map.class);
 		job.setReducerClass(Reduce.class);
-		// job.setNumReduceTasks(1);
-		// job.setSortComparatorClass(DoubleComparator.class);
-		// job.setGroupingComparatorClass(DoubleComparator.class);
+		job.setSortComparatorClass(DescendingDoubleComparator.class);
 		job.setMapOutputKeyClass(DoubleWritable.class);
-		job.setMapOutputValueClass(Text.class);
+		job.setMapOutputValueClass(IntWritable.class);
 		job.setOutputKeyClass(Text.class);
 		job.setOutputValueClass(DoubleWritable.class);
 
-		return job.waitForCompletion(true) ? 0 : 1;
+		Path partitionFile = null;
+		if (job.getConfiguration().getInt(TOP_K, 0) > 0) {
+			job.setNumReduceTasks(1);
+		} else if (job.getNumReduceTasks() > 1) {
+			partitionFile = new Path(args[1] + "_partitions");
+			if (writePartitionFile(job, partitionFile)) {
+				job.setPartitionerClass(TotalOrderPartitioner.class);
+			} else {
+				job.setNumReduceTasks(1);
+			}
+		}
+		StageCompression.configure(job);
+
+		boolean success = JobCounters.run(LOG, job);
+		LOG.info("RANKED HITS: "
+				+ job.getCounters().findCounter(Counters.RANKED).getValue()
+				+ ", INVALID HITS: "
+				+ job.getCounters().findCounter(Counters.INVALID_HITS)
+						.getValue());
+		if (partitionFile != null) {
+			FileSystem fs = partitionFile.getFileSystem(job.getConfiguration());
+			fs.delete(partitionFile, false);
+		}
+		return success ? 0 : 1;
 
 	}
 
 	/**
-	 * 
-	 * This class takes the input as filename and score and returns output as
-	 * negation of score and filename. This is done to so that we can use the
-	 * inbuilt auto sorting by map reduce to sort the values in descending order
+	 * Samples the scores of the input and writes the split points between
+	 * the reducers, highest scores first, for the TotalOrderPartitioner.
+	 * Up to rank.sample.splits splits are picked at random and each is
+	 * sampled uniformly with a reservoir, so the sample does not lean
+	 * towards the head of the files. Equal sampled scores give a single
+	 * split point, and when there are too few distinct scores for every
+	 * reducer the job runs with fewer reducers.
+	 *
+	 * @return false if the input has no scores to sample
+	 */
+	private boolean writePartitionFile(Job job, Path partitionFile)
+			throws IOException, InterruptedException {
+		Configuration conf = job.getConfiguration();
+		SequenceFileInputFormat<IntWritable, DoubleWritable> inputFormat = new SequenceFileInputFormat<IntWritable, DoubleWritable>();
+		List<InputSplit> splits = inputFormat.getSplits(job);
+		if (splits.isEmpty()) {
+			return false;
+		}
+		// a fixed seed keeps the reducer boundaries of reruns the same
+		Random random = new Random(splits.size());
+		splits = new ArrayList<InputSplit>(splits);
+		Collections.shuffle(splits, random);
+		int sampled = Math.max(1, conf.getInt(SAMPLE_SPLITS, 10));
+		splits = splits.subList(0, Math.min(splits.size(), sampled));
+		int perSplit = conf.getInt(SAMPLE_SIZE, 10000) / splits.size() + 1;
+		List<Double> samples = new ArrayList<Double>();
+		for (InputSplit split : splits) {
+			TaskAttemptContext context = new TaskAttemptContextImpl(conf,
+					new TaskAttemptID());
+			RecordReader<IntWritable, DoubleWritable> reader = inputFormat
+					.createRecordReader(split, context);
+			List<Double> reservoir = new ArrayList<Double>(perSplit);
+			try {
+				reader.initialize(split, context);
+				for (long seen = 0; reader.nextKeyValue(); seen++) {
+					double score = reader.getCurrentValue().get();
+					if (seen < perSplit) {
+						reservoir.add(score);
+					} else {
+						long slot = (long) (random.nextDouble() * (seen + 1));
+						if (slot < perSplit) {
+							reservoir.set((int) slot, score);
+						}
+					}
+				}
+			} finally {
+				reader.close();
+			}
+			samples.addAll(reservoir);
+		}
+		if (samples.isEmpty()) {
+			return false;
+		}
+		Collections.sort(samples, Collections.reverseOrder());
+		int reducers = job.getNumReduceTasks();
+		// the split points must be strictly decreasing, as the sort orders
+		// the scores
+		List<Double> points = new ArrayList<Double>();
+		for (int i = 1; i < reducers; i++) {
+			double point = samples.get(i * samples.size() / reducers);
+			if (points.isEmpty()
+					|| Double.compare(point, points.get(points.size() - 1)) < 0) {
+				points.add(point);
+			}
+		}
+		if (points.isEmpty()) {
+			return false;
+		}
+		SequenceFile.Writer writer = SequenceFile.createWriter(conf,
+				SequenceFile.Writer.file(partitionFile),
+				SequenceFile.Writer.keyClass(DoubleWritable.class),
+				SequenceFile.Writer.valueClass(NullWritable.class));
+		try {
+			for (double point : points) {
+				writer.append(new DoubleWritable(point), NullWritable.get());
+			}
+		} finally {
+			writer.close();
+		}
+		if (points.size() + 1 < reducers) {
+			LOG.info("Only " + (points.size() + 1)
+					+ " distinct score ranges sampled, running "
+					+ (points.size() + 1) + " of " + reducers + " reducers");
+			job.setNumReduceTasks(points.size() + 1);
+		}
+		TotalOrderPartitioner.setPartitionFile(conf, partitionFile);
+		LOG.info("Sampled " + samples.size() + " scores for "
+				+ job.getNumReduceTasks() + " reducers");
+		return true;
+	}
+
+	/**
+	 *
+	 * This class takes the input as document id and score and returns output
+	 * as score and document id, so that the sort by score can be done by map
+	 * reduce. In top k mode only the best k hits of the map task are written,
+	 * when the task ends.
 	 *
 	 */
 	public static class Map extends
-			Mapper<LongWritable, Text, DoubleWritable, Text> {
+			Mapper<IntWritable, DoubleWritable, DoubleWritable, IntWritable> {
+		private final DoubleWritable score = new DoubleWritable();
+		private final IntWritable doc = new IntWritable();
+		private TopDocs top;
+
+		@Override
+		public void setup(Context context) throws IOException,
+				InterruptedException {
+			int k = context.getConfiguration().getInt(TOP_K, 0);
+			if (k > 0) {
+				top = new TopDocs(k);
+			}
+		}
+
 		/**
-		 * 
-		 * This map class is used to read the contains from the file line by
-		 * line and generate key value pairs.
+		 *
+		 * This map class is used to read the output of Search record by
+		 * record and generate key value pairs. Hits without a valid document
+		 * id or a finite score are counted and dropped.
 		 */
-		public void map(LongWritable offset, Text lineText, Context context)
-				throws IOException, InterruptedException {
-			String line = lineText.toString();
-			if (!line.isEmpty()) {
-				String list[] = line.split("\t");
-				if (list.length == 2)
-					context.write(new DoubleWritable(Double.valueOf(list[1])
-							* -1), new Text(list[0]));
+		public void map(IntWritable docId, DoubleWritable hitScore,
+				Context context) throws IOException, InterruptedException {
+			double value = hitScore.get();
+			if (docId.get() < 0 || Double.isNaN(value)
+					|| Double.isInfinite(value)) {
+				context.getCounter(Counters.INVALID_HITS).increment(1);
+				return;
+			}
+			if (top != null) {
+				top.offer(docId.get(), hitScore.get());
+			} else {
+				context.write(hitScore, docId);
+			}
+		}
+
+		@Override
+		public void cleanup(Context context) throws IOException,
+				InterruptedException {
+			if (top == null) {
+				return;
+			}
+			int[] docs = new int[top.size()];
+			double[] scores = new double[top.size()];
+			int n = top.drain(docs, scores);
+			for (int i = 0; i < n; i++) {
+				doc.set(docs[i]);
+				score.set(scores[i]);
+				context.write(score, doc);
 			}
 		}
 	}
 
 	/**
-	 * 
-	 * This class is used to write the sorted values in file
+	 *
+	 * This class is used to write the sorted values in file. In top k mode it
+	 * stops after the first k hits.
 	 *
 	 */
 	public static class Reduce extends
-			Reducer<DoubleWritable, Text, Text, DoubleWritable> {
+			Reducer<DoubleWritable, IntWritable, Text, DoubleWritable> {
+		private String[] filenames;
+		private int remaining;
+
+		/**
+		 * Loads the file name of every document id. Without a table the ids
+		 * are written as they are.
+		 */
 		@Override
-		public void reduce(DoubleWritable count, Iterable<Text> filename,
+		public void setup(Context context) throws IOException,
+				InterruptedException {
+			filenames = DocumentIds.loadNames(context.getConfiguration());
+			int k = context.getConfiguration().getInt(TOP_K, 0);
+			remaining = k > 0 ? k : Integer.MAX_VALUE;
+		}
+
+		@Override
+		public void reduce(DoubleWritable count, Iterable<IntWritable> docIds,
 				Context context) throws IOException, InterruptedException {
-			for (Text file : filename) {
-				context.write(file, new DoubleWritable(count.get() * -1));
+			for (IntWritable docId : docIds) {
+				if (remaining == 0) {
+					return;
+				}
+				remaining--;
+				context.getCounter(Counters.RANKED).increment(1);
+				String file = filenames == null ? String.valueOf(docId.get())
+						: filenames[docId.get()];
+				context.write(new Text(file), count);
 			}
 		}
 	}
 
-	/*
-	 * public static class DoubleComparator extends WritableComparator {
-	 * 
-	 * public DoubleComparator() { super(DoubleWritable.class); }
-	 * 
-	 * @Override public int compare(byte[] b1, int s1, int l1, byte[] b2, int
-	 * s2, int l2) {
-	 * 
-	 * Double v1 = ByteBuffer.wrap(b1, s1, l1).getDouble(); Double v2 =
-	 * ByteBuffer.wrap(b2, s2, l2).getDouble();
-	 * 
-	 * return v1.compareTo(v2) * (-1); } }
+	/**
+	 *
+	 * This comparator sorts serialized DoubleWritable keys in descending
+	 * order without deserializing them
+	 *
 	 */
+	public static class DescendingDoubleComparator extends WritableComparator {
+
+		public DescendingDoubleComparator() {
+			super(DoubleWritable.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			return Double.compare(readDouble(b2, s2), readDouble(b1, s1));
+		}
+
+		@Override
+		@SuppressWarnings("rawtypes")
+		public int compare(WritableComparable a, WritableComparable b) {
+			return Double.compare(((DoubleWritable) b).get(),
+					((DoubleWritable) a).get());
+		}
+	}
 
 }
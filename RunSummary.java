@@ -0,0 +1,194 @@
+package org.myorg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.CounterGroup;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class writes a machine readable summary of a run of the
+ *         pipeline into the directory given by pipeline.summary. Every job
+ *         writes <job id>.json when it finishes:
+ *
+ *         {"job": name, "id": job id, "success": true|false, "elapsed_ms": wall
+ *         time, "counters": {group: {counter: value}}}
+ *
+ *         with every counter of the job, built in and custom. IndexDriver also
+ *         writes run.json, with the outcome and time of each of its stages and
+ *         the records of the jobs they ran:
+ *
+ *         {"driver": name, "success": true|false, "elapsed_ms": wall time,
+ *         "stages": [{"stage": name, "status": "ran"|"skipped"|"failed",
+ *         "elapsed_ms": wall time}], "jobs": [job records]}
+ */
+public class RunSummary {
+
+	/** Configuration key for the directory the summary is written to */
+	public static final String DIR = "pipeline.summary";
+	public static final String RUN_FILE = "run.json";
+
+	private final List<String> stages = new ArrayList<String>();
+	private final long start = System.currentTimeMillis();
+
+	/**
+	 * Writes the record of a finished job, if the configuration asks for a
+	 * summary
+	 *
+	 * @throws IOException
+	 */
+	public static void writeJob(Job job, boolean success, long elapsed)
+			throws IOException {
+		Configuration conf = job.getConfiguration();
+		if (conf.get(DIR) == null) {
+			return;
+		}
+		StringBuilder json = new StringBuilder();
+		json.append("{\"job\": ").append(quote(job.getJobName().trim()));
+		json.append(", \"id\": ").append(quote(job.getJobID().toString()));
+		json.append(", \"success\": ").append(success);
+		json.append(", \"elapsed_ms\": ").append(elapsed);
+		json.append(", \"counters\": {");
+		Counters counters = job.getCounters();
+		if (counters != null) {
+			boolean firstGroup = true;
+			for (CounterGroup group : counters) {
+				json.append(firstGroup ? "" : ", ")
+						.append(quote(group.getName())).append(": {");
+				boolean first = true;
+				for (Counter counter : group) {
+					json.append(first ? "" : ", ")
+							.append(quote(counter.getName())).append(": ")
+							.append(counter.getValue());
+					first = false;
+				}
+				json.append("}");
+				firstGroup = false;
+			}
+		}
+		json.append("}}");
+		write(conf, new Path(conf.get(DIR), job.getJobID() + ".json"),
+				json.toString());
+	}
+
+	/**
+	 * Adds a stage of the driver to the summary
+	 *
+	 * @param status
+	 *            : ran, skipped or failed
+	 */
+	public void addStage(String stage, String status, long elapsed) {
+		stages.add("{\"stage\": " + quote(stage) + ", \"status\": "
+				+ quote(status) + ", \"elapsed_ms\": " + elapsed + "}");
+	}
+
+	/**
+	 * Writes run.json with the stages added so far and the records of the
+	 * jobs that finished since this summary was created
+	 *
+	 * @throws IOException
+	 */
+	public void writeRun(Configuration conf, String driver, boolean success)
+			throws IOException {
+		if (conf.get(DIR) == null) {
+			return;
+		}
+		Path dir = new Path(conf.get(DIR));
+		FileSystem fs = dir.getFileSystem(conf);
+		StringBuilder json = new StringBuilder();
+		json.append("{\"driver\": ").append(quote(driver));
+		json.append(", \"success\": ").append(success);
+		json.append(", \"elapsed_ms\": ").append(
+				System.currentTimeMillis() - start);
+		json.append(", \"stages\": [");
+		for (int i = 0; i < stages.size(); i++) {
+			json.append(i == 0 ? "" : ", ").append(stages.get(i));
+		}
+		json.append("], \"jobs\": [");
+		boolean first = true;
+		for (FileStatus status : jobRecords(fs, dir)) {
+			json.append(first ? "" : ", ").append(read(fs, status));
+			first = false;
+		}
+		json.append("]}");
+		write(conf, new Path(dir, RUN_FILE), json.toString());
+	}
+
+	/**
+	 * Returns the job records written since this summary was created, oldest
+	 * first
+	 */
+	private FileStatus[] jobRecords(FileSystem fs, Path dir) throws IOException {
+		List<FileStatus> records = new ArrayList<FileStatus>();
+		if (fs.exists(dir)) {
+			for (FileStatus status : fs.listStatus(dir)) {
+				String name = status.getPath().getName();
+				if (name.endsWith(".json") && !name.equals(RUN_FILE)
+						&& status.getModificationTime() >= start - 1000) {
+					records.add(status);
+				}
+			}
+		}
+		FileStatus[] sorted = records.toArray(new FileStatus[records.size()]);
+		Arrays.sort(sorted, new Comparator<FileStatus>() {
+			@Override
+			public int compare(FileStatus a, FileStatus b) {
+				return Long.compare(a.getModificationTime(),
+						b.getModificationTime());
+			}
+		});
+		return sorted;
+	}
+
+	private static String read(FileSystem fs, FileStatus status)
+			throws IOException {
+		byte[] bytes = new byte[(int) status.getLen()];
+		InputStream in = fs.open(status.getPath());
+		try {
+			IOUtils.readFully(in, bytes, 0, bytes.length);
+		} finally {
+			in.close();
+		}
+		return new String(bytes, "UTF-8").trim();
+	}
+
+	private static void write(Configuration conf, Path file, String json)
+			throws IOException {
+		OutputStream out = file.getFileSystem(conf).create(file, true);
+		try {
+			out.write((json + "\n").getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	static String quote(String s) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+}
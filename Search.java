@@ -1,9 +1,12 @@
 package org.myorg;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
@@ -14,8 +17,9 @@ import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.io.DoubleWritable;
-import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
 
 /**
@@ -25,12 +29,31 @@ import org.apache.hadoop.io.Text;
  *         This class contains map reduce code to implements a simple batch mode
  *         search engine. The job (Search.java) accepts as input a user query
  *         and outputs a list of documents with scores that best matches the
- *         query
+ *         query. Only the postings lists of the query terms are read from the
+ *         index written by TFIDF. A query term may hold the wildcards of
+ *         TermPattern, 'comput*', quoted for the shell; it is matched against
+ *         the dictionary of every index partition and stands for all the
+ *         terms it matches.
+ *
+ *         With -Dsearch.cosine=true every weight is divided by the norm of the
+ *         TF-IDF vector of its document, read from the norms the index was
+ *         written with, before it is summed, so long documents no longer win
+ *         by their length alone. The query vector has the same norm for every
+ *         document and is left out, so the scores keep the order of the
+ *         cosine similarities.
  */
 public class Search extends Configured implements Tool {
 
 	private static final Logger LOG = Logger.getLogger(Search.class);
-	private static String delimeter = "#####";
+
+	public static enum Counters {
+		MATCHED_TERMS, SKIPPED_TERMS, POSTINGS, INVALID_WEIGHTS, HITS
+	}
+
+	/** Configuration flag for cosine scores, off by default */
+	public static final String COSINE = "search.cosine";
+	/** Configuration key of the index whose norms the mappers load */
+	static final String NORMS_INDEX = "search.norms.index";
 
 	public static void main(String[] args) throws Exception {
 		int res = ToolRunner.run(new Search(), args);
@@ -45,16 +68,56 @@ public class Search extends Configured implements Tool {
 		Job job = Job.getInstance(getConf(), " Search ");
 		// passed user queries in array format to configuration.
 		job.getConfiguration().setStrings("userQuery", args);
+		// look up the query terms in the index dictionary instead of a scan
+		String[] terms = new String[Math.max(0, args.length - 2)];
+		System.arraycopy(args, 2, terms, 0, terms.length);
+		job.getConfiguration().setStrings(InvertedIndexInputFormat.TERMS,
+				terms);
 		job.setJarByClass(this.getClass());
 		FileInputFormat.addInputPaths(job, args[0]);
 		FileOutputFormat.setOutputPath(job, new Path(args[1]));
+		job.setInputFormatClass(InvertedIndexInputFormat.class);
 		job.setMapperClass(Map.class);
 		job.setReducerClass(Reduce.class);
-		job.setOutputKeyClass(Text.class);
+		job.setOutputKeyClass(IntWritable.class);
 		job.setOutputValueClass(DoubleWritable.class);
+		job.setOutputFormatClass(SequenceFileOutputFormat.class);
+		StageCompression.configureSequenceFile(job);
+		configureCosine(job.getConfiguration(), args[0]);
+
+		boolean success = JobCounters.run(LOG, job);
+		org.apache.hadoop.mapreduce.Counters counters = job.getCounters();
+		LOG.info("QUERY TERMS FOUND: "
+				+ counters.findCounter(Counters.MATCHED_TERMS).getValue()
+				+ ", TERMS SKIPPED: "
+				+ counters.findCounter(Counters.SKIPPED_TERMS).getValue()
+				+ ", POSTINGS: "
+				+ counters.findCounter(Counters.POSTINGS).getValue()
+				+ ", INVALID WEIGHTS: "
+				+ counters.findCounter(Counters.INVALID_WEIGHTS).getValue()
+				+ ", HITS: " + counters.findCounter(Counters.HITS).getValue());
+		return success ? 0 : 1;
+
+	}
 
-		return job.waitForCompletion(true) ? 0 : 1;
+	/**
+	 * Points the mappers at the norms of the index when cosine scores are
+	 * asked for
+	 */
+	static void configureCosine(Configuration conf, String index) {
+		if (conf.getBoolean(COSINE, false)) {
+			// the norms of several indexes cannot be combined
+			conf.set(NORMS_INDEX, index.split(",")[0]);
+		}
+	}
 
+	/**
+	 * Loads the norms the mappers divide the weights by, or returns null for
+	 * plain sums
+	 */
+	static float[] loadNorms(Configuration conf) throws IOException {
+		String index = conf.get(NORMS_INDEX);
+		return index == null ? null : DocumentNorms.load(conf, new Path(index));
 	}
 
 	/**
@@ -62,9 +125,13 @@ public class Search extends Configured implements Tool {
 	 * This map class list of documents with scores that best matches the query
 	 */
 	public static class Map extends
-			Mapper<LongWritable, Text, Text, DoubleWritable> {
+			Mapper<Text, PostingsWritable, IntWritable, DoubleWritable> {
 
-		Set<String> keysToSearch;
+		Set<Text> keysToSearch;
+		List<String> patterns;
+		private final IntWritable docId = new IntWritable();
+		private final DoubleWritable tfidf = new DoubleWritable();
+		private float[] norms;
 
 		/**
 		 * Initial setup to assign the user query tokens to set 
@@ -74,29 +141,57 @@ public class Search extends Configured implements Tool {
 				InterruptedException {
 			String[] userQuery = context.getConfiguration().getStrings(
 					"userQuery");
-			keysToSearch = new HashSet<String>();
+			keysToSearch = new HashSet<Text>();
+			patterns = new ArrayList<String>();
 			if (userQuery != null) {
 				for (int i = 2; i < userQuery.length; i++) {
-					keysToSearch.add(userQuery[i]);
+					if (TermPattern.isPattern(userQuery[i])) {
+						patterns.add(userQuery[i]);
+					} else {
+						keysToSearch.add(new Text(userQuery[i]));
+					}
 				}
 			}
+			norms = loadNorms(context.getConfiguration());
 		}
 
 		/**
-		 * This method check if the file contains any user specified token
+		 * This method check if the file contains any user specified token.
+		 * Postings whose weight is not a finite number are counted and
+		 * skipped rather than spoiling the score of the document.
 		 */
-		public void map(LongWritable offset, Text lineText, Context context)
+		public void map(Text word, PostingsWritable postings, Context context)
 				throws IOException, InterruptedException {
+			if (!keysToSearch.contains(word) && !matchesPattern(word)) {
+				context.getCounter(Counters.SKIPPED_TERMS).increment(1);
+				return;
+			}
+			context.getCounter(Counters.MATCHED_TERMS).increment(1);
+			context.getCounter(Counters.POSTINGS).increment(postings.size());
+			for (int i = 0; i < postings.size(); i++) {
+				double weight = postings.getWeight(i);
+				if (Double.isNaN(weight) || Double.isInfinite(weight)) {
+					context.getCounter(Counters.INVALID_WEIGHTS).increment(1);
+					continue;
+				}
+				docId.set(postings.getDoc(i));
+				tfidf.set(norms == null ? weight : DocumentNorms.cosine(weight,
+						norms, postings.getDoc(i)));
+				context.write(docId, tfidf);
+			}
+		}
 
-			String line = lineText.toString();
-			String words[] = line.split(delimeter);
-			if (words.length == 2) {
-				if (keysToSearch.contains(words[0])) {
-					String list[] = words[1].split("\t");
-					context.write(new Text(list[0]),
-							new DoubleWritable(Double.valueOf(list[1])));
+		private boolean matchesPattern(Text word) {
+			if (patterns.isEmpty()) {
+				return false;
+			}
+			String term = word.toString();
+			for (String pattern : patterns) {
+				if (TermPattern.matches(pattern, term)) {
+					return true;
 				}
 			}
+			return false;
 		}
 	}
 
@@ -106,23 +201,24 @@ public class Search extends Configured implements Tool {
 	 *
 	 */
 	public static class Reduce extends
-			Reducer<Text, DoubleWritable, Text, DoubleWritable> {
+			Reducer<IntWritable, DoubleWritable, IntWritable, DoubleWritable> {
 		/**
 		 * This function is used to write the score for each file based on the user provided search string
-		 * @param filename
+		 * @param docId
 		 * @param counts
 		 * @param context
 		 * @throws IOException
 		 * @throws InterruptedException
 		 */
 		@Override
-		public void reduce(Text filename, Iterable<DoubleWritable> counts,
+		public void reduce(IntWritable docId, Iterable<DoubleWritable> counts,
 				Context context) throws IOException, InterruptedException {
 			double sum = 0;
 			for (DoubleWritable count : counts) {
 				sum += count.get();
 			}
-			context.write(filename, new DoubleWritable(sum));
+			context.getCounter(Counters.HITS).increment(1);
+			context.write(docId, new DoubleWritable(sum));
 		}
 	}
 
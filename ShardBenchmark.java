@@ -0,0 +1,141 @@
+package org.myorg;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class measures how query latency changes with the number of
+ *         shards. It is given the same corpus indexed several times, for
+ *         example in one piece and with -Dindex.shards=2, 4 and 8, and opens
+ *         each index in turn with a ShardedQueryEngine. Every query of the
+ *         file is run once to warm up and checked to return the same
+ *         documents with bit for bit the same scores as on the first index;
+ *         then the given number of rounds is timed from the given number of
+ *         client threads, and the p50, p99 and maximum latency, the
+ *         throughput and the postings visited per query are reported for
+ *         every index.
+ *
+ *         The result cache would answer every timed query after the first
+ *         round, so it is turned off unless -Dquery.cache.results is given.
+ *
+ *         Usage: ShardBenchmark [-Ddocids.table=<local table dir>] <query
+ *         file> <clients> <rounds> <k> <local index dir>...
+ */
+public class ShardBenchmark extends Configured implements Tool {
+
+	private static final Logger LOG = Logger.getLogger(ShardBenchmark.class);
+
+	public static void main(String[] args) throws Exception {
+		int res = ToolRunner.run(new ShardBenchmark(), args);
+		System.exit(res);
+	}
+
+	public int run(String[] args) throws Exception {
+		List<String> queries = QueryBenchmark.readQueries(new File(args[0]));
+		int clients = Integer.parseInt(args[1]);
+		int rounds = Integer.parseInt(args[2]);
+		int k = Integer.parseInt(args[3]);
+		Configuration conf = new Configuration(getConf());
+		conf.setIfUnset(QueryEngine.CACHE_RESULTS, "0");
+		String[] names = DocumentIds.loadNames(conf);
+
+		List<List<QueryEngine.Result>> reference = null;
+		boolean identical = true;
+		for (int i = 4; i < args.length; i++) {
+			ShardedQueryEngine engine = new ShardedQueryEngine(new File(
+					args[i]), names, conf);
+			try {
+				List<List<QueryEngine.Result>> results = new ArrayList<List<QueryEngine.Result>>();
+				for (String query : queries) {
+					results.add(engine.search(query, k));
+				}
+				int same = 0;
+				if (reference == null) {
+					reference = results;
+					same = queries.size();
+				} else {
+					for (int q = 0; q < queries.size(); q++) {
+						if (QueryBenchmark.same(reference.get(q),
+								results.get(q))) {
+							same++;
+						} else {
+							LOG.error("Results of " + args[i]
+									+ " differ for the query " + queries.get(q));
+						}
+					}
+				}
+				identical &= same == queries.size();
+				System.out.println(args[i] + ": " + engine.getShards()
+						+ " shards, identical to " + args[4] + ": " + same
+						+ " of " + queries.size() + " queries");
+				measure(engine, queries, clients, rounds, k);
+			} finally {
+				engine.close();
+			}
+		}
+		return identical ? 0 : 1;
+	}
+
+	/**
+	 * Times rounds of the queries from several client threads and prints the
+	 * latency, the throughput and the postings visited
+	 */
+	private static void measure(final ShardedQueryEngine engine,
+			final List<String> queries, int clients, int rounds, final int k)
+			throws InterruptedException {
+		final int total = queries.size() * rounds;
+		final long[] latencies = new long[total];
+		final AtomicInteger next = new AtomicInteger();
+		long visited = engine.getPostingsVisited();
+		ExecutorService pool = Executors.newFixedThreadPool(clients);
+		long start = System.nanoTime();
+		for (int t = 0; t < clients; t++) {
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					int i;
+					while ((i = next.getAndIncrement()) < total) {
+						long begin = System.nanoTime();
+						try {
+							engine.search(queries.get(i % queries.size()), k);
+						} catch (Exception e) {
+							LOG.error("Query failed", e);
+						}
+						latencies[i] = System.nanoTime() - begin;
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		long elapsed = System.nanoTime() - start;
+		visited = engine.getPostingsVisited() - visited;
+
+		Arrays.sort(latencies);
+		System.out.println("  queries: " + total + ", clients: " + clients
+				+ ", p50: "
+				+ QueryBenchmark.micros(QueryBenchmark.percentile(latencies, 0.50))
+				+ " us, p99: "
+				+ QueryBenchmark.micros(QueryBenchmark.percentile(latencies, 0.99))
+				+ " us, max: " + QueryBenchmark.micros(latencies[total - 1])
+				+ " us, throughput: "
+				+ String.format("%.0f", total / (elapsed / 1e9))
+				+ " queries/s, postings visited per query: "
+				+ String.format("%.1f", (double) visited / total));
+	}
+}
@@ -0,0 +1,141 @@
+package org.myorg;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This output format writes the TF-IDF index as index.shards shards
+ *         partitioned by document: document d goes to shard d mod the number
+ *         of shards, and each shard is an ordinary index directory,
+ *         shard-NNNNN, holding part-r-NNNNN.terms and part-r-NNNNN.postings
+ *         for every reducer. The weights are computed before the postings
+ *         are split, from the document frequency over the whole corpus, so a
+ *         document has the same scores in its shard as in an index written
+ *         in one piece, and the document ids stay those of the id table.
+ *
+ *         Every reducer writes a partition in every shard, empty if need be,
+ *         so each shard can be opened on its own.
+ */
+public class ShardedIndexOutputFormat extends
+		FileOutputFormat<TermDocWritable, DoubleWritable> {
+
+	/** Configuration key for the number of document shards, 1 by default */
+	public static final String SHARDS = "index.shards";
+	public static final String SHARD_PREFIX = "shard-";
+
+	@Override
+	public RecordWriter<TermDocWritable, DoubleWritable> getRecordWriter(
+			TaskAttemptContext context) throws IOException,
+			InterruptedException {
+		Path terms = getDefaultWorkFile(context, InvertedIndexOutputFormat.TERMS);
+		String name = terms.getName();
+		return create(terms.getFileSystem(context.getConfiguration()),
+				terms.getParent(), name.substring(0, name.length()
+						- InvertedIndexOutputFormat.TERMS.length()), context
+						.getConfiguration().getInt(SHARDS, 1));
+	}
+
+	/**
+	 * Opens the dictionary and postings files of one partition in every
+	 * shard directory under dir
+	 *
+	 * @param name
+	 *            : name of the partition files without their extension
+	 */
+	static ShardRecordWriter create(FileSystem fs, Path dir, String name,
+			int shards) throws IOException {
+		InvertedIndexOutputFormat.IndexRecordWriter[] writers = new InvertedIndexOutputFormat.IndexRecordWriter[shards];
+		for (int i = 0; i < shards; i++) {
+			Path shard = new Path(dir, shardName(i));
+			writers[i] = new InvertedIndexOutputFormat.IndexRecordWriter(
+					fs.create(new Path(shard, name
+							+ InvertedIndexOutputFormat.POSTINGS), false),
+					fs.create(new Path(shard, name
+							+ InvertedIndexOutputFormat.TERMS), false));
+		}
+		return new ShardRecordWriter(writers);
+	}
+
+	public static String shardName(int shard) {
+		return String.format("%s%05d", SHARD_PREFIX, shard);
+	}
+
+	/**
+	 * Returns the shard holding a document
+	 */
+	public static int shard(int doc, int shards) {
+		return doc % shards;
+	}
+
+	/**
+	 * Returns the shard directories of a sharded index in shard order, or
+	 * none if the index is not sharded
+	 */
+	public static List<Path> listShards(Configuration conf, Path dir)
+			throws IOException {
+		FileSystem fs = dir.getFileSystem(conf);
+		List<Path> shards = new ArrayList<Path>();
+		for (FileStatus status : fs.listStatus(dir)) {
+			if (isShard(status)) {
+				shards.add(status.getPath());
+			}
+		}
+		// the names are zero padded
+		Collections.sort(shards, new Comparator<Path>() {
+			@Override
+			public int compare(Path a, Path b) {
+				return a.getName().compareTo(b.getName());
+			}
+		});
+		return shards;
+	}
+
+	static boolean isShard(FileStatus status) {
+		return status.isDirectory()
+				&& status.getPath().getName().startsWith(SHARD_PREFIX);
+	}
+
+	/**
+	 *
+	 * This record writer sends every posting to the record writer of its
+	 * shard. The postings of a term arrive in document order, so each shard
+	 * receives them in order as well.
+	 *
+	 */
+	static class ShardRecordWriter extends
+			RecordWriter<TermDocWritable, DoubleWritable> {
+		private final InvertedIndexOutputFormat.IndexRecordWriter[] writers;
+
+		ShardRecordWriter(InvertedIndexOutputFormat.IndexRecordWriter[] writers) {
+			this.writers = writers;
+		}
+
+		@Override
+		public void write(TermDocWritable key, DoubleWritable value)
+				throws IOException {
+			writers[shard(key.getDoc(), writers.length)].write(key, value);
+		}
+
+		@Override
+		public void close(TaskAttemptContext context) throws IOException {
+			for (InvertedIndexOutputFormat.IndexRecordWriter writer : writers) {
+				writer.close(context);
+			}
+		}
+	}
+}
@@ -0,0 +1,264 @@
+package org.myorg;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class answers queries over a local copy of an index written
+ *         with index.shards, holding one QueryEngine per shard in the same
+ *         process. Each query is parsed once and sent to every shard at once:
+ *         the calling thread searches the first shard and a thread pool the
+ *         others. Every shard returns its own top k, and the coordinator keeps
+ *         the best k of them the way TopDocs orders them.
+ *
+ *         The shards hold disjoint documents and their weights use the IDF of
+ *         the whole corpus, so a document has the same score in its shard as
+ *         in an index written in one piece. The merged top k is therefore the
+ *         same documents with the same scores as QueryEngine returns for that
+ *         index, ties included, since both break them by document id.
+ *
+ *         A directory without shards is opened as a single shard, which
+ *         gives the baseline when comparing numbers of shards.
+ *
+ *         The shard engines are configured with the query.* settings of
+ *         QueryEngine, so each has its own caches. Only the top directory of
+ *         the index holds a _SUCCESS file, so after the index is replaced the
+ *         engine must be opened again.
+ *
+ *         Usage: ShardedQueryEngine [-Ddocids.table=<local table dir>]
+ *         [-Dquery.shard.threads=<threads>] <local sharded index dir> [k],
+ *         then one query per line on standard input.
+ */
+public class ShardedQueryEngine extends Configured implements Tool, Closeable {
+
+	private static final Logger LOG = Logger.getLogger(ShardedQueryEngine.class);
+	/** Configuration key for the threads searching the shards */
+	public static final String THREADS = "query.shard.threads";
+
+	private final List<QueryEngine> shards = new ArrayList<QueryEngine>();
+	private ExecutorService pool;
+	private String[] names;
+
+	public ShardedQueryEngine() {
+	}
+
+	/**
+	 * Opens every shard of an index
+	 *
+	 * @param dir
+	 *            : local copy of a sharded index directory, or of an index
+	 *            written in one piece
+	 * @param names
+	 *            : document names by id, or null to report the ids
+	 * @param conf
+	 *            : query.* settings of the shard engines and the threads
+	 */
+	public ShardedQueryEngine(File dir, String[] names, Configuration conf)
+			throws IOException {
+		open(dir, names, conf);
+	}
+
+	private void open(File dir, String[] names, Configuration conf)
+			throws IOException {
+		this.names = names;
+		File[] files = dir.listFiles();
+		if (files == null) {
+			throw new IOException("Cannot list " + dir);
+		}
+		Arrays.sort(files);
+		for (File file : files) {
+			if (file.isDirectory()
+					&& file.getName().startsWith(
+							ShardedIndexOutputFormat.SHARD_PREFIX)) {
+				QueryEngine shard = new QueryEngine(file, names);
+				shard.configure(conf);
+				shards.add(shard);
+			}
+		}
+		if (shards.isEmpty()) {
+			// an index written in one piece is its own only shard
+			QueryEngine shard = new QueryEngine(dir, names);
+			shard.configure(conf);
+			shards.add(shard);
+		}
+		// the calling thread searches the first shard itself
+		int threads = conf.getInt(THREADS, shards.size() - 1);
+		if (shards.size() > 1 && threads > 0) {
+			pool = Executors.newFixedThreadPool(threads);
+		}
+	}
+
+	public int getShards() {
+		return shards.size();
+	}
+
+	/**
+	 * Runs a query on every shard and returns the best k documents
+	 */
+	public List<QueryEngine.Result> search(String query, int k)
+			throws IOException {
+		return search(QueryEngine.parse(query),
+				QueryEngine.parsePhrases(query), k);
+	}
+
+	/**
+	 * Runs a query given as its distinct terms and its phrases on every shard
+	 * and returns the best k documents
+	 */
+	public List<QueryEngine.Result> search(final List<Text> terms,
+			final List<QueryEngine.Phrase> phrases, final int k)
+			throws IOException {
+		List<Future<List<QueryEngine.Result>>> pending = new ArrayList<Future<List<QueryEngine.Result>>>();
+		List<List<QueryEngine.Result>> results = new ArrayList<List<QueryEngine.Result>>();
+		try {
+			for (int i = 1; i < shards.size(); i++) {
+				final QueryEngine shard = shards.get(i);
+				if (pool == null) {
+					results.add(shard.search(terms, phrases, k));
+					continue;
+				}
+				pending.add(pool.submit(new Callable<List<QueryEngine.Result>>() {
+					@Override
+					public List<QueryEngine.Result> call() throws IOException {
+						return shard.search(terms, phrases, k);
+					}
+				}));
+			}
+			results.add(shards.get(0).search(terms, phrases, k));
+			for (Future<List<QueryEngine.Result>> future : pending) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while searching "
+					+ terms);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} finally {
+			// a failed query does not leave work behind on the pool
+			for (Future<List<QueryEngine.Result>> future : pending) {
+				future.cancel(true);
+			}
+		}
+		return merge(results, k);
+	}
+
+	/**
+	 * Returns the best k documents of the shard results
+	 */
+	private List<QueryEngine.Result> merge(
+			List<List<QueryEngine.Result>> results, int k) {
+		TopDocs top = new TopDocs(k);
+		for (List<QueryEngine.Result> shard : results) {
+			for (QueryEngine.Result result : shard) {
+				top.offer(result.doc, result.score);
+			}
+		}
+		int[] docs = new int[top.size()];
+		double[] scores = new double[top.size()];
+		int n = top.drain(docs, scores);
+		List<QueryEngine.Result> merged = new ArrayList<QueryEngine.Result>(n);
+		for (int i = 0; i < n; i++) {
+			merged.add(new QueryEngine.Result(docs[i], names == null ? String
+					.valueOf(docs[i]) : names[docs[i]], scores[i]));
+		}
+		return merged;
+	}
+
+	/**
+	 * Empties the caches of every shard
+	 */
+	public void invalidate() {
+		for (QueryEngine shard : shards) {
+			shard.invalidate();
+		}
+	}
+
+	/**
+	 * Returns the postings decoded by all the shards so far
+	 */
+	public long getPostingsRead() {
+		long read = 0;
+		for (QueryEngine shard : shards) {
+			read += shard.getPostingsRead();
+		}
+		return read;
+	}
+
+	/**
+	 * Returns the postings scored or stepped over by all the shards so far
+	 */
+	public long getPostingsVisited() {
+		long visited = 0;
+		for (QueryEngine shard : shards) {
+			visited += shard.getPostingsVisited();
+		}
+		return visited;
+	}
+
+	@Override
+	public void close() {
+		if (pool != null) {
+			pool.shutdownNow();
+		}
+		for (QueryEngine shard : shards) {
+			shard.close();
+		}
+		shards.clear();
+	}
+
+	public static void main(String[] args) throws Exception {
+		int res = ToolRunner.run(new ShardedQueryEngine(), args);
+		System.exit(res);
+	}
+
+	public int run(String[] args) throws Exception {
+		open(new File(args[0]), DocumentIds.loadNames(getConf()), getConf());
+		int k = args.length > 1 ? Integer.parseInt(args[1])
+				: QueryEngine.DEFAULT_K;
+		LOG.info("Loaded " + shards.size() + " index shards");
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				System.in, "UTF-8"));
+		String query;
+		while ((query = in.readLine()) != null) {
+			if (query.trim().isEmpty()) {
+				continue;
+			}
+			long start = System.nanoTime();
+			List<QueryEngine.Result> results = search(query, k);
+			long micros = (System.nanoTime() - start) / 1000;
+			for (QueryEngine.Result result : results) {
+				System.out.println(result);
+			}
+			System.out.println("# " + results.size() + " results in "
+					+ micros + " us");
+		}
+		close();
+		return 0;
+	}
+}
@@ -0,0 +1,76 @@
+package org.myorg;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class turns on compression for the data passed between the
+ *         stages of the pipeline: the map output of every job, and the
+ *         SequenceFiles one job writes for the next, such as the sums of
+ *         squares the index jobs write for DocumentNorms. The SequenceFiles
+ *         are block compressed so they stay splittable. The codec is set with
+ *         pipeline.compress.codec (default DefaultCodec, which needs no native
+ *         library), and pipeline.compress=false turns compression off. The
+ *         text written at the end of the pipeline is never compressed.
+ */
+public class StageCompression {
+
+	/** Configuration flag that turns compression between stages on or off */
+	public static final String ENABLED = "pipeline.compress";
+	/** Configuration key for the compression codec class */
+	public static final String CODEC = "pipeline.compress.codec";
+
+	private StageCompression() {
+	}
+
+	/**
+	 * Compresses the map output of the job
+	 */
+	public static void configure(Job job) {
+		Configuration conf = job.getConfiguration();
+		if (!conf.getBoolean(ENABLED, true)) {
+			return;
+		}
+		conf.setBoolean(MRJobConfig.MAP_OUTPUT_COMPRESS, true);
+		conf.setClass(MRJobConfig.MAP_OUTPUT_COMPRESS_CODEC, codec(conf),
+				CompressionCodec.class);
+	}
+
+	/**
+	 * Compresses the map output of the job and its SequenceFile output, read
+	 * by the next stage
+	 */
+	public static void configureSequenceFile(Job job) {
+		configure(job);
+		compressSequenceFiles(job);
+	}
+
+	/**
+	 * Compresses the SequenceFiles the job writes, its named outputs too. The
+	 * index output formats do not read these settings, so a job writing an
+	 * index keeps it as it is.
+	 */
+	public static void compressSequenceFiles(Job job) {
+		Configuration conf = job.getConfiguration();
+		if (!conf.getBoolean(ENABLED, true)) {
+			return;
+		}
+		FileOutputFormat.setCompressOutput(job, true);
+		FileOutputFormat.setOutputCompressorClass(job, codec(conf));
+		SequenceFileOutputFormat.setOutputCompressionType(job,
+				SequenceFile.CompressionType.BLOCK);
+	}
+
+	private static Class<? extends CompressionCodec> codec(Configuration conf) {
+		return conf.getClass(CODEC, DefaultCodec.class, CompressionCodec.class);
+	}
+}
@@ -2,23 +2,24 @@ package org.myorg;
 
 import java.io.IOException;
 import java.util.HashMap;
-import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.log4j.Logger;
+import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
-import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
-import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
 import org.myorg.TermFrequency;
 
@@ -27,16 +28,42 @@ import org.myorg.TermFrequency;
  * @author Valentina Palghadmal 
  * 
  *         This class calculates the TF-IDF score for each word in the file.
+ *         The scores are written as an inverted index, one postings list per
+ *         word, through InvertedIndexOutputFormat. With -Dindex.shards=N the
+ *         index is written as N shards partitioned by document through
+ *         ShardedIndexOutputFormat instead; the IDF is still computed over
+ *         the whole corpus.
+ *
+ *         The reducers also write the squared weight of every posting, and
+ *         once the job has succeeded a small job adds these up into the
+ *         document norms of the index (see DocumentNorms) for cosine scoring;
+ *         -Dindex.norms=false leaves them out.
  *
  */
 public class TFIDF extends Configured implements Tool {
 
 	private static final Logger LOG = Logger.getLogger(TFIDF.class);
-	private static String delimeter = "#####";
+
+	/**
+	 * TERMS and POSTINGS count what the reducers wrote, so a word split by a
+	 * PartitionPlan counts once per piece. MAX_TERM_POSTINGS holds the
+	 * longest postings list of each reduce task.
+	 */
+	public static enum Counters {
+		INVALID_RECORDS, TERMS, POSTINGS, MAX_TERM_POSTINGS
+	}
+
+	/** Counter group of the terms by the power of ten of their postings */
+	static final String POSTINGS_GROUP = "TFIDF postings per term";
+	/** Configuration flag for writing the document norms, on by default */
+	public static final String NORMS = "index.norms";
 
 	public static void main(String[] args) throws Exception {
 		// Execute the TermFrequency class
 		int tf = ToolRunner.run(new TermFrequency(), args);
+		if (tf != 0) {
+			System.exit(tf);
+		}
 		// Executing TFIDF class
 		int res = ToolRunner.run(new TFIDF(), args);
 		System.exit(res);
@@ -47,19 +74,11 @@ public class TFIDF extends Configured implements Tool {
 	 */
 	public int run(String[] args) throws Exception {
 
-		// Calculate total number of files
-		int count = 0;
-		FileSystem fs = FileSystem.get(getConf());
-		boolean recursive = false;
-		RemoteIterator<LocatedFileStatus> ri = fs.listFiles(new Path(args[0]),
-				recursive);
-		while (ri.hasNext()) {
-			count++;
-			ri.next();
-		}
+		// Total number of files, as counted by TermFrequency
+		long count = TermFrequency.readDocuments(getConf(), new Path(args[1]));
 		LOG.info("TOTAL NUMBER OF FILES: " + count);
 		// Adding Total number of files are a parameter to configuration
-		Configuration conf = new Configuration();
+		Configuration conf = getConf();
 		conf.set("TotalNoOfFiles", count + "");
 
 		Job job = Job.getInstance(conf, " TFIDF ");
@@ -67,43 +86,181 @@ public class TFIDF extends Configured implements Tool {
 		// The output of TermFrquency class is the input path to TFIDF
 		FileInputFormat.addInputPaths(job, args[1]);
 		FileOutputFormat.setOutputPath(job, new Path(args[2]));
+		job.setInputFormatClass(SequenceFileInputFormat.class);
 		job.setMapperClass(Map2.class);
+		job.setCombinerClass(Combine2.class);
 		job.setReducerClass(Reduce2.class);
-		job.setOutputKeyClass(Text.class);
-		job.setOutputValueClass(Text.class);
+		if (conf.getBoolean(PartitionPlan.ENABLED, false)
+				&& job.getNumReduceTasks() > 1) {
+			// spread the frequent words over several reducers
+			Path plan = new Path(args[2] + "_plan");
+			PartitionPlan.create(job.getConfiguration(), new Path(args[1]),
+					plan, job.getNumReduceTasks());
+			job.setPartitionerClass(PartitionPlan.PlanPartitioner.class);
+		} else {
+			job.setPartitionerClass(TermDocWritable.TermPartitioner.class);
+		}
+		job.setGroupingComparatorClass(TermDocWritable.TermComparator.class);
+		job.setOutputKeyClass(TermDocWritable.class);
+		job.setOutputValueClass(DoubleWritable.class);
+		if (conf.getInt(ShardedIndexOutputFormat.SHARDS, 1) > 1) {
+			job.setOutputFormatClass(ShardedIndexOutputFormat.class);
+		} else {
+			job.setOutputFormatClass(InvertedIndexOutputFormat.class);
+		}
+		StageCompression.configure(job);
+		// Reduce2 only writes norms when asked, as it also runs outside this
+		// job in PipelineBenchmark
+		boolean norms = conf.getBoolean(NORMS, true);
+		job.getConfiguration().setBoolean(NORMS, norms);
+		if (norms) {
+			MultipleOutputs.addNamedOutput(job, DocumentNorms.NAMED_OUTPUT,
+					SequenceFileOutputFormat.class, IntWritable.class,
+					DoubleWritable.class);
+			StageCompression.compressSequenceFiles(job);
+		}
 
-		return job.waitForCompletion(true) ? 0 : 1;
+		boolean success = JobCounters.run(LOG, job);
+		JobCounters.logShuffle(LOG, job);
+		JobCounters.logReduceBalance(LOG, job);
+		logPostings(job);
+		if (success) {
+			if (norms) {
+				DocumentNorms.aggregate(conf, new Path(args[2]));
+			}
+			IndexStats.logSize(LOG, conf, new Path(args[2]));
+		}
+		return success ? 0 : 1;
+
+	}
 
+	/**
+	 * Logs the records skipped by the mappers and the number of postings per
+	 * term of the index
+	 */
+	private static void logPostings(Job job) throws IOException,
+			InterruptedException {
+		org.apache.hadoop.mapreduce.Counters counters = job.getCounters();
+		long terms = counters.findCounter(Counters.TERMS).getValue();
+		long postings = counters.findCounter(Counters.POSTINGS).getValue();
+		LOG.info("INVALID RECORDS: "
+				+ counters.findCounter(Counters.INVALID_RECORDS).getValue());
+		LOG.info("TERMS: " + terms + ", POSTINGS: " + postings
+				+ ", POSTINGS PER TERM: mean "
+				+ (terms == 0 ? 0 : (double) postings / terms) + " max "
+				+ JobCounters.maxOverReducers(job, Counters.MAX_TERM_POSTINGS));
+		for (Counter bucket : counters.getGroup(POSTINGS_GROUP)) {
+			LOG.info("TERMS WITH " + bucket.getName() + " POSTINGS: "
+					+ bucket.getValue());
+		}
 	}
 
+	/**
+	 * Document id of the count records, which sort ahead of every real
+	 * document of their word. A word split over several reducers by a
+	 * PartitionPlan has one count record per piece, with id -(piece + 1).
+	 */
+	static final int DF_DOC = -1;
+
 	/**
 	 * 
-	 * This map class is used to read the contains from the file line by line
-	 * and generate key value pairs where key -> Text(word) value ->
-	 * filename=term frequency
+	 * This map class is used to read the output of TermFrequency record by
+	 * record and generate key value pairs where key -> TermDocWritable(word,
+	 * document id) value -> DoubleWritable(term frequency). For every record
+	 * it also writes a count record (word, DF_DOC) 1. The job partitions and
+	 * groups on the word only, so each reduce call sees the count records of
+	 * a word first and then all its files sorted by document id.
 	 */
-	public static class Map2 extends Mapper<LongWritable, Text, Text, Text> {
+	public static class Map2 extends
+			Mapper<TermDocWritable, DoubleWritable, TermDocWritable, DoubleWritable> {
+		private final static DoubleWritable one = new DoubleWritable(1);
+		private final TermDocWritable count = new TermDocWritable();
+		private PartitionPlan plan;
+		// document frequencies of the split words, sent to every piece
+		private final HashMap<Text, long[]> splitCounts = new HashMap<Text, long[]>();
+
+		@Override
+		public void setup(Context context) throws IOException,
+				InterruptedException {
+			plan = PartitionPlan.load(context.getConfiguration());
+		}
+
 		/**
 		 * This method is used the read the inputs & generate key value pairs.
 		 * The output of TermFrquency class is the input to the mapper
 		 * 
-		 * @param offset
-		 *            : LongWritable
-		 * @param lineText
-		 *            : Text
+		 * @param wordFile
+		 *            : TermDocWritable
+		 * @param termFrequency
+		 *            : DoubleWritable
 		 * @param context
 		 * @throws IOException
 		 * @throws InterruptedException
 		 */
-		public void map(LongWritable offset, Text lineText, Context context)
-				throws IOException, InterruptedException {
-
-			String line = lineText.toString().toLowerCase();
-			String words[] = line.split(delimeter);
-			if (words.length == 2) {
-				String list[] = words[1].split("\t");
-				Text value = new Text(list[0] + "=" + list[1]);
-				context.write(new Text(words[0]), value);
+		public void map(TermDocWritable wordFile, DoubleWritable termFrequency,
+				Context context) throws IOException, InterruptedException {
+			double tf = termFrequency.get();
+			// a record the reducer cannot weigh would spoil the whole term
+			if (wordFile.getDoc() < 0 || Double.isNaN(tf)
+					|| Double.isInfinite(tf) || tf <= 0) {
+				context.getCounter(Counters.INVALID_RECORDS).increment(1);
+				return;
+			}
+			context.write(wordFile, termFrequency);
+			if (plan != null && plan.getPieces(wordFile.getTerm()) > 1) {
+				long[] df = splitCounts.get(wordFile.getTerm());
+				if (df == null) {
+					df = new long[1];
+					splitCounts.put(new Text(wordFile.getTerm()), df);
+				}
+				df[0]++;
+			} else {
+				count.set(wordFile.getTerm(), DF_DOC);
+				context.write(count, one);
+			}
+		}
+
+		/**
+		 * Writes the count of every split word once for each of its pieces
+		 */
+		@Override
+		public void cleanup(Context context) throws IOException,
+				InterruptedException {
+			DoubleWritable df = new DoubleWritable();
+			for (java.util.Map.Entry<Text, long[]> entry : splitCounts
+					.entrySet()) {
+				df.set(entry.getValue()[0]);
+				for (int piece = 0; piece < plan.getPieces(entry.getKey()); piece++) {
+					count.set(entry.getKey(), -(piece + 1));
+					context.write(count, df);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * This combiner class adds up the count records of a word before the
+	 * shuffle and passes the term frequencies through
+	 *
+	 */
+	public static class Combine2 extends
+			Reducer<TermDocWritable, DoubleWritable, TermDocWritable, DoubleWritable> {
+		@Override
+		public void reduce(TermDocWritable word, Iterable<DoubleWritable> values,
+				Context context) throws IOException, InterruptedException {
+			// the combiner groups on the whole key, so a call holds either
+			// count records or the term frequency of one file
+			if (word.getDoc() < 0) {
+				double df = 0;
+				for (DoubleWritable value : values) {
+					df += value.get();
+				}
+				context.write(word, new DoubleWritable(df));
+			} else {
+				for (DoubleWritable value : values) {
+					context.write(word, value);
+				}
 			}
 		}
 	}
@@ -111,44 +268,108 @@ public class TFIDF extends Configured implements Tool {
 	/**
 	 * 
 	 * This reducer class takes the input from the mapper and generates output
-	 * as word#####filename TFIDF
+	 * as (word, document id) TFIDF, in document id order within each word.
+	 * The document frequency arrives ahead of the term frequencies, so they
+	 * are written as they are read and a word with any number of files needs
+	 * no more memory than one with a single file. With index.norms the
+	 * squared weights are also summed per document in a bounded table
+	 * written to the norms output, to be added up once the job is done.
 	 *
 	 */
-	public static class Reduce2 extends Reducer<Text, Text, Text, Text> {
+	public static class Reduce2 extends
+			Reducer<TermDocWritable, DoubleWritable, TermDocWritable, DoubleWritable> {
+		private double totalNoOfFiles;
+		private final DoubleWritable tfidf = new DoubleWritable();
+		private long maxPostings;
+		// the norms output, if norms are written
+		private MultipleOutputs<TermDocWritable, DoubleWritable> outputs;
+		private DocumentNorms.PartialSums squares;
+
+		/**
+		 * Getting Total number of files from configuration.
+		 */
+		@Override
+		public void setup(Context context) throws IOException,
+				InterruptedException {
+			totalNoOfFiles = Double.valueOf(context.getConfiguration().get(
+					"TotalNoOfFiles"));
+			if (context.getConfiguration().getBoolean(NORMS, false)) {
+				outputs = new MultipleOutputs<TermDocWritable, DoubleWritable>(
+						context);
+				squares = new DocumentNorms.PartialSums(
+						context.getConfiguration(), outputs,
+						DocumentNorms.PARTIAL_DIR + "/part");
+			}
+		}
+
 		/**
 		 * This method takes the input from the map class and displays the TF-IDF
 		 * of each word in a file
 		 * 
 		 * @param word
-		 *            : Text format
+		 *            : TermDocWritable, the document id changes with each value
 		 * @param counts
-		 *            : Iterable<Text>
+		 *            : Iterable<DoubleWritable>, the count records first
 		 * @param context
 		 * @throws IOException
 		 * @throws InterruptedException
 		 */
 		@Override
-		public void reduce(Text word, Iterable<Text> counts, Context context)
-				throws IOException, InterruptedException {
-			// Getting Total number of files from configuration.
-			Configuration conf = context.getConfiguration();
-			double totalNoOfFiles = Double.valueOf(conf.get("TotalNoOfFiles"));
-			Map<String, Double> map = new HashMap<String, Double>();
-			int fileCounts = 0;
-			for (Text value : counts) {
-				fileCounts++;
-				map.put(value.toString().split("=")[0],
-						Double.valueOf(value.toString().split("=")[1]));
+		public void reduce(TermDocWritable word, Iterable<DoubleWritable> counts,
+				Context context) throws IOException, InterruptedException {
+			double fileCounts = 0;
+			double termIDF = Double.NaN;
+			long postings = 0;
+			for (DoubleWritable value : counts) {
+				// the key is updated to the current document by the framework
+				if (word.getDoc() < 0) {
+					fileCounts += value.get();
+					continue;
+				}
+				if (Double.isNaN(termIDF)) {
+					// Calculating IDF value
+					termIDF = Math.log10(1 + (totalNoOfFiles / fileCounts));
+				}
+				//calculating TFIDF score
+				tfidf.set(termIDF * value.get());
+				context.write(word, tfidf);
+				if (squares != null) {
+					squares.add(word.getDoc(), tfidf.get());
+				}
+				postings++;
+			}
+			if (postings > 0) {
+				context.getCounter(Counters.TERMS).increment(1);
+				context.getCounter(Counters.POSTINGS).increment(postings);
+				context.getCounter(POSTINGS_GROUP, bucket(postings))
+						.increment(1);
+				maxPostings = Math.max(maxPostings, postings);
+			}
+		}
 
+		/**
+		 * Returns the name of the counter of the terms with at most 10^k
+		 * postings, for the smallest such k; the names sort in that order
+		 */
+		static String bucket(long postings) {
+			int k = 0;
+			for (long limit = 1; limit < postings; limit *= 10) {
+				k++;
 			}
-			// Calculating IDF value
-			double termIDF = Math.log10(1 + (totalNoOfFiles / fileCounts));
-			double tfidf = 0;
-			for (String key : map.keySet()) {
-				//calculating TFIDF score
-				tfidf = termIDF * map.get(key);
-				context.write(new Text(word + delimeter + key),	new Text(String.valueOf(tfidf)));
+			return "AT MOST 1e" + k;
+		}
 
+		/**
+		 * Adds the longest postings list of this task to MAX_TERM_POSTINGS
+		 */
+		@Override
+		public void cleanup(Context context) throws IOException,
+				InterruptedException {
+			context.getCounter(Counters.MAX_TERM_POSTINGS)
+					.increment(maxPostings);
+			if (outputs != null) {
+				squares.flush();
+				outputs.close();
 			}
 		}
 	}
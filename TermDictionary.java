@@ -0,0 +1,395 @@
+package org.myorg;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Seekable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class reads and writes the sorted term dictionary of an index
+ *         partition. Every entry holds the term, its document frequency, the
+ *         offset of its postings list and the largest weight in that list,
+ *         which bounds what the term can add to the score of any document
+ *         (0 in the positional index, whose postings have no weights). The
+ *         entries are grouped in blocks of
+ *         BLOCK_SIZE terms, and a trailer at the end of the file lists the
+ *         first term and file offset of every block so that a reader can
+ *         binary search the blocks and seek straight to a term.
+ *
+ *         The terms are front coded: an entry only holds the bytes of its term
+ *         that follow the prefix it shares with the term before it, and the
+ *         first entry of every block holds its whole term, so that a block can
+ *         be decoded without the ones before it. The block index keeps the
+ *         first terms packed in one byte array, about (first term length +
+ *         12) / BLOCK_SIZE bytes of heap per term, while the entries stay in
+ *         the file, or in the mapped buffer of QueryEngine.
+ *
+ *         File layout: entries (vint shared prefix length, vint suffix length,
+ *         suffix bytes, vint df, vlong offset, double largest weight),
+ *         trailer (vint blocks, blocks x (first term, vlong offset), vlong
+ *         terms), long trailer offset.
+ */
+public class TermDictionary {
+
+	public static final int BLOCK_SIZE = 64;
+
+	private TermDictionary() {
+	}
+
+	/**
+	 *
+	 * One dictionary entry
+	 *
+	 */
+	public static class Entry {
+		public final Text term = new Text();
+		public int df;
+		public long offset;
+		public double maxWeight;
+		private byte[] bytes = new byte[32];
+
+		/**
+		 * Writes the entry with its term front coded against the previous
+		 * term, or whole if previous is null
+		 */
+		public void write(DataOutput out, Text previous) throws IOException {
+			int shared = previous == null ? 0 : sharedPrefix(previous, term);
+			WritableUtils.writeVInt(out, shared);
+			WritableUtils.writeVInt(out, term.getLength() - shared);
+			out.write(term.getBytes(), shared, term.getLength() - shared);
+			WritableUtils.writeVInt(out, df);
+			WritableUtils.writeVLong(out, offset);
+			out.writeDouble(maxWeight);
+		}
+
+		/**
+		 * Reads the next entry. The term read last by this entry is the
+		 * previous term its prefix is taken from, so the entries must be read
+		 * in order from the start of a block.
+		 */
+		public void readFields(DataInput in) throws IOException {
+			int shared = WritableUtils.readVInt(in);
+			int suffix = WritableUtils.readVInt(in);
+			if (shared > term.getLength() || suffix < 0) {
+				throw new IOException("Corrupt dictionary entry after "
+						+ term);
+			}
+			if (bytes.length < shared + suffix) {
+				bytes = new byte[Math.max(shared + suffix, bytes.length * 2)];
+			}
+			System.arraycopy(term.getBytes(), 0, bytes, 0, shared);
+			in.readFully(bytes, shared, suffix);
+			term.set(bytes, 0, shared + suffix);
+			df = WritableUtils.readVInt(in);
+			offset = WritableUtils.readVLong(in);
+			maxWeight = in.readDouble();
+		}
+
+		/**
+		 * Copies another entry
+		 */
+		public void set(Entry other) {
+			term.set(other.term);
+			df = other.df;
+			offset = other.offset;
+			maxWeight = other.maxWeight;
+		}
+	}
+
+	/**
+	 * Returns the number of leading bytes two terms share
+	 */
+	static int sharedPrefix(Text a, Text b) {
+		int n = Math.min(a.getLength(), b.getLength());
+		byte[] x = a.getBytes();
+		byte[] y = b.getBytes();
+		int i = 0;
+		while (i < n && x[i] == y[i]) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 *
+	 * This class appends entries in term order and writes the block trailer
+	 * on close
+	 *
+	 */
+	public static class Writer implements Closeable {
+		private final FSDataOutputStream out;
+		private final List<Text> firstTerms = new ArrayList<Text>();
+		private final List<Long> blockOffsets = new ArrayList<Long>();
+		private final Text previous = new Text();
+		private long terms;
+
+		public Writer(FSDataOutputStream out) {
+			this.out = out;
+		}
+
+		public void add(Entry entry) throws IOException {
+			boolean first = terms % BLOCK_SIZE == 0;
+			if (first) {
+				firstTerms.add(new Text(entry.term));
+				blockOffsets.add(out.getPos());
+			}
+			entry.write(out, first ? null : previous);
+			previous.set(entry.term);
+			terms++;
+		}
+
+		public long getTerms() {
+			return terms;
+		}
+
+		@Override
+		public void close() throws IOException {
+			long trailer = out.getPos();
+			WritableUtils.writeVInt(out, firstTerms.size());
+			for (int i = 0; i < firstTerms.size(); i++) {
+				firstTerms.get(i).write(out);
+				WritableUtils.writeVLong(out, blockOffsets.get(i));
+			}
+			WritableUtils.writeVLong(out, terms);
+			out.writeLong(trailer);
+			out.close();
+		}
+	}
+
+	/**
+	 *
+	 * The block trailer of a dictionary file. It is read once and can then be
+	 * shared by any number of readers of the same file.
+	 *
+	 */
+	public static class BlockIndex {
+		// first term of block i is firstTerms[starts[i] .. starts[i + 1] - 1]
+		private final byte[] firstTerms;
+		private final int[] starts;
+		private final long[] blockOffsets;
+		private final long trailer;
+		private final long terms;
+
+		public <S extends DataInput & Seekable> BlockIndex(S in, long length)
+				throws IOException {
+			in.seek(length - 8);
+			trailer = in.readLong();
+			in.seek(trailer);
+			int blocks = WritableUtils.readVInt(in);
+			starts = new int[blocks + 1];
+			blockOffsets = new long[blocks];
+			Text term = new Text();
+			byte[] packed = new byte[blocks * 8];
+			for (int i = 0; i < blocks; i++) {
+				term.readFields(in);
+				if (packed.length < starts[i] + term.getLength()) {
+					packed = Arrays.copyOf(packed, Math.max(starts[i]
+							+ term.getLength(), packed.length * 2));
+				}
+				System.arraycopy(term.getBytes(), 0, packed, starts[i],
+						term.getLength());
+				starts[i + 1] = starts[i] + term.getLength();
+				blockOffsets[i] = WritableUtils.readVLong(in);
+			}
+			firstTerms = Arrays.copyOf(packed, starts[blocks]);
+			terms = WritableUtils.readVLong(in);
+		}
+
+		/**
+		 * Returns the bytes of heap the block index takes, without the
+		 * object headers
+		 */
+		public long getHeapBytes() {
+			return firstTerms.length + 4L * starts.length + 8L
+					* blockOffsets.length;
+		}
+
+		public long getTerms() {
+			return terms;
+		}
+
+		/**
+		 * Returns the offset where the entries end
+		 */
+		public long getEnd() {
+			return trailer;
+		}
+
+		/**
+		 * Looks up a term
+		 *
+		 * @param in
+		 *            : the dictionary file, positioned anywhere
+		 * @param term
+		 * @param entry
+		 *            : filled with the entry of the term when found
+		 * @return true if the term is in the dictionary
+		 */
+		public <S extends DataInput & Seekable> boolean seek(S in, Text term,
+				Entry entry) throws IOException {
+			int block = findBlock(term);
+			if (block < 0) {
+				return false;
+			}
+			in.seek(blockOffsets[block]);
+			for (int i = 0; i < BLOCK_SIZE && in.getPos() < trailer; i++) {
+				entry.readFields(in);
+				int cmp = entry.term.compareTo(term);
+				if (cmp == 0) {
+					return true;
+				}
+				if (cmp > 0) {
+					break;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Adds the entries of every term matching a pattern, in term order
+		 *
+		 * @param in
+		 *            : the dictionary file, positioned anywhere
+		 * @param pattern
+		 *            : a term holding * or ? wildcards, see TermPattern
+		 * @param result
+		 *            : receives a copy of the entry of each matching term
+		 * @param limit
+		 *            : largest number of entries to add
+		 * @return false if more than limit terms match, in which case the
+		 *         first limit are added
+		 */
+		public <S extends DataInput & Seekable> boolean expand(S in,
+				String pattern, List<Entry> result, int limit)
+				throws IOException {
+			Text prefix = TermPattern.prefix(pattern);
+			if (blockOffsets.length == 0) {
+				return true;
+			}
+			// the matches follow the prefix, which may sort before every block
+			in.seek(blockOffsets[Math.max(0, findBlock(prefix))]);
+			Entry entry = new Entry();
+			int added = 0;
+			while (in.getPos() < trailer) {
+				entry.readFields(in);
+				if (entry.term.compareTo(prefix) < 0) {
+					continue;
+				}
+				if (!TermPattern.startsWith(entry.term, prefix)) {
+					break;
+				}
+				if (TermPattern.matches(pattern, entry.term.toString())) {
+					if (added == limit) {
+						return false;
+					}
+					Entry match = new Entry();
+					match.set(entry);
+					result.add(match);
+					added++;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Returns the index of the last block whose first term is not greater
+		 * than the term, or -1 if the term sorts before every block
+		 */
+		int findBlock(Text term) {
+			int low = 0;
+			int high = blockOffsets.length - 1;
+			int found = -1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (WritableComparator.compareBytes(firstTerms, starts[mid],
+						starts[mid + 1] - starts[mid], term.getBytes(), 0,
+						term.getLength()) <= 0) {
+					found = mid;
+					low = mid + 1;
+				} else {
+					high = mid - 1;
+				}
+			}
+			return found;
+		}
+	}
+
+	/**
+	 *
+	 * This class looks up single terms through the block trailer, or reads the
+	 * entries one after another. Sequential reads must not be mixed with
+	 * lookups.
+	 *
+	 */
+	public static class Reader implements Closeable {
+		private final FSDataInputStream in;
+		private final BlockIndex index;
+
+		public Reader(FSDataInputStream in, long length) throws IOException {
+			this.in = in;
+			this.index = new BlockIndex(in, length);
+			in.seek(0);
+		}
+
+		public long getTerms() {
+			return index.getTerms();
+		}
+
+		public long getHeapBytes() {
+			return index.getHeapBytes();
+		}
+
+		/**
+		 * Reads the next entry in term order
+		 *
+		 * @return false once every entry has been read
+		 */
+		public boolean next(Entry entry) throws IOException {
+			if (in.getPos() >= index.getEnd()) {
+				return false;
+			}
+			entry.readFields(in);
+			return true;
+		}
+
+		/**
+		 * Looks up a term
+		 *
+		 * @param term
+		 * @param entry
+		 *            : filled with the entry of the term when found
+		 * @return true if the term is in the dictionary
+		 */
+		public boolean seek(Text term, Entry entry) throws IOException {
+			return index.seek(in, term, entry);
+		}
+
+		/**
+		 * Adds the entries of every term matching a pattern, see
+		 * BlockIndex.expand
+		 */
+		public boolean expand(String pattern, List<Entry> result, int limit)
+				throws IOException {
+			return index.expand(in, pattern, result, limit);
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+}
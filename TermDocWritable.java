@@ -0,0 +1,196 @@
+package org.myorg;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class is the composite (term, document id) key passed between
+ *         the stages in place of the word#####filename strings. Keys are sorted
+ *         by term and then by document id directly on the serialized bytes.
+ */
+public class TermDocWritable implements WritableComparable<TermDocWritable> {
+
+	private static String delimeter = "#####";
+
+	private final Text term = new Text();
+	private int doc;
+
+	public TermDocWritable() {
+	}
+
+	public TermDocWritable(String term, int doc) {
+		set(term, doc);
+	}
+
+	public void set(String term, int doc) {
+		this.term.set(term);
+		this.doc = doc;
+	}
+
+	public void set(Text term, int doc) {
+		this.term.set(term);
+		this.doc = doc;
+	}
+
+	public void set(TermDocWritable other) {
+		this.term.set(other.term);
+		this.doc = other.doc;
+	}
+
+	public Text getTerm() {
+		return term;
+	}
+
+	public int getDoc() {
+		return doc;
+	}
+
+	public void setDoc(int doc) {
+		this.doc = doc;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		term.write(out);
+		out.writeInt(doc);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		term.readFields(in);
+		doc = in.readInt();
+	}
+
+	@Override
+	public int compareTo(TermDocWritable other) {
+		int cmp = term.compareTo(other.term);
+		if (cmp != 0) {
+			return cmp;
+		}
+		return doc < other.doc ? -1 : (doc == other.doc ? 0 : 1);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof TermDocWritable)) {
+			return false;
+		}
+		TermDocWritable other = (TermDocWritable) o;
+		return doc == other.doc && term.equals(other.term);
+	}
+
+	@Override
+	public int hashCode() {
+		return term.hashCode() * 163 + doc;
+	}
+
+	/**
+	 * Text outputs keep the word#####document layout of the earlier versions
+	 */
+	@Override
+	public String toString() {
+		return term + delimeter + doc;
+	}
+
+	/**
+	 * Returns the length of the serialized Text starting at offset s,
+	 * including its vint length prefix
+	 */
+	private static int textLength(byte[] b, int s) throws IOException {
+		int n = WritableUtils.decodeVIntSize(b[s]);
+		return n + WritableComparator.readVInt(b, s);
+	}
+
+	/**
+	 *
+	 * This comparator sorts the serialized keys by term and then by document
+	 * id without deserializing them
+	 *
+	 */
+	public static class Comparator extends WritableComparator {
+
+		public Comparator() {
+			super(TermDocWritable.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			try {
+				int n1 = WritableUtils.decodeVIntSize(b1[s1]);
+				int n2 = WritableUtils.decodeVIntSize(b2[s2]);
+				int t1 = textLength(b1, s1);
+				int t2 = textLength(b2, s2);
+				int cmp = compareBytes(b1, s1 + n1, t1 - n1, b2, s2 + n2, t2
+						- n2);
+				if (cmp != 0) {
+					return cmp;
+				}
+				int d1 = readInt(b1, s1 + t1);
+				int d2 = readInt(b2, s2 + t2);
+				return d1 < d2 ? -1 : (d1 == d2 ? 0 : 1);
+			} catch (IOException e) {
+				throw new IllegalArgumentException(e);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * This comparator only looks at the term so that one reduce call receives
+	 * every document of a term, sorted by document id
+	 *
+	 */
+	public static class TermComparator extends WritableComparator {
+
+		public TermComparator() {
+			super(TermDocWritable.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			try {
+				int n1 = WritableUtils.decodeVIntSize(b1[s1]);
+				int n2 = WritableUtils.decodeVIntSize(b2[s2]);
+				return compareBytes(b1, s1 + n1, textLength(b1, s1) - n1, b2,
+						s2 + n2, textLength(b2, s2) - n2);
+			} catch (IOException e) {
+				throw new IllegalArgumentException(e);
+			}
+		}
+
+		@Override
+		@SuppressWarnings("rawtypes")
+		public int compare(WritableComparable a, WritableComparable b) {
+			return ((TermDocWritable) a).term
+					.compareTo(((TermDocWritable) b).term);
+		}
+	}
+
+	/**
+	 *
+	 * This partitioner sends all the documents of a term to the same reducer
+	 *
+	 */
+	public static class TermPartitioner<V> extends
+			Partitioner<TermDocWritable, V> {
+		@Override
+		public int getPartition(TermDocWritable key, V value,
+				int numPartitions) {
+			return (key.term.hashCode() & Integer.MAX_VALUE) % numPartitions;
+		}
+	}
+
+	static {
+		WritableComparator.define(TermDocWritable.class, new Comparator());
+	}
+}
@@ -1,8 +1,11 @@
 package org.myorg;
 
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.util.regex.Pattern;
+import java.io.InputStreamReader;
+import java.util.Map.Entry;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
@@ -11,9 +14,11 @@ import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
@@ -23,13 +28,30 @@ import org.apache.hadoop.io.Text;
  * @author Valentina Palghadmal 
  * 
  *         This class contains map reduce code to count the counts the words in
- *         the each file and returns output as word#####filename
- *         logarithmic_TermFrequency of the word.
+ *         the each file and returns output as (word, document id)
+ *         logarithmic_TermFrequency of the word. The output is a SequenceFile
+ *         of TermDocWritable keys and DoubleWritable values read by TFIDF.
+ *         The input directories are read recursively, and the number of
+ *         documents holding at least one word is counted by the job itself
+ *         and saved next to the output in a file named _documents.
  */
 public class TermFrequency extends Configured implements Tool {
 
 	private static final Logger LOG = Logger.getLogger(TermFrequency.class);
 
+	/** Name of the file in the output directory holding the document count */
+	public static final String DOCUMENTS_FILE = "_documents";
+
+	public static enum Counters {
+		DOCUMENTS, TOKENS
+	}
+
+	/**
+	 * The empty word marks that a document was read; the tokenizer never
+	 * returns an empty word
+	 */
+	static final Text DOCUMENT_MARKER = new Text();
+
 	public static void main(String[] args) throws Exception {
 		int res = ToolRunner.run(new TermFrequency(), args);
 		System.exit(res);
@@ -39,34 +61,125 @@ public class TermFrequency extends Configured implements Tool {
 	 * This method is used to execute the map reduce code
 	 */
 	public int run(String[] args) throws Exception {
+		// documents are identified by the ids of the DocIndex table
+		DocIndex.prepare(getConf(), args[0], new Path(args[1] + "_docids"));
 		Job job = Job.getInstance(getConf(), " termFrequency ");
 		job.setJarByClass(this.getClass());
 		FileInputFormat.addInputPaths(job, args[0]);
+		FileInputFormat.setInputDirRecursive(job, true);
 		FileOutputFormat.setOutputPath(job, new Path(args[1]));
+		DocumentInput.configure(job);
 		job.setMapperClass(Map.class);
+		job.setCombinerClass(Combine.class);
 		job.setReducerClass(Reduce.class);
-		job.setOutputKeyClass(Text.class);
+		job.setOutputKeyClass(TermDocWritable.class);
 		job.setOutputValueClass(DoubleWritable.class);
+		job.setOutputFormatClass(SequenceFileOutputFormat.class);
+		StageCompression.configureSequenceFile(job);
 
-		return job.waitForCompletion(true) ? 0 : 1;
+		boolean success = JobCounters.run(LOG, job);
+		JobCounters.logShuffle(LOG, job);
+		if (!success) {
+			return 1;
+		}
+		long documents = job.getCounters().findCounter(Counters.DOCUMENTS)
+				.getValue();
+		long tokens = job.getCounters().findCounter(Counters.TOKENS).getValue();
+		LOG.info("TOTAL NUMBER OF DOCUMENTS: " + documents);
+		LOG.info("TOKENS: " + tokens + ", TOKENS PER DOCUMENT: "
+				+ (documents == 0 ? 0 : (double) tokens / documents));
+		writeDocuments(getConf(), new Path(args[1]), documents);
+		return 0;
+	}
+
+	private static void writeDocuments(Configuration conf, Path output,
+			long documents) throws IOException {
+		Path file = new Path(output, DOCUMENTS_FILE);
+		FSDataOutputStream out = file.getFileSystem(conf).create(file);
+		try {
+			out.write((documents + "\n").getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads the number of documents saved with the output of TermFrequency
+	 *
+	 * @param conf
+	 * @param output
+	 *            : output directory of TermFrequency
+	 * @throws IOException
+	 */
+	public static long readDocuments(Configuration conf, Path output)
+			throws IOException {
+		Path file = new Path(output, DOCUMENTS_FILE);
+		BufferedReader in = new BufferedReader(new InputStreamReader(file
+				.getFileSystem(conf).open(file), "UTF-8"));
+		try {
+			return Long.parseLong(in.readLine().trim());
+		} finally {
+			in.close();
+		}
 	}
 
 	/**
 	 * 
 	 * This map class is used to read the contains from the file line by line
 	 * and generate key value pairs where 
-	 * key -> Text(word#####filename) 
+	 * key -> TermDocWritable(word, document id) 
 	 * value  -> DoubleWritable(1)
+	 * When mapper.aggregation is enabled the counts are summed in a bounded
+	 * table and emitted as partial counts instead.
 	 */
 	public static class Map extends
-			Mapper<LongWritable, Text, Text, DoubleWritable> {
+			Mapper<LongWritable, Text, TermDocWritable, DoubleWritable> {
 		private final static DoubleWritable one = new DoubleWritable(1);
-	
-		private static final Pattern WORD_BOUNDARY = Pattern
-				.compile("\\s*\\b\\s*");
+		private final Tokenizer tokenizer = new Tokenizer(false);
+		private final Text word = new Text();
+		private final TermDocWritable currentWord = new TermDocWritable();
+		private PartialCounts<TermDocWritable> partialCounts;
+		private int docId;
+		private boolean hasWords;
+		private long tokens;
+		// open only when the split holds several documents
+		private DocumentIds ids;
+		private String document;
+
+		/**
+		 * Looks up the id of the file being read once for the whole split.
+		 * When the split holds several documents the id is looked up each
+		 * time the document changes instead.
+		 */
+		@Override
+		public void setup(Context context) throws IOException,
+				InterruptedException {
+			partialCounts = PartialCounts.fromConfiguration(context
+					.getConfiguration());
+			try {
+				if (DocumentInput.hasManyDocuments(context)) {
+					ids = DocumentIds.open(context.getConfiguration());
+					return;
+				}
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			}
+			FileSplit fileSplit = (FileSplit) context.getInputSplit();
+			if (fileSplit.getLength() == 0) {
+				// an empty file has no words, and need not have an id
+				return;
+			}
+			DocumentIds ids = DocumentIds.open(context.getConfiguration());
+			try {
+				docId = ids.getId(fileSplit.getPath());
+			} finally {
+				ids.close();
+			}
+		}
+
 		/**
 		 * This method is used the read the inputs and generate key value pairs
-		 * key -> Text(word#####filename) value -> IntWritable(1)​
+		 * key -> TermDocWritable(word, document id) value -> DoubleWritable(1)
 		 * 
 		 * @param offset
 		 *            : LongWritable
@@ -78,39 +191,111 @@ public class TermFrequency extends Configured implements Tool {
 		 */
 		public void map(LongWritable offset, Text lineText, Context context)
 				throws IOException, InterruptedException {
+			if (ids != null) {
+				String path = DocumentInput.currentDocument(context
+						.getConfiguration());
+				if (!path.equals(document)) {
+					endDocument(context);
+					document = path;
+					docId = ids.getId(path);
+				}
+			}
+			tokenizer.reset(lineText);
+			while (tokenizer.next(word)) {
+				hasWords = true;
+				tokens++;
+				currentWord.set(word, docId);
+				if (partialCounts == null) {
+					context.write(currentWord, one);
+				} else if (!partialCounts.increment(currentWord)) {
+					// the table keeps the key, so it gets a copy
+					TermDocWritable key = new TermDocWritable();
+					key.set(currentWord);
+					if (partialCounts.add(key)) {
+						flush(context);
+					}
+				}
+			}
+		}
 
-			String line = lineText.toString();
-			Text currentWord = new Text();
+		/**
+		 * Emits the remaining partial counts at the end of the task, and
+		 * the marker of the document if it had any word. A document read by
+		 * several map tasks sends one marker from each, which meet in the
+		 * same reduce call.
+		 */
+		@Override
+		public void cleanup(Context context) throws IOException,
+				InterruptedException {
+			if (partialCounts != null) {
+				flush(context);
+			}
+			endDocument(context);
+			context.getCounter(Counters.TOKENS).increment(tokens);
+			if (ids != null) {
+				ids.close();
+			}
+		}
 
-			for (String word : WORD_BOUNDARY.split(line)) {
-				// Ignore if word is empty string
-				if (word.isEmpty()) {
-					continue;
-				}
-				// getting the current file name
-				FileSplit fileSplit = (FileSplit) context.getInputSplit();
-				String filename = fileSplit.getPath().getName();
-				// adding delimiter between word and filename
-				currentWord = new Text((word + "#####" + filename).toLowerCase());
+		/**
+		 * Writes the marker of the current document if it had any word
+		 */
+		private void endDocument(Context context) throws IOException,
+				InterruptedException {
+			if (hasWords) {
+				currentWord.set(DOCUMENT_MARKER, docId);
 				context.write(currentWord, one);
+				hasWords = false;
+			}
+		}
+
+		/**
+		 * Writes the partial counts held by the mapper and empties the table
+		 */
+		private void flush(Context context) throws IOException,
+				InterruptedException {
+			DoubleWritable count = new DoubleWritable();
+			for (Entry<TermDocWritable, int[]> entry : partialCounts.entries()) {
+				count.set(entry.getValue()[0]);
+				context.write(entry.getKey(), count);
 			}
+			partialCounts.clear();
+		}
+	}
+
+	/**
+	 * 
+	 * This combiner class adds up the raw counts of a word in a file. The
+	 * logarithm is only taken in the reducer once the count is complete.
+	 *
+	 */
+	public static class Combine extends
+			Reducer<TermDocWritable, DoubleWritable, TermDocWritable, DoubleWritable> {
+		@Override
+		public void reduce(TermDocWritable word, Iterable<DoubleWritable> counts,
+				Context context) throws IOException, InterruptedException {
+			double sum = 0;
+			for (DoubleWritable count : counts) {
+				sum += count.get();
+			}
+			context.write(word, new DoubleWritable(sum));
 		}
 	}
 
 	/**
 	 * 
 	 * This reducer class takes the input from the mapper and generates output
-	 * as word#####filename logarithmic_TermFrquency
+	 * as (word, document id) logarithmic_TermFrquency
 	 *
 	 */
 	public static class Reduce extends
-			Reducer<Text, DoubleWritable, Text, DoubleWritable> {
+			Reducer<TermDocWritable, DoubleWritable, TermDocWritable, DoubleWritable> {
 		/**
 		 * This method takes the input from the map class and displays the logarithmic Term Frequency
 		 * of each word in a file
 		 * 
 		 * @param word
-		 *            : Text format
+		 *            : TermDocWritable
 		 * @param counts
 		 *            : Iterable<DoubleWritable>
 		 * @param context
@@ -118,8 +303,14 @@ public class TermFrequency extends Configured implements Tool {
 		 * @throws InterruptedException
 		 */
 		@Override
-		public void reduce(Text word, Iterable<DoubleWritable> counts,
+		public void reduce(TermDocWritable word, Iterable<DoubleWritable> counts,
 				Context context) throws IOException, InterruptedException {
+			if (word.getTerm().getLength() == 0) {
+				// a document marker is counted and not written
+				context.getCounter(Counters.DOCUMENTS).increment(1);
+				return;
+			}
+			// The values are raw or combined counts, summed before the log
 			double sum = 0;
 			for (DoubleWritable count : counts) {
 				sum += count.get();
@@ -0,0 +1,90 @@
+package org.myorg;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class matches query terms holding wildcards against the terms
+ *         of the dictionary: * stands for any number of characters and ? for
+ *         exactly one, so comput* matches computer and computing, and
+ *         wom?n matches woman and women. The characters before the first
+ *         wildcard are the prefix every match starts with; the matching terms
+ *         are found by scanning the sorted dictionary from the prefix on, so
+ *         a pattern starting with a wildcard reads the whole dictionary.
+ */
+public class TermPattern {
+
+	private TermPattern() {
+	}
+
+	/**
+	 * Returns true if the term holds a wildcard
+	 */
+	public static boolean isPattern(String term) {
+		return term.indexOf('*') >= 0 || term.indexOf('?') >= 0;
+	}
+
+	/**
+	 * Returns the characters before the first wildcard
+	 */
+	public static Text prefix(String pattern) {
+		int end = 0;
+		while (end < pattern.length() && pattern.charAt(end) != '*'
+				&& pattern.charAt(end) != '?') {
+			end++;
+		}
+		return new Text(pattern.substring(0, end));
+	}
+
+	/**
+	 * Returns true if the term starts with the prefix, comparing the bytes
+	 * as the dictionary sorts them
+	 */
+	public static boolean startsWith(Text term, Text prefix) {
+		if (term.getLength() < prefix.getLength()) {
+			return false;
+		}
+		byte[] a = term.getBytes();
+		byte[] b = prefix.getBytes();
+		for (int i = 0; i < prefix.getLength(); i++) {
+			if (a[i] != b[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if the whole term matches the pattern
+	 */
+	public static boolean matches(String pattern, String term) {
+		// the last * seen, and where the term stood when it was seen
+		int p = 0;
+		int t = 0;
+		int star = -1;
+		int starT = 0;
+		while (t < term.length()) {
+			if (p < pattern.length()
+					&& (pattern.charAt(p) == '?' || pattern.charAt(p) == term
+							.charAt(t))) {
+				p++;
+				t++;
+			} else if (p < pattern.length() && pattern.charAt(p) == '*') {
+				star = p++;
+				starT = t;
+			} else if (star >= 0) {
+				// let the last * take one more character
+				p = star + 1;
+				t = ++starT;
+			} else {
+				return false;
+			}
+		}
+		while (p < pattern.length() && pattern.charAt(p) == '*') {
+			p++;
+		}
+		return p == pattern.length();
+	}
+}
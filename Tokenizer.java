@@ -0,0 +1,158 @@
+package org.myorg;
+
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class splits a line of text into lower case words the way the
+ *         mappers used to with line.split("\\s*\\b\\s*"), but works on the
+ *         UTF-8 bytes of the Text and writes each word into a Text owned by
+ *         the caller, so no String is created per line or per word.
+ *
+ *         The split gives the runs of word characters [A-Za-z0-9_], and keeps
+ *         the non word characters between them as a word of their own with
+ *         the surrounding whitespace removed. A line without any word
+ *         character is a single word. Lines holding non ASCII characters
+ *         still go through the regular expression, since the Unicode rules of
+ *         \b and toLowerCase() are not repeated here.
+ */
+public class Tokenizer {
+
+	static final Pattern WORD_BOUNDARY = Pattern.compile("\\s*\\b\\s*");
+
+	private final boolean lowerCaseLine;
+
+	private byte[] bytes;
+	private int length;
+	private int pos;
+
+	// words of a non ASCII line, split by the regular expression
+	private String[] words;
+	private int next;
+
+	/**
+	 * Creates a tokenizer which lower cases the whole line before splitting
+	 * it, like DocWordCount does
+	 */
+	public Tokenizer() {
+		this(true);
+	}
+
+	/**
+	 * @param lowerCaseLine
+	 *            : true to lower case the line before splitting it, false to
+	 *            lower case every word after the split as TermFrequency does.
+	 *            The two only differ for a few non ASCII characters.
+	 */
+	public Tokenizer(boolean lowerCaseLine) {
+		this.lowerCaseLine = lowerCaseLine;
+	}
+
+	/**
+	 * Starts on a new line. The line must not change until its last word has
+	 * been read.
+	 */
+	public void reset(Text line) {
+		bytes = line.getBytes();
+		length = line.getLength();
+		pos = 0;
+		words = null;
+		for (int i = 0; i < length; i++) {
+			if (bytes[i] < 0) {
+				splitRegex(line.toString());
+				break;
+			}
+		}
+	}
+
+	private void splitRegex(String line) {
+		words = WORD_BOUNDARY.split(lowerCaseLine ? line.toLowerCase() : line);
+		next = 0;
+	}
+
+	/**
+	 * Reads the next word of the line
+	 *
+	 * @param word
+	 *            : set to the lower case word
+	 * @return false at the end of the line
+	 */
+	public boolean next(Text word) {
+		if (words != null) {
+			return nextRegex(word);
+		}
+		while (pos < length) {
+			int start = pos;
+			if (isWordChar(bytes[pos])) {
+				while (pos < length && isWordChar(bytes[pos])) {
+					pos++;
+				}
+				set(word, start, pos);
+				return true;
+			}
+			while (pos < length && !isWordChar(bytes[pos])) {
+				pos++;
+			}
+			int end = pos;
+			boolean first = start == 0;
+			boolean last = end == length;
+			// the regular expression only strips whitespace next to a word
+			if (!first) {
+				while (start < end && isSpace(bytes[start])) {
+					start++;
+				}
+			}
+			if (!last) {
+				while (start < end && isSpace(bytes[end - 1])) {
+					end--;
+				}
+			}
+			if (start < end) {
+				set(word, start, end);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean nextRegex(Text word) {
+		while (next < words.length) {
+			String w = words[next++];
+			if (!w.isEmpty()) {
+				word.set(lowerCaseLine ? w : w.toLowerCase());
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Copies the bytes into the word and folds ASCII upper case letters in
+	 * place
+	 */
+	private void set(Text word, int start, int end) {
+		word.set(bytes, start, end - start);
+		byte[] b = word.getBytes();
+		for (int i = 0; i < end - start; i++) {
+			if (b[i] >= 'A' && b[i] <= 'Z') {
+				b[i] += 'a' - 'A';
+			}
+		}
+	}
+
+	static boolean isWordChar(byte b) {
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')
+				|| (b >= '0' && b <= '9') || b == '_';
+	}
+
+	/**
+	 * The characters matched by \s
+	 */
+	static boolean isSpace(byte b) {
+		return b == ' ' || (b >= '\t' && b <= '\r');
+	}
+}
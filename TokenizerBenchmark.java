@@ -0,0 +1,163 @@
+package org.myorg;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class compares the Tokenizer with the regular expression split
+ *         the mappers used before. It first checks that both give the same
+ *         words for every line of the input, then reports the throughput of
+ *         each on one thread, in MB of text per second per core.
+ *
+ *         Usage: TokenizerBenchmark <local file or directory> [rounds]
+ */
+public class TokenizerBenchmark extends Configured implements Tool {
+
+	public static void main(String[] args) throws Exception {
+		int res = ToolRunner.run(new TokenizerBenchmark(), args);
+		System.exit(res);
+	}
+
+	public int run(String[] args) throws Exception {
+		List<Text> lines = new ArrayList<Text>();
+		long bytes = readLines(new File(args[0]), lines);
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		int mismatches = compare(lines, true) + compare(lines, false);
+		System.out.println("lines: " + lines.size() + ", bytes: " + bytes
+				+ ", mismatched lines: " + mismatches);
+
+		// the first round of each warms up the JIT
+		long sink = 0;
+		sink += regex(lines);
+		sink += tokenizer(lines);
+		long regexNanos = 0;
+		long tokenizerNanos = 0;
+		for (int i = 0; i < rounds; i++) {
+			long start = System.nanoTime();
+			sink += regex(lines);
+			regexNanos += System.nanoTime() - start;
+			start = System.nanoTime();
+			sink += tokenizer(lines);
+			tokenizerNanos += System.nanoTime() - start;
+		}
+		double mb = bytes * (double) rounds / (1024 * 1024);
+		System.out.println(String.format("regex split: %.1f MB/s",
+				mb / (regexNanos / 1e9)));
+		System.out.println(String.format("tokenizer:   %.1f MB/s",
+				mb / (tokenizerNanos / 1e9)));
+		System.out.println("words: " + sink / (rounds + 1) / 2);
+		return mismatches == 0 ? 0 : 1;
+	}
+
+	/**
+	 * Reads the lines of a file, or of every file in a directory, the way
+	 * TextInputFormat splits them
+	 */
+	static long readLines(File file, List<Text> lines) throws IOException {
+		if (file.isDirectory()) {
+			File[] files = file.listFiles();
+			Arrays.sort(files);
+			long bytes = 0;
+			for (File f : files) {
+				bytes += readLines(f, lines);
+			}
+			return bytes;
+		}
+		byte[] b = Files.readAllBytes(file.toPath());
+		int start = 0;
+		for (int i = 0; i <= b.length; i++) {
+			if (i == b.length || b[i] == '\n') {
+				int end = i;
+				if (end > start && b[end - 1] == '\r') {
+					end--;
+				}
+				if (i < b.length || end > start) {
+					Text line = new Text();
+					line.set(b, start, end - start);
+					lines.add(line);
+				}
+				start = i + 1;
+			}
+		}
+		return b.length;
+	}
+
+	/**
+	 * Returns the number of lines where the tokenizer and the regular
+	 * expression disagree
+	 */
+	private static int compare(List<Text> lines, boolean lowerCaseLine) {
+		Tokenizer tokenizer = new Tokenizer(lowerCaseLine);
+		Text word = new Text();
+		int mismatches = 0;
+		for (Text line : lines) {
+			List<String> expected = new ArrayList<String>();
+			String s = line.toString();
+			for (String w : Tokenizer.WORD_BOUNDARY.split(lowerCaseLine ? s
+					.toLowerCase() : s)) {
+				if (!w.isEmpty()) {
+					expected.add(lowerCaseLine ? w : w.toLowerCase());
+				}
+			}
+			List<String> actual = new ArrayList<String>();
+			tokenizer.reset(line);
+			while (tokenizer.next(word)) {
+				actual.add(word.toString());
+			}
+			if (!expected.equals(actual)) {
+				if (mismatches == 0) {
+					System.out.println("first mismatch: [" + s + "] expected "
+							+ expected + " got " + actual);
+				}
+				mismatches++;
+			}
+		}
+		return mismatches;
+	}
+
+	/**
+	 * The split used by the mappers before the Tokenizer
+	 */
+	private static long regex(List<Text> lines) {
+		long words = 0;
+		TermDocWritable key = new TermDocWritable();
+		for (Text line : lines) {
+			for (String w : Tokenizer.WORD_BOUNDARY.split(line.toString()
+					.toLowerCase())) {
+				if (!w.isEmpty()) {
+					key.set(w, 0);
+					words++;
+				}
+			}
+		}
+		return words;
+	}
+
+	private static long tokenizer(List<Text> lines) {
+		long words = 0;
+		Tokenizer tokenizer = new Tokenizer();
+		Text word = new Text();
+		TermDocWritable key = new TermDocWritable();
+		for (Text line : lines) {
+			tokenizer.reset(line);
+			while (tokenizer.next(word)) {
+				key.set(word, 0);
+				words++;
+			}
+		}
+		return words;
+	}
+}
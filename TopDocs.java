@@ -0,0 +1,126 @@
+package org.myorg;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class keeps the k best (document id, score) pairs seen so far in
+ *         a bounded min-heap of primitives. Documents are ordered by score,
+ *         highest first, and equal scores by document id, lowest first.
+ */
+public class TopDocs {
+
+	private final int k;
+	private final int[] docs;
+	private final double[] scores;
+	private int size;
+
+	public TopDocs(int k) {
+		this.k = k;
+		this.docs = new int[k];
+		this.scores = new double[k];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Returns true if the first document ranks below the second
+	 */
+	static boolean worse(double score1, int doc1, double score2, int doc2) {
+		return score1 < score2 || (score1 == score2 && doc1 > doc2);
+	}
+
+	/**
+	 * Returns the score a new document has to beat to enter the heap, or
+	 * negative infinity while the heap is not full
+	 */
+	public double threshold() {
+		return size < k ? Double.NEGATIVE_INFINITY : scores[0];
+	}
+
+	/**
+	 * Adds the document if it ranks among the best k
+	 *
+	 * @return true if the document was kept
+	 */
+	public boolean offer(int doc, double score) {
+		if (size < k) {
+			docs[size] = doc;
+			scores[size] = score;
+			siftUp(size++);
+			return true;
+		}
+		if (k == 0 || !worse(scores[0], docs[0], score, doc)) {
+			return false;
+		}
+		docs[0] = doc;
+		scores[0] = score;
+		siftDown(0);
+		return true;
+	}
+
+	/**
+	 * Empties the heap into the arrays, best document first
+	 *
+	 * @return the number of documents written
+	 */
+	public int drain(int[] docsOut, double[] scoresOut) {
+		int n = size;
+		while (size > 0) {
+			size--;
+			docsOut[size] = docs[0];
+			scoresOut[size] = scores[0];
+			docs[0] = docs[size];
+			scores[0] = scores[size];
+			siftDown(0);
+		}
+		return n;
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!worse(scores[i], docs[i], scores[parent], docs[parent])) {
+				break;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		while (true) {
+			int left = 2 * i + 1;
+			if (left >= size) {
+				break;
+			}
+			int worst = left;
+			int right = left + 1;
+			if (right < size
+					&& worse(scores[right], docs[right], scores[left],
+							docs[left])) {
+				worst = right;
+			}
+			if (!worse(scores[worst], docs[worst], scores[i], docs[i])) {
+				break;
+			}
+			swap(i, worst);
+			i = worst;
+		}
+	}
+
+	private void swap(int a, int b) {
+		int doc = docs[a];
+		docs[a] = docs[b];
+		docs[b] = doc;
+		double score = scores[a];
+		scores[a] = scores[b];
+		scores[b] = score;
+	}
+}
@@ -0,0 +1,135 @@
+package org.myorg;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class holds the JMH benchmarks of the mappers and reducers of
+ *         the pipeline. Each benchmark runs one of them once over its whole
+ *         input, through the task contexts Hadoop uses, on a corpus whose
+ *         words follow a Zipf distribution; the corpus and the input of every
+ *         stage are made once per fork by PipelineBenchmark.Pipeline.
+ *
+ *         An operation is a pass over the input, and the inputRecords and
+ *         outputRecords counters give the records per second. With -prof gc
+ *         JMH adds the bytes allocated per operation, gc.alloc.rate.norm,
+ *         which divided by the input records of the stage gives the bytes
+ *         per record, and the number and time of the garbage collections.
+ *
+ *         The size of the corpus is set with -p, for example
+ *         java -jar target/benchmarks.jar -prof gc -p documents=20000
+ *         -p exponent=1.2 tfidf
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class StageBenchmarks {
+
+	@Param("2000")
+	public int documents;
+	@Param("500")
+	public int wordsPerDocument;
+	@Param("50000")
+	public int vocabulary;
+	@Param("1.0")
+	public double exponent;
+
+	private File tmp;
+	private PipelineBenchmark.Pipeline pipeline;
+
+	/**
+	 *
+	 * Records read and written, reported by JMH per second
+	 *
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Records {
+		public long inputRecords;
+		public long outputRecords;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			inputRecords = 0;
+			outputRecords = 0;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		tmp = Files.createTempDirectory("stage-benchmarks").toFile();
+		pipeline = new PipelineBenchmark.Pipeline(new Configuration(), tmp,
+				documents, wordsPerDocument, vocabulary, exponent);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		FileUtil.fullyDelete(tmp);
+	}
+
+	private long run(int stage, Records records) throws Exception {
+		long output = pipeline.run(stage, null);
+		records.inputRecords += pipeline.input(stage).size();
+		records.outputRecords += output;
+		return output;
+	}
+
+	@Benchmark
+	public long docWordCountMap(Records records) throws Exception {
+		return run(0, records);
+	}
+
+	@Benchmark
+	public long termFrequencyMap(Records records) throws Exception {
+		return run(1, records);
+	}
+
+	@Benchmark
+	public long termFrequencyReduce(Records records) throws Exception {
+		return run(2, records);
+	}
+
+	@Benchmark
+	public long tfidfMap2(Records records) throws Exception {
+		return run(3, records);
+	}
+
+	@Benchmark
+	public long tfidfReduce2(Records records) throws Exception {
+		return run(4, records);
+	}
+
+	@Benchmark
+	public long searchMap(Records records) throws Exception {
+		return run(5, records);
+	}
+
+	@Benchmark
+	public long rankMap(Records records) throws Exception {
+		return run(6, records);
+	}
+}
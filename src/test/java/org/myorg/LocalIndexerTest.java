@@ -0,0 +1,83 @@
+package org.myorg;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.ToolRunner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Valentina Palghadmal
+ *
+ *         This class checks that LocalIndexer builds the same index as
+ *         TermFrequency and TFIDF run under the LocalJobRunner: the same
+ *         postings with weights equal to the last bit, and the same _norms
+ *         file. The corpus has a nested directory and an empty file, which
+ *         both builds must count as documents in the same order.
+ */
+public class LocalIndexerTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void buildsTheSameIndexAsMapReduce() throws Exception {
+		File corpus = tmp.newFolder("corpus");
+		write(new File(corpus, "a.txt"),
+				"the quick brown fox jumps over the lazy dog\n"
+						+ "the dog sleeps\n");
+		write(new File(corpus, "b.txt"),
+				"A quick test of the index, the weights and the norms.\n");
+		write(new File(corpus, "empty.txt"), "");
+		File nested = new File(corpus, "nested");
+		nested.mkdirs();
+		write(new File(nested, "c.txt"), "brown dogs and lazy foxes\n"
+				+ "quick quick quick\n");
+		write(new File(nested, "d.txt"), "over and over the fox\n");
+
+		Configuration conf = new Configuration();
+		conf.set("hadoop.tmp.dir", tmp.newFolder("hadoop").getPath());
+		String input = corpus.getPath();
+		String tf = new File(tmp.getRoot(), "tf").getPath();
+		String index = new File(tmp.getRoot(), "index").getPath();
+		String local = new File(tmp.getRoot(), "local").getPath();
+
+		String[] args = { input, tf, index };
+		assertEquals(0, ToolRunner.run(new Configuration(conf),
+				new TermFrequency(), args));
+		assertEquals(0, ToolRunner.run(new Configuration(conf), new TFIDF(),
+				args));
+		assertEquals(0, ToolRunner.run(new Configuration(conf),
+				new LocalIndexer(), new String[] { input, local, "2" }));
+
+		assertEquals(0, IndexCompare.compare(conf, new Path(index), new Path(
+				local), 0));
+		assertArrayEquals(norms(index), norms(local));
+	}
+
+	private static void write(File file, String text) throws IOException {
+		Writer out = new OutputStreamWriter(new FileOutputStream(file),
+				"UTF-8");
+		try {
+			out.write(text);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static byte[] norms(String index) throws IOException {
+		return Files.readAllBytes(new File(index, DocumentNorms.FILE).toPath());
+	}
+}